@@ -20,9 +20,11 @@ package com.morphoss.acal.acaltime;
 
 import java.io.Serializable;
 import java.text.DateFormat;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,7 +38,6 @@ import com.morphoss.acal.HashCodeUtil;
 import com.morphoss.acal.StaticHelpers;
 import com.morphoss.acal.davacal.AcalProperty;
 import com.morphoss.acal.davacal.PropertyName;
-import com.morphoss.acal.davacal.VCalendar;
 
 /**
  * <h1>AcalDateTime</h1>
@@ -96,7 +97,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 			);
 
 	public static final String			UTC_NAME			= "UTC";
-	public static final TimeZone		UTC					= TimeZone.getTimeZone(UTC_NAME);
+	public static final TimeZone		UTC					= TimeZoneCache.getTimeZone(UTC_NAME);
 
 	public static final int				SECONDS_IN_DAY		= 86400;
 	public static final int				SECONDS_IN_HOUR		= 3600;
@@ -150,6 +151,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	
 	protected TimeZone tz = null;
 	protected String tzName = null;
+	private transient TimeZoneCache.Zone zone = null;
 
 
 	/**
@@ -228,8 +230,9 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 		this.second = (short) second;
 		
 		if ( tzName != null ) {
-			tz = TimeZone.getTimeZone(tzName);
-			if ( tz != null ) this.tzName = tzName; 
+			zone = TimeZoneCache.forName(tzName);
+			tz = zone.tz;
+			this.tzName = zone.id;
 		}
 		epoch = EPOCH_NOT_SET;
 	}
@@ -273,23 +276,42 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 
 	/**
 	 * <p>
-	 * Returns a count of the number of leap days between epoch and January 1st of this 
-	 * year. Years in the range 1800 to 59999 should be OK, or beyond that to some extent,
-	 * but we don't, frankly, give a damn outside that range.
+	 * Returns the number of days from 1970-01-01 to the given date in the proleptic Gregorian
+	 * calendar.  This is done arithmetically, treating the year as starting in March so that the
+	 * leap day falls at the end, and working in 400 year 'eras' which always contain 146097 days.
 	 * </p>
-	 * @param year
-	 * @return The number of leap days between 1970-01-01 and January 1st of the specified year.
+	 * @param y The year
+	 * @param m The month, 1 to 12
+	 * @param d The day of the month, 1 to 31
+	 * @return The number of days since epoch, negative for dates before 1970.
 	 */
-	private static int epochLeapDays(int year) {
-		if ( year < 1972 ) {
-			year = 1999 - year;
-			return 7 - ((year / 4) - (year/100) + (year/400));
-		}
-		year -= 1969;
-		if ( year < 130 ) return (year / 4);
+	private static long daysFromCivil(int y, int m, int d) {
+		if ( m <= 2 ) y--;
+		final int era = (y >= 0 ? y : y - 399) / 400;
+		final int yearOfEra = y - era * 400;
+		final int dayOfYear = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+		final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return (long) era * 146097L + dayOfEra - 719468L;
+	}
 
-		year -= 32;
-		return 8 + ((year / 4) - (year / 100) + (year / 400));
+
+	/**
+	 * <p>
+	 * Sets the year, month and day from a count of days since 1970-01-01.  The inverse of
+	 * daysFromCivil().
+	 * </p>
+	 * @param epochDays
+	 */
+	private void setCivilFromDays(long epochDays) {
+		epochDays += 719468L;
+		final long era = (epochDays >= 0 ? epochDays : epochDays - 146096L) / 146097L;
+		final int dayOfEra = (int) (epochDays - era * 146097L);
+		final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final int mp = (5 * dayOfYear + 2) / 153;
+		day = (short) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		month = (short) (mp < 10 ? mp + 3 : mp - 9);
+		year = (short) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
 	}
 
 
@@ -372,9 +394,9 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 			tz = null;
 			return;
 		}
-		tzName = VCalendar.staticGetOlsonName(newTzName);
-		tz = TimeZone.getTimeZone(tzName);
-		if ( tz == null ) tzName = null;
+		zone = TimeZoneCache.forTzid(newTzName);
+		tzName = zone.id;
+		tz = zone.tz;
 	}
 
 	/**
@@ -653,16 +675,12 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	 */
 	public long getEpochDay() {
 		if ( epoch != EPOCH_NOT_SET ) {
-			long offset = (tz != null ? tz.getOffset(epoch*1000) / 1000 : 0);
+			long offset = (tz != null ? zoneOffset(epoch*1000) / 1000 : 0);
 			return (long) Math.floor((epoch+offset) / SECONDS_IN_DAY);
 		}
 		
 		// Otherwise work it out from the date fields.
-		return (long) (
-							((year - 1970) * DAYS_IN_YEAR)
-							+ epochLeapDays(year)
-							+ ( getYearDay() - 1 )
-						);
+		return daysFromCivil(year, month, day);
 	}
 
 
@@ -1136,20 +1154,18 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	 */
 	protected synchronized void calculateEpoch() {
 		if ( year == YEAR_NOT_SET ) throw new IllegalStateException("Uninitialised object");
-		epoch = (((year - 1970) * DAYS_IN_YEAR) + epochLeapDays(year) + ( getYearDay() - 1 )) * SECONDS_IN_DAY;
+		epoch = daysFromCivil(year, month, day) * SECONDS_IN_DAY;
 		epoch += (hour * SECONDS_IN_HOUR) + (minute * 60) + second;
 		if ( tz == null ) return;
-		long offset = tz.getOffset(this.getMillis()) / 1000;
+		long offset = zoneOffset(this.getMillis()) / 1000;
 		if ( offset == 0 ) return;
 		epoch -= offset;
-		if ( offset == tz.getOffset(this.getMillis()) / 1000 ) return;
-		epoch += (offset - (tz.getOffset(this.getMillis()) / 1000));
+		long correctedOffset = zoneOffset(this.getMillis()) / 1000;
+		if ( offset == correctedOffset ) return;
+		epoch += (offset - correctedOffset);
 	}
 
 	
-	final private static short TWENTY_YEARS = ((4 * DAYS_IN_YEAR) + 1) * 5;
-	final private static short FORTY_YEARS = ((4 * DAYS_IN_YEAR) + 1) * 10;
-
 	/**
 	 * Calculates the date + time values on the basis of the epoch value. We're lazy though
 	 * so we only calculate this if we have to.
@@ -1166,35 +1182,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 			nDays -= 1;
 		}
 
-		year = 1970;
-		// TODO: Work out a quicker way.  We should be able to do this with
-		// arithmetic directly
-		short daysInYear = 0;
-		if ( nDays > 0 ) {
-			if ( nDays > FORTY_YEARS )  { nDays -= FORTY_YEARS;  year += 40; }
-			if ( nDays > TWENTY_YEARS ) { nDays -= TWENTY_YEARS; year += 20; }
-			
-			while( nDays >= (daysInYear = (short) (DAYS_IN_YEAR + leapDay(year))) ) {
-				nDays -= daysInYear;
-				year++;
-			}
-		}
-		else {
-			if ( nDays < - FORTY_YEARS )  { nDays += FORTY_YEARS;  year -= 40; }
-			if ( nDays < - TWENTY_YEARS ) { nDays += TWENTY_YEARS; year -= 20; }
-			while( nDays < 0 ) {
-				year--;
-				daysInYear = (short) (DAYS_IN_YEAR + leapDay(year));
-				nDays += daysInYear;
-			}
-		}
-
-		hour = 0;
-		minute = 0;
-		second = 0;
-//		if ( Constants.debugDateTime  && Constants.LOG_VERBOSE )
-//			Log.v(TAG, "Setting year days to " + (nDays + 1) + ", seconds to " + nSeconds );
-		privateSetYearDay((short) ++nDays, daysInYear);
+		setCivilFromDays(nDays);
 
 		hour   = (short) (nSeconds / SECONDS_IN_HOUR);
 		minute = (short) ((nSeconds % SECONDS_IN_HOUR) / 60);
@@ -1250,7 +1238,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	 */
 	private void localiseToZone() {
 		if ( tz == null ) return;
-		long offset = tz.getOffset(this.getMillis()) / 1000;
+		long offset = zoneOffset(this.getMillis()) / 1000;
 		if ( offset == 0 ) return;
 		hour += (offset / SECONDS_IN_HOUR);
 		minute += ((offset % SECONDS_IN_HOUR) / 60);
@@ -1259,6 +1247,15 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	}
 
 
+	/**
+	 * Returns the offset of our timezone at the given UTC time, via the TimeZoneCache.
+	 */
+	private int zoneOffset(long utcMillis) {
+		if ( zone == null || zone.tz != tz ) zone = TimeZoneCache.forTimeZone(tz);
+		return zone.getOffset(utcMillis);
+	}
+
+
 	private void fixupTimeFields() {
 		if ( second < 0 )		{ second += 60; minute--; }
 		else if ( second > 59 )	{ second -= 60; minute++; }
@@ -1266,24 +1263,8 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 		else if ( minute > 59 )	{ minute -= 60; hour++; }
 		if ( hour < 0 )			{ hour += 24; day--; }
 		else if ( hour > 23 )	{ hour -= 24; day++; }
-		if ( day < 1 ) {
-			while( day < 1 ) {
-				month--;
-				if ( month < 1 ) {
-					year--;
-					month += 12;
-				}
-				day += monthDays(year,month);
-			}
-		}
-		else while ( day > monthDays(year,month) ) {
-			day -= monthDays(year,month);
-			month++;
-			if ( month > 12 ) {
-				month -= 12;
-				year++;
-			}
-		}
+		if ( day < 1 || day > monthDays(year,month) )
+			setCivilFromDays(daysFromCivil(year, month, 1) + day - 1);
 	}
 	
 
@@ -1372,6 +1353,10 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 
 
 	final private static String[] enWeekDayNames = new String[] { "Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun" };
+	final private static SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss zzz", Locale.US);
+	static {
+		httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
 	/**
 	 * Returns the aCalDateTime in a format for HTTP dates, i.e. a string like "Mon, 11 Apr 2011 09:50:30 GMT" 
 	 * @return
@@ -1381,6 +1366,30 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 		return enWeekDayNames[getWeekDay()] + ", " + toJavaDate().toGMTString();
 	}
 
+
+	/**
+	 * Parses an HTTP date, as written by httpDateString() or sent by a server in getlastmodified,
+	 * into a UTC AcalDateTime.  Only the RFC 1123 form which HTTP/1.1 servers must send is accepted.
+	 * @param httpDate A string like "Mon, 11 Apr 2011 09:50:30 GMT"
+	 * @return A new AcalDateTime in UTC
+	 * @throws IllegalArgumentException
+	 */
+	public static AcalDateTime fromHttpDate(String httpDate) throws IllegalArgumentException {
+		if ( httpDate == null )
+			throw new IllegalArgumentException("Date may not be null.");
+
+		Date parsed;
+		synchronized( httpDateFormat ) {
+			parsed = httpDateFormat.parse(httpDate, new ParsePosition(0));
+		}
+		if ( parsed == null )
+			throw new IllegalArgumentException("Date '" + httpDate + "' is not an HTTP date.");
+
+		AcalDateTime result = fromMillis(parsed.getTime());
+		result.setTimeZone(UTC_NAME);
+		return result;
+	}
+
 	
 	/**
 	 * Compare this AcalDateTime to another.  If this is earlier than the other return a negative
@@ -1552,6 +1561,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 				if ( tmpInt < (SECONDS_IN_HOUR * -12) ) tmpInt += SECONDS_IN_DAY;
 				else if ( tmpInt > (SECONDS_IN_HOUR * 12) ) tmpInt -= SECONDS_IN_DAY;
 				epoch += tmpInt;
+				year = YEAR_NOT_SET;
 			}
 		}
 		if ( Constants.debugDateTime ) checkEpoch();
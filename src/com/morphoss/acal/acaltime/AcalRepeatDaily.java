@@ -52,6 +52,16 @@ public class AcalRepeatDaily extends AcalRepeatRuleParser {
 		currentBase.addDays(interval);
 	}
 
+	@Override
+	protected long periodsUntil( AcalDateTime target ) {
+		return (target.getEpochDay() - originalBase.getEpochDay()) / interval;
+	}
+
+	@Override
+	protected void skipPeriods( long periods ) {
+		currentBase = originalBase.clone().addDays((int) (periods * interval));
+	}
+
 	
 	@Override
 	public List<AcalDateTime> buildSet() {
@@ -63,6 +63,25 @@ public class AcalRepeatMonthly extends AcalRepeatRuleParser {
 	}
 
 	
+	@Override
+	protected long periodsUntil( AcalDateTime target ) {
+		long months = ((target.getYear() - originalBase.getYear()) * 12L) + (target.getMonth() - originalBase.getMonth());
+		return months / interval;
+	}
+
+	@Override
+	protected void skipPeriods( long periods ) {
+		// addMonths() will bring the 29th - 31st back to the end of a shorter month, and that is
+		// as good a base as any since buildSet() will expand those days from originalBase.
+		currentBase = originalBase.clone().addMonths((int) (periods * interval));
+	}
+
+	@Override
+	protected boolean isSimpleFrequency() {
+		// Days after the 28th need expanding, since they don't happen in every period
+		return super.isSimpleFrequency() && originalBase.get(AcalDateTime.DAY_OF_MONTH) <= 28;
+	}
+
 	@Override
 	public List<AcalDateTime> buildSet() {
 		startNewSet();
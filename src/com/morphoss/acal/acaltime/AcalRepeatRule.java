@@ -21,9 +21,8 @@ package com.morphoss.acal.acaltime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,20 +53,46 @@ public class AcalRepeatRule {
 	private final AcalDateTime			baseDate;
 	public final AcalRepeatRuleParser	repeatRule;
 
-	private AcalDateTime[]				rDate				= null;
-	private int							rDatePos			= -1;
-	private AcalDateTime[]				exDate				= null;
-	private int							exDatePos			= -1;
+	private long[]						rDate				= null;
+	private int							rDatePos			= 0;
+	private long[]						exDate				= null;
+	private int							exDatePos			= 0;
 
-	private List<AcalDateTime>			recurrences			= null;
-	private Map<Long, LocalEventInstance>	eventTimes			= null;
-	private int							lastCalc			= -1;
-	private int							currentPos			= -1;
-	private boolean						finished			= false;
-	private boolean						started				= false;
 	private AcalDuration				baseDuration		= null;
 	private AcalDuration				lastDuration		= null;
 
+	/*
+	 * The epoch cursor.  Instances are generated one at a time as seconds from epoch, with the
+	 * current period's set held in a buffer belonging to the parser, so walking along a rule
+	 * doesn't need to allocate anything per instance.
+	 */
+	private long						baseEpoch;
+	private long						untilEpoch			= Long.MAX_VALUE;
+	private long[]						periodSet			= null;
+	private int							periodCount			= 0;
+	private int							periodPos			= 0;
+	private int							emptySets			= 0;
+	private int							ruleCount			= 0;
+	private long						ruleEpoch			= 0;
+	private boolean						rulePeeked			= false;
+	private boolean						periodReady			= false;
+	private boolean						ruleFinished		= false;
+	private long						cursorEpoch			= 0;
+	private long						lastEpoch			= Long.MIN_VALUE;
+	private boolean						cursorPeeked		= false;
+	private boolean						cursorAvailable		= false;
+	private boolean						finished			= false;
+	private Checkpoint					windowEnd			= null;
+
+	/*
+	 * Checkpoints we know of for this rule, in order, and those among them which were recorded
+	 * here rather than supplied to us.  Once seek() has had to start from somewhere other than
+	 * the period containing the target we record one each time the cursor passes nextCheckpointEpoch.
+	 */
+	private ArrayList<Checkpoint>		checkpoints			= null;
+	private ArrayList<Checkpoint>		newCheckpoints		= null;
+	private long						nextCheckpointEpoch	= Long.MAX_VALUE;
+
 	private VCalendar					sourceVCalendar		= null;
 
 	private long	collectionId = VComponent.VALUE_NOT_ASSIGNED;
@@ -76,21 +101,16 @@ public class AcalRepeatRule {
 	final public static AcalRepeatRuleParser SINGLE_INSTANCE = AcalRepeatRuleParser.parseRepeatRule("FREQ=DAILY;COUNT=1");
 	
 	final private static int			MAX_REPEAT_INSTANCES	= 100;
+	final private static long			CHECKPOINT_INTERVAL		= 366L * AcalDateTime.SECONDS_IN_DAY;
 	
 	public AcalRepeatRule(AcalDateTime dtStart, String rRule) {
 		baseDate = dtStart.clone();
+		baseEpoch = baseDate.getEpoch();
 		if ( rRule == null || rRule.equals("")) {
-			recurrences = new ArrayList<AcalDateTime>(1);
-			recurrences.add(baseDate);
-			currentPos	= -1;
-			lastCalc	= 0;
-			started 	= true;
-			finished 	= true;
 			repeatRule = AcalRepeatRule.SINGLE_INSTANCE;
 		}
 		else
 			repeatRule = AcalRepeatRuleParser.parseRepeatRule(rRule);
-		eventTimes = new HashMap<Long,LocalEventInstance>();
 	}
 
 
@@ -175,14 +195,22 @@ public class AcalRepeatRule {
 			for( int i=0; i < dateList.length; i++ ) {
 				timeList[i] = AcalDateTime.fromIcalendar( dateList[i], isDateParam, tzIdParam );
 			}
-			Arrays.sort(timeList);
+			long[] epochList = new long[timeList.length];
+			int nEpochs = 0;
+			for( AcalDateTime t : timeList ) {
+				if ( t != null ) epochList[nEpochs++] = t.getEpoch();
+			}
+			if ( nEpochs < epochList.length ) {
+				long[] shorter = new long[nEpochs];
+				System.arraycopy(epochList, 0, shorter, 0, nEpochs);
+				epochList = shorter;
+			}
+			Arrays.sort(epochList);
 			if ( dListPName.equals(PropertyName.RDATE) ) {
-				ret.rDate = timeList;
-				ret.rDatePos = 0;
+				ret.rDate = epochList;
 			}
 			else if ( dListPName.equals(PropertyName.EXDATE) ) {
-				ret.exDate = timeList;
-				ret.exDatePos = 0;
+				ret.exDate = epochList;
 			}
 		}
 		
@@ -192,29 +220,374 @@ public class AcalRepeatRule {
 	
 	
 	public void reset() {
-		currentPos = -1;
+		rewind();
 	}
 
 	public AcalDateTime next() {
-		if (currentPos > lastCalc && finished) return null;
-		currentPos++;
-		getMoreInstances();
-		if (currentPos > lastCalc && finished) return null;
-		if ( currentPos >= recurrences.size() ) {
-			if (Constants.LOG_DEBUG) Log.println(Constants.LOGD,TAG,"Managed to exceed recurrences.size() at " + currentPos+"/"+recurrences.size()
-						+" Last"+lastCalc+(finished?" (finished)":"")
-						+" processing: " + this.repeatRule.toString() );
-		}
-		return recurrences.get(currentPos);
+		return nextInstance(null);
 	}
 
 	public boolean hasNext() {
-		if ( currentPos < lastCalc ) return true;
-		getMoreInstances();
-		if (currentPos >= lastCalc && finished) return false;
+		return hasNextEpoch();
+	}
+
+
+	/**
+	 * <p>
+	 * Restarts the epoch cursor from the first instance.  Only the current position is kept,
+	 * so walking through any number of instances takes the same amount of memory.
+	 * </p>
+	 */
+	public void rewind() {
+		rDatePos		= 0;
+		exDatePos		= 0;
+		periodCount		= 0;
+		periodPos		= 0;
+		emptySets		= 0;
+		ruleCount		= 0;
+		rulePeeked		= false;
+		periodReady		= false;
+		ruleFinished	= false;
+		lastEpoch		= Long.MIN_VALUE;
+		cursorPeeked	= false;
+		finished		= false;
+		nextCheckpointEpoch = Long.MAX_VALUE;
+		if ( repeatRule != SINGLE_INSTANCE ) repeatRule.resetBaseDate();
+	}
+
+
+	/**
+	 * <p>
+	 * Restarts the epoch cursor so that the next instance returned will be the first which starts
+	 * at or after the target, although some which start earlier may also be returned first.  Where
+	 * the rule allows it we work out the period to start from directly, rather than stepping through
+	 * every instance from the start of the rule, so the cost doesn't depend on how old the rule is.
+	 * </p>
+	 * @param target
+	 */
+	public void seek( AcalDateTime target ) {
+		rewind();
+		if ( target == null || target.getEpoch() <= baseEpoch || repeatRule == SINGLE_INSTANCE ) return;
+
+		long skipped = repeatRule.seekBaseDate(baseDate, target);
+		if ( skipped < 1 ) {
+			// We can't jump there, but if the last window we expanded finished before the target, or
+			// we have a checkpoint from some earlier expansion, we can carry on from there.  Either way
+			// we leave checkpoints behind us as we go, for next time.
+			long targetEpoch = target.getEpoch();
+			Checkpoint from = checkpointAtOrBefore(targetEpoch);
+			if ( windowEnd != null && windowEnd.nextEpoch <= targetEpoch && (from == null || windowEnd.nextEpoch > from.nextEpoch) )
+				from = windowEnd;
+			if ( from == null || !resume(from) ) {
+				rewind();
+				from = null;
+			}
+			nextCheckpointEpoch = (from == null ? baseEpoch : from.nextEpoch) + CHECKPOINT_INTERVAL;
+			return;
+		}
+
+		// Every skipped period had exactly one instance if there is a COUNT, and the first of them
+		// was DTSTART.  We just need to make sure DTSTART isn't returned again.
+		ruleCount = (int) Math.min(skipped, Integer.MAX_VALUE);
+		lastEpoch = baseEpoch;
+		periodReady = true;
+		if ( rDate != null ) {
+			long targetEpoch = target.getEpoch();
+			while( rDatePos < rDate.length && rDate[rDatePos] < targetEpoch ) rDatePos++;
+		}
+		if ( Constants.debugRepeatRule && Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD,TAG,"Skipped "+skipped+" periods to reach "+target.fmtIcal()+" in "+repeatRule.toString() );
+	}
+
+
+	/**
+	 * <p>
+	 * Returns a snapshot of the epoch cursor, which resume() can later use to carry on from the
+	 * same place without working through any of the earlier instances again.
+	 * </p>
+	 * @return A checkpoint for the next instance the cursor will return.
+	 */
+	public Checkpoint getCheckpoint() {
+		hasNextEpoch();
+		return new Checkpoint(this);
+	}
+
+
+	/**
+	 * <p>
+	 * Puts the epoch cursor back where it was when the checkpoint was taken.  The checkpoint
+	 * must have come from a rule with the same DTSTART, RRULE, RDATE and EXDATE.
+	 * </p>
+	 * @param checkpoint
+	 * @return false if the checkpoint is for some other rule, in which case the cursor is just rewound.
+	 */
+	public boolean resume( Checkpoint checkpoint ) {
+		rewind();
+		if ( checkpoint == null || !checkpoint.ruleKey.equals(getRuleKey()) ) return false;
+		if ( repeatRule == SINGLE_INSTANCE && checkpoint.periodBase != null ) return false;
+
+		if ( checkpoint.periodBase != null ) {
+			repeatRule.resumeBaseDate(baseDate, checkpoint.periodBase);
+			untilEpoch = (repeatRule.until == null ? Long.MAX_VALUE : repeatRule.until.getEpoch());
+			if ( checkpoint.periodReady ) {
+				periodReady = true;
+			}
+			else {
+				periodCount = repeatRule.buildEpochSet();
+				periodSet = repeatRule.getEpochSet();
+			}
+		}
+		periodPos		= checkpoint.periodPos;
+		emptySets		= checkpoint.emptySets;
+		ruleCount		= checkpoint.ruleCount;
+		ruleEpoch		= checkpoint.ruleEpoch;
+		rulePeeked		= checkpoint.rulePeeked;
+		ruleFinished	= checkpoint.ruleFinished;
+		rDatePos		= checkpoint.rDatePos;
+		exDatePos		= checkpoint.exDatePos;
+		lastEpoch		= checkpoint.lastEpoch;
+		cursorEpoch		= checkpoint.cursorEpoch;
+		cursorAvailable	= checkpoint.cursorAvailable;
+		cursorPeeked	= true;
+		finished		= checkpoint.finished;
+		return true;
+	}
+
+
+	/**
+	 * <p>
+	 * Supplies checkpoints saved from an earlier expansion of this rule, so that seek() can start
+	 * from the nearest one before the target when it can't work out the period directly.  Any
+	 * which were taken from a different version of the rule are ignored.
+	 * </p>
+	 * @param saved
+	 */
+	public void setCheckpoints( List<Checkpoint> saved ) {
+		checkpoints = null;
+		newCheckpoints = null;
+		if ( saved == null || saved.isEmpty() ) return;
+		String ruleKey = getRuleKey();
+		for( Checkpoint c : saved ) {
+			if ( c != null && c.ruleKey.equals(ruleKey) ) addCheckpoint(c);
+		}
+	}
+
+
+	/**
+	 * <p>
+	 * Returns the checkpoints which have been recorded while expanding this rule since it was
+	 * created, or since the last call to this, excluding any supplied to setCheckpoints().
+	 * </p>
+	 * @return The new checkpoints in order, or null if there are none.
+	 */
+	public List<Checkpoint> takeNewCheckpoints() {
+		List<Checkpoint> ret = newCheckpoints;
+		newCheckpoints = null;
+		return ret;
+	}
+
+
+	/**
+	 * Adds a checkpoint in order, unless we already have one for the same instance.
+	 * @return true if it was added.
+	 */
+	private boolean addCheckpoint( Checkpoint checkpoint ) {
+		if ( checkpoints == null ) checkpoints = new ArrayList<Checkpoint>();
+		int i = checkpoints.size();
+		while( i > 0 && checkpoints.get(i-1).nextEpoch > checkpoint.nextEpoch ) i--;
+		if ( i > 0 && checkpoints.get(i-1).nextEpoch == checkpoint.nextEpoch ) return false;
+		checkpoints.add(i, checkpoint);
 		return true;
 	}
 
+
+	/**
+	 * @return The checkpoint nearest to the epoch without being after it, or null if there isn't one.
+	 */
+	private Checkpoint checkpointAtOrBefore( long epoch ) {
+		Checkpoint best = null;
+		if ( checkpoints != null ) {
+			for( Checkpoint c : checkpoints ) {
+				if ( c.nextEpoch > epoch ) break;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * Records a checkpoint for the instance at the cursor, unless there's a known one soon after it
+	 * anyway, and works out where the next one should be.
+	 */
+	private void recordCheckpoint() {
+		nextCheckpointEpoch = cursorEpoch + CHECKPOINT_INTERVAL;
+		Checkpoint known = checkpointAtOrBefore(nextCheckpointEpoch - 1);
+		if ( known != null && known.nextEpoch >= cursorEpoch ) {
+			nextCheckpointEpoch = known.nextEpoch + CHECKPOINT_INTERVAL;
+			return;
+		}
+		Checkpoint checkpoint = new Checkpoint(this);
+		if ( !addCheckpoint(checkpoint) ) return;
+		if ( newCheckpoints == null ) newCheckpoints = new ArrayList<Checkpoint>();
+		newCheckpoints.add(checkpoint);
+		if ( Constants.debugRepeatRule && Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD,TAG,"Recorded checkpoint at "+cursorEpoch+" in "+repeatRule.toString() );
+	}
+
+
+	/**
+	 * Identifies the instances this rule generates, so we can tell whether a checkpoint belongs to it.
+	 */
+	private String getRuleKey() {
+		StringBuilder key = new StringBuilder(repeatRule.toString());
+		key.append('@').append(baseEpoch);
+		key.append("/R").append(rDate == null ? 0 : rDate.length);
+		if ( rDate != null && rDate.length > 0 ) key.append(':').append(rDate[rDate.length-1]);
+		key.append("/X").append(exDate == null ? 0 : exDate.length);
+		if ( exDate != null && exDate.length > 0 ) key.append(':').append(exDate[exDate.length-1]);
+		return key.toString();
+	}
+
+
+	/**
+	 * @return true if the epoch cursor has another instance.
+	 */
+	public boolean hasNextEpoch() {
+		if ( !cursorPeeked ) {
+			cursorAvailable = advanceCursor();
+			cursorPeeked = true;
+		}
+		return cursorAvailable;
+	}
+
+
+	/**
+	 * <p>
+	 * Returns the start of the next instance as seconds from epoch, without allocating anything.
+	 * Instances are returned in ascending order, with EXDATE removed and RDATE merged in.
+	 * </p>
+	 * @return The start of the next instance.
+	 * @throws NoSuchElementException if there are no more instances.
+	 */
+	public long nextEpoch() {
+		if ( !hasNextEpoch() ) throw new NoSuchElementException();
+		if ( cursorEpoch >= nextCheckpointEpoch ) recordCheckpoint();
+		cursorPeeked = false;
+		return cursorEpoch;
+	}
+
+
+	/**
+	 * <p>
+	 * Like nextEpoch(), but sets the instance into an AcalDateTime so it is in the same timezone
+	 * as the start of the rule.  The AcalDateTime passed in should have come from an earlier call
+	 * to this so it is in that timezone, and it will be overwritten.
+	 * </p>
+	 * @param reuse An AcalDateTime to set, or null to have a new one allocated.
+	 * @return The next instance, or null if there are no more.
+	 */
+	public AcalDateTime nextInstance( AcalDateTime reuse ) {
+		if ( !hasNextEpoch() ) return null;
+		if ( cursorEpoch >= nextCheckpointEpoch ) recordCheckpoint();
+		cursorPeeked = false;
+		return nextInstanceAt(cursorEpoch, reuse);
+	}
+
+
+	/**
+	 * Moves the cursor on to the next instance, leaving it in cursorEpoch.
+	 * @return false if there are no more instances.
+	 */
+	private boolean advanceCursor() {
+		while( !finished ) {
+			long candidate;
+			if ( lastEpoch < baseEpoch && rDate != null && rDatePos < rDate.length && rDate[rDatePos] < baseEpoch ) {
+				// An RDATE may be earlier than DTSTART, in which case it comes first.
+				candidate = rDate[rDatePos++];
+				if ( candidate == lastEpoch ) continue;
+			}
+			else if ( lastEpoch < baseEpoch ) {
+				// DTSTART is always an instance, whether or not it matches the rule, unless the
+				// rule has been truncated to end before it.
+				candidate = baseEpoch;
+				ruleCount = 1;
+				peekRule();
+				if ( baseEpoch > untilEpoch ) {
+					finished = true;
+					break;
+				}
+			}
+			else {
+				if ( !rulePeeked ) peekRule();
+				if ( rDate != null && rDatePos < rDate.length && (ruleFinished || rDate[rDatePos] <= ruleEpoch) ) {
+					candidate = rDate[rDatePos++];
+				}
+				else if ( !ruleFinished ) {
+					candidate = ruleEpoch;
+					rulePeeked = false;
+				}
+				else {
+					finished = true;
+					break;
+				}
+				// Only skip exact repeats, such as an RDATE which the rule also generates.
+				if ( candidate == lastEpoch ) continue;
+			}
+			lastEpoch = candidate;
+
+			if ( exDate != null ) {
+				while( exDatePos < exDate.length && exDate[exDatePos] < candidate ) exDatePos++;
+				if ( exDatePos < exDate.length && exDate[exDatePos] == candidate ) continue;
+			}
+			cursorEpoch = candidate;
+			return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Finds the next instance generated by the RRULE itself, leaving it in ruleEpoch, or setting
+	 * ruleFinished if there are no more.
+	 */
+	private void peekRule() {
+		rulePeeked = true;
+		while( !ruleFinished ) {
+			if ( repeatRule.count != AcalRepeatRuleParser.INFINITE_REPEAT_COUNT && ruleCount > repeatRule.count ) {
+				ruleFinished = true;
+				break;
+			}
+			if ( periodPos < periodCount ) {
+				long epoch = periodSet[periodPos++];
+				if ( epoch <= baseEpoch ) continue;
+				if ( epoch > untilEpoch ) {
+					ruleFinished = true;
+					break;
+				}
+				ruleCount++;
+				ruleEpoch = epoch;
+				return;
+			}
+
+			if ( periodReady )
+				periodReady = false;
+			else
+				repeatRule.nextBaseDate(baseDate);
+			untilEpoch = (repeatRule.until == null ? Long.MAX_VALUE : repeatRule.until.getEpoch());
+			periodCount = repeatRule.buildEpochSet();
+			periodSet = repeatRule.getEpochSet();
+			periodPos = 0;
+			if ( periodCount > 0 ) {
+				emptySets = 0;
+			}
+			else if ( emptySets++ > 50 ) {
+				ruleFinished = true;
+				Log.e(TAG,"Too many empty sets processing "+repeatRule.toString());
+			}
+		}
+	}
+
 	/**
 	 * <h3>Internal enum for types of FREQ=type</h3>
 	 * <p>
@@ -270,85 +643,6 @@ public class AcalRepeatRule {
 
 
 
-	private boolean getMoreInstances() {
-	    if ( finished ) return false;
-	    if ( currentPos < lastCalc ) return true;
-	    
-	    if ( recurrences != null && recurrences.size() > 3000 ) {
-			Log.e(TAG,"Too many instances (3000):");
-			Log.e(TAG,"Too many " +baseDate.toPropertyString(PropertyName.DTSTART));
-			Log.e(TAG,"Too many " +repeatRule.toString());
-		    throw new RuntimeException("ETOOTOOMUCHREPETITIONKTHXBAI");
-		}
-
-	    boolean foundSome = false;
-	    int emptySets = 0;
-
-		while ( !finished && currentPos >= lastCalc ) {
-		   	repeatRule.nextBaseDate(baseDate);
-	    	List<AcalDateTime> newSet = repeatRule.buildSet();
-	    	if ( newSet.isEmpty() ) {
-	    		if ( emptySets++ > 50 ) {
-	    			finished = true;
-	    			Log.e(TAG,"Too many empty sets processing "+repeatRule.toString());
-	    		}
-	    		continue;
-	    	}
-			Collections.sort(newSet, new AcalDateTime.AcalDateTimeSorter());
-
-			emptySets = 0;
-	    	AcalDateTime thisInstance = null;
-    		int i=0;
-	    	while( !finished && i < newSet.size()
-	    				&& ( repeatRule.count == AcalRepeatRuleParser.INFINITE_REPEAT_COUNT 
-	    							||  lastCalc < repeatRule.count ) ) {
-	    		thisInstance = newSet.get(i++);
-	    		if ( !started ) {
-	    			if ( thisInstance.before(baseDate)) continue;
-	    		    if ( recurrences == null ) {
-	    		    	recurrences = new ArrayList<AcalDateTime>();
-	    		    }
-	    			if ( thisInstance.after(baseDate) ) recurrences.add(baseDate);
-	    			started = true;
-		    		foundSome = true;
-	    		}
-	    		if ( repeatRule.until != null && thisInstance.after(repeatRule.until) ) {
-	    			finished = true;
-	    			break;
-	    		}
-	    		if ( exDate != null && exDatePos < exDate.length ) {
-	    			if ( exDate[exDatePos] == null || exDate[exDatePos].equals(thisInstance) || exDate[exDatePos].before(thisInstance) ) {
-	    				exDatePos++;
-	    				continue;
-	    			}
-	    		}
-	    		while ( rDate != null && rDatePos < rDate.length && 
-	    					(rDate[rDatePos] == null || rDate[rDatePos].before(thisInstance)) ) {
-		    		recurrences.add(rDate[rDatePos++].clone());
-		    		lastCalc++;
-		    		foundSome = true;
-
-		    		if ( repeatRule.count != AcalRepeatRuleParser.INFINITE_REPEAT_COUNT
-			    				&& lastCalc >= repeatRule.count ) {
-			    		finished = true;
-			    		break;
-			    	}
-	    		}
-	    		recurrences.add(thisInstance.clone());
-	    		lastCalc++;
-	    		foundSome = true;
-
-		    	if ( repeatRule.count != AcalRepeatRuleParser.INFINITE_REPEAT_COUNT
-		    				&& lastCalc >= repeatRule.count ) {
-		    		finished = true;
-		    	}
-	    	}
-		}
-//		debugInstanceList("Got More Instances");
-		return foundSome;
-	}
-
-
 	public List<AcalDateTime> getInstancesInRange( AcalDateTime start, AcalDateTime end ) {
 		if ( end == null )
 			throw new IllegalArgumentException("getInstancesInRange: End of range may not be null.");
@@ -358,21 +652,15 @@ public class AcalRepeatRule {
 		else if ( repeatRule.until != null && start.after(repeatRule.until) )
 			return new ArrayList<AcalDateTime>(0);
 
-		if ( recurrences != null ) {
-			for ( currentPos=0; currentPos<=lastCalc && recurrences.get(currentPos).before(start); currentPos++)
-				;
-		}
-
-		AcalDateTime thisDate = null;
-		do {
-			thisDate = next();
-		}
-		while( thisDate.before(start) );
-
+		long startEpoch = start.getEpoch();
+		long endEpoch = end.getEpoch();
 		List<AcalDateTime> ret = new ArrayList<AcalDateTime>();
-		while( thisDate != null && thisDate.before(end) ) {
-			ret.add(thisDate);
-			thisDate = next();
+		seek(start);
+		while( hasNextEpoch() ) {
+			long epoch = nextEpoch();
+			if ( epoch < startEpoch ) continue;
+			if ( epoch >= endEpoch ) break;
+			ret.add(baseDate.clone().setEpoch(epoch));
 		}
 		return ret;
 	}
@@ -397,16 +685,17 @@ public class AcalRepeatRule {
 			if ( Constants.debugRepeatRule && Constants.LOG_DEBUG )
 				Log.println(Constants.LOGD,TAG,"Calculating instance range for count limited repeat: " + repeatRule.toString() );
 
-			while( hasNext() ) {
-				next();
+			long lastStart = baseEpoch;
+			rewind();
+			while( hasNextEpoch() ) {
+				lastStart = nextEpoch();
 			}
-			endDate = recurrences.get(currentPos);
+			endDate = baseDate.clone().setEpoch(lastStart);
 			try {
 				sourceVCalendar.setPersistentOn();
 				RecurrenceId ourRecurrenceId = (RecurrenceId) AcalProperty.fromString(endDate.toPropertyString(PropertyName.RECURRENCE_ID));
 				Masterable vMaster = sourceVCalendar.getChildFromRecurrenceId(ourRecurrenceId);
 				LocalEventInstance instance = getRecurrence(endDate,vMaster);
-				eventTimes.put(endDate.getEpoch(), instance );
 				endDate = instance.dtend;
 			}
 			catch ( Exception e ) {
@@ -476,47 +765,45 @@ public class AcalRepeatRule {
 
 		int found = 0;
 		long processingStarted = System.currentTimeMillis();
-		AcalDateTime thisDate = null;
 		LocalEventInstance instance = null;
 		Masterable ourVEvent = null;
-		int possiblyInfinite = 0;
 		try {
-			reset();
 			sourceVCalendar.setPersistentOn();
 			ourVEvent = sourceVCalendar.getMasterChild();
 			ourVEvent.setPersistentOn();
-			do {
-				thisDate = next();
-				if ( thisDate == null ) {
-					if ( Constants.debugRepeatRule && Constants.LOG_DEBUG )
-						Log.println(Constants.LOGD,TAG, "Null before finding useful instance for " +repeatRule.toString() );
+
+			long rangeStart = range.start.getEpoch();
+			long rangeEnd = range.end.getEpoch();
+			boolean hasOverrides = sourceVCalendar.masterHasOverrides();
+			AcalDateTime thisDate = null;
+			AcalDateTime thisEnd = null;
+
+			// An override may have been moved away from its RECURRENCE-ID, so we have to look far
+			// enough either side of the range to find any which have been moved into it.
+			long[] shifts = (hasOverrides ? overrideShifts() : new long[] { 0, 0 });
+			seek(AcalDateTime.fromMillis((rangeStart - longestDuration(hasOverrides) - shifts[0]) * 1000L));
+			while( hasNextEpoch() ) {
+				if ( cursorEpoch >= rangeEnd + shifts[1] ) {
+					windowEnd = getCheckpoint();
 					break;
 				}
-
-				instance = eventTimes.get(thisDate.getEpoch());
-				if ( instance == null ) {
-					instance = getRecurrence(thisDate, ourVEvent);
-					eventTimes.put(thisDate.getEpoch(), instance);
+				long epoch = nextEpoch();
+				thisDate = nextInstanceAt(epoch, thisDate);
+
+				if ( !hasOverrides ) {
+					// Every instance has the master's duration, so we can tell whether this one
+					// ends before the range without building it.
+					thisEnd = nextInstanceAt(epoch, thisEnd).addDuration(baseDuration);
+					if ( thisEnd.getEpoch() <= rangeStart ) continue;
 				}
 
-				if ( Constants.debugRepeatRule && Constants.LOG_DEBUG ) {
-					if ( instance.dtend.after(range.start) ) break;
-					Log.println(Constants.LOGD,TAG, "Skipping Instance with recurrenceId: "+thisDate.fmtIcal()+" of " +repeatRule.toString()+
-							"\n       scheduled from: "+instance.dtstart.fmtIcal()+" to "+instance.dtend.fmtIcal()+" which ends before "+ range.start);
-				}
-			}
-			while( thisDate != null && ! instance.dtend.after(range.start) && possiblyInfinite < 20 );
-
-			while( thisDate != null
-						&& instance.dtstart.before(range.end)
-						&& possiblyInfinite < 40 ) {
-
-				instance = eventTimes.get(thisDate.getEpoch());
-				if ( instance == null ) {
-					instance = getRecurrence(thisDate, ourVEvent);
-					eventTimes.put(thisDate.getEpoch(), instance);
+				instance = getRecurrence(thisDate, ourVEvent);
+				if ( !instance.overlaps(rangeStart, rangeEnd) ) {
+					if ( Constants.debugRepeatRule && Constants.LOG_DEBUG )
+						Log.println(Constants.LOGD,TAG, "Skipping Instance with recurrenceId: "+thisDate.fmtIcal()+" of " +repeatRule.toString()+
+								"\n       scheduled from: "+instance.dtstart.fmtIcal()+" to "+instance.dtend.fmtIcal()+" which is outside "+ range);
+					continue;
 				}
-				if( ! instance.dtstart.before(range.end) ) break;
 
 				if (cacheObjects) {
 					eventList.add(instance.getCacheObject());
@@ -528,17 +815,15 @@ public class AcalRepeatRule {
 					Log.println(Constants.LOGD,TAG, "Adding Instance: "+thisDate.fmtIcal()+" of " +repeatRule.toString() );
 					Log.println(Constants.LOGD,TAG, "Adding Instance range: "+instance.dtstart.fmtIcal()+" - "+instance.dtend.fmtIcal() );
 				}
-				
-				thisDate = next();
 
 				found++;
 			}
 		}
 		catch ( Exception e ) {
-			if ( Constants.LOG_VERBOSE ) {
-				Log.println(Constants.LOGV,TAG,"Exception while appending event instances between "+range.start.fmtIcal()+" and "+range.end.fmtIcal());
-				Log.println(Constants.LOGV,TAG,Log.getStackTraceString(e));
-			}
+			// Anything after this point is missing from the list, so this shouldn't pass quietly
+			Log.w(TAG,"Exception while appending event instances between "+range.start.fmtIcal()+" and "+range.end.fmtIcal()
+						+" after "+found+" of "+repeatRule.toString());
+			Log.w(TAG,Log.getStackTraceString(e));
 		}
 		finally {
 			ourVEvent.setPersistentOff();
@@ -564,6 +849,45 @@ public class AcalRepeatRule {
 		return;
 	}
 
+	/**
+	 * @return The longest any instance can last in seconds, allowing a day for daylight saving changes.
+	 */
+	private long longestDuration( boolean hasOverrides ) {
+		long longest = baseDuration.getDurationMillis();
+		if ( hasOverrides ) {
+			for( VComponent child : sourceVCalendar.getChildren() ) {
+				if ( child instanceof Masterable ) {
+					long duration = ((Masterable) child).getDuration().getDurationMillis();
+					if ( duration > longest ) longest = duration;
+				}
+			}
+		}
+		return (longest / 1000L) + AcalDateTime.SECONDS_IN_DAY;
+	}
+
+	/**
+	 * @return The furthest any override has been moved later than its RECURRENCE-ID, and the furthest
+	 * any has been moved earlier, in seconds.
+	 */
+	private long[] overrideShifts() {
+		long[] shifts = { 0, 0 };
+		for( VComponent child : sourceVCalendar.getChildren() ) {
+			if ( !(child instanceof Masterable) || ((Masterable) child).isMasterInstance() ) continue;
+			AcalDateTime recurrenceId = AcalDateTime.fromAcalProperty(child.getProperty(PropertyName.RECURRENCE_ID));
+			AcalDateTime start = ((Masterable) child).getStart();
+			if ( recurrenceId == null || start == null ) continue;
+			long shift = start.getEpoch() - recurrenceId.getEpoch();
+			if ( shift > shifts[0] ) shifts[0] = shift;
+			else if ( -shift > shifts[1] ) shifts[1] = -shift;
+		}
+		return shifts;
+	}
+
+	private AcalDateTime nextInstanceAt( long epoch, AcalDateTime reuse ) {
+		if ( reuse == null ) reuse = baseDate.clone();
+		return reuse.setEpoch(epoch);
+	}
+
 	private LocalEventInstance getRecurrence(AcalDateTime thisDate, Masterable ourVEvent ) {
 		AcalDateTime instanceStart = thisDate.clone();
 
@@ -583,6 +907,129 @@ public class AcalRepeatRule {
 		return ret;
 	}
 
+	/**
+	 * <p>
+	 * The position of an AcalRepeatRule's epoch cursor: the current period, how much of the COUNT
+	 * has been used up and how far through the RDATE and EXDATE lists we are.  This is all that is
+	 * needed to carry on expanding a rule from some point, whatever the point is.
+	 * </p>
+	 * <p>
+	 * A checkpoint can be written out with toString() and read back with fromString(), so it can
+	 * be kept in the database alongside the resource it came from.
+	 * </p>
+	 */
+	public static final class Checkpoint {
+		final String		ruleKey;
+		final AcalDateTime	periodBase;
+		final boolean		periodReady;
+		final int			periodPos;
+		final int			emptySets;
+		final int			ruleCount;
+		final long			ruleEpoch;
+		final boolean		rulePeeked;
+		final boolean		ruleFinished;
+		final int			rDatePos;
+		final int			exDatePos;
+		final long			lastEpoch;
+		final long			cursorEpoch;
+		final boolean		cursorAvailable;
+		final boolean		finished;
+
+		/** The start of the next instance, in seconds from epoch, or Long.MAX_VALUE if there are no more. */
+		public final long	nextEpoch;
+
+		private Checkpoint( AcalRepeatRule r ) {
+			ruleKey			= r.getRuleKey();
+			periodBase		= (r.lastEpoch < r.baseEpoch || r.repeatRule.currentBase == null ? null : r.repeatRule.currentBase.clone());
+			periodReady		= r.periodReady;
+			periodPos		= r.periodPos;
+			emptySets		= r.emptySets;
+			ruleCount		= r.ruleCount;
+			ruleEpoch		= r.ruleEpoch;
+			rulePeeked		= r.rulePeeked;
+			ruleFinished	= r.ruleFinished;
+			rDatePos		= r.rDatePos;
+			exDatePos		= r.exDatePos;
+			lastEpoch		= r.lastEpoch;
+			cursorEpoch		= r.cursorEpoch;
+			cursorAvailable	= r.cursorAvailable;
+			finished		= r.finished;
+			nextEpoch		= (cursorAvailable ? cursorEpoch : Long.MAX_VALUE);
+		}
+
+		private Checkpoint( String[] f, AcalDateTime periodBase ) {
+			this.periodBase	= periodBase;
+			periodReady		= f[2].equals("1");
+			periodPos		= Integer.parseInt(f[3]);
+			emptySets		= Integer.parseInt(f[4]);
+			ruleCount		= Integer.parseInt(f[5]);
+			ruleEpoch		= Long.parseLong(f[6]);
+			rulePeeked		= f[7].equals("1");
+			ruleFinished	= f[8].equals("1");
+			rDatePos		= Integer.parseInt(f[9]);
+			exDatePos		= Integer.parseInt(f[10]);
+			lastEpoch		= Long.parseLong(f[11]);
+			cursorEpoch		= Long.parseLong(f[12]);
+			cursorAvailable	= f[13].equals("1");
+			finished		= f[14].equals("1");
+			ruleKey			= f[15];
+			nextEpoch		= (cursorAvailable ? cursorEpoch : Long.MAX_VALUE);
+		}
+
+		/**
+		 * The period base is written in local time along with its timezone, rather than as an epoch,
+		 * since the parser works from the local fields and those may not survive the round trip
+		 * through an epoch when they fall in a daylight saving gap.  The rule key goes last because
+		 * it may contain commas.
+		 */
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			if ( periodBase != null ) {
+				s.append(periodBase.fmtIcal()).append(',');
+				if ( periodBase.getTimeZoneId() != null ) s.append(periodBase.getTimeZoneId());
+			}
+			else
+				s.append(',');
+			s.append(',').append(periodReady ? 1 : 0);
+			s.append(',').append(periodPos);
+			s.append(',').append(emptySets);
+			s.append(',').append(ruleCount);
+			s.append(',').append(ruleEpoch);
+			s.append(',').append(rulePeeked ? 1 : 0);
+			s.append(',').append(ruleFinished ? 1 : 0);
+			s.append(',').append(rDatePos);
+			s.append(',').append(exDatePos);
+			s.append(',').append(lastEpoch);
+			s.append(',').append(cursorEpoch);
+			s.append(',').append(cursorAvailable ? 1 : 0);
+			s.append(',').append(finished ? 1 : 0);
+			s.append(',').append(ruleKey);
+			return s.toString();
+		}
+
+		/**
+		 * Reads back a checkpoint written by toString().
+		 * @param saved
+		 * @return The checkpoint
+		 * @throws IllegalArgumentException if the string is not a checkpoint.
+		 */
+		public static Checkpoint fromString( String saved ) {
+			if ( saved == null ) throw new IllegalArgumentException("Checkpoint may not be null.");
+			String[] f = saved.split(",", 16);
+			if ( f.length < 16 ) throw new IllegalArgumentException("Checkpoint '"+saved+"' is not in a recognised format.");
+			try {
+				AcalDateTime periodBase = null;
+				if ( !f[0].equals("") )
+					periodBase = AcalDateTime.fromIcalendar(f[0], null, (f[1].equals("") ? null : f[1]));
+				return new Checkpoint(f, periodBase);
+			}
+			catch( NumberFormatException e ) {
+				throw new IllegalArgumentException("Checkpoint '"+saved+"' is not in a recognised format.");
+			}
+		}
+	}
+
 	private class LocalEventInstance {
 		final Masterable masterInstance;
 		final AcalDateTime dtstart;
@@ -599,6 +1046,18 @@ public class AcalRepeatRule {
 			this.dtend = AcalDateTime.addDuration(dtstart, duration);
 		}
 
+		/**
+		 * @return true if this instance is at all within the range, either where the rule puts it or,
+		 * when it is an override, where the override has moved it to.
+		 */
+		boolean overlaps( long rangeStart, long rangeEnd ) {
+			if ( dtend.getEpoch() > rangeStart && dtstart.getEpoch() < rangeEnd ) return true;
+			if ( masterInstance.isMasterInstance() ) return false;
+			AcalDateTime start = masterInstance.getStart();
+			AcalDateTime end = masterInstance.getEnd();
+			return ( start != null && end != null && end.getEpoch() > rangeStart && start.getEpoch() < rangeEnd );
+		}
+
 		EventInstance getEventInstance() {
 			if ( collectionId == VComponent.VALUE_NOT_ASSIGNED || resourceId == VComponent.VALUE_NOT_ASSIGNED ) {
 				throw new IllegalArgumentException("To retrieve CalendarInstances the RepeatRule must have valid collectionId and resourceId");
@@ -19,6 +19,7 @@
 package com.morphoss.acal.acaltime;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -72,6 +73,10 @@ public abstract class AcalRepeatRuleParser {
 	public final AcalRepeatRuleDay		wkst;
 
 	protected AcalDateTime				until = null;  // Can't make this final because we set the timezone later
+
+	protected final static AcalDateTime.AcalDateTimeSorter dateSorter = new AcalDateTime.AcalDateTimeSorter();
+	private final boolean				hasByParts;
+	private long[]						epochSet = new long[8];
 	
 	protected AcalDateTime			originalBase= null;
 	protected AcalDateTime			currentBase	= null;
@@ -161,6 +166,9 @@ public abstract class AcalRepeatRuleParser {
 		byminute = preByminute;
 		bysecond = preBysecond;
 		byday = preByday;
+
+		hasByParts = ( bymonth != null || bysetpos != null || bymonthday != null || byyearday != null
+					|| byweekno != null || byhour != null || byminute != null || bysecond != null || byday != null );
 	}
 
 	public static AcalRepeatRuleParser parseRepeatRule( String rRule ) {
@@ -330,10 +338,71 @@ public abstract class AcalRepeatRuleParser {
 	}
 
 	protected abstract void nextFrequency();
+
+	/**
+	 * @param target A date in the same timezone as originalBase.
+	 * @return The number of whole periods from originalBase to the period containing target.
+	 */
+	protected abstract long periodsUntil(AcalDateTime target);
+
+	/**
+	 * Sets currentBase to the start of the period which is this many periods after originalBase,
+	 * just as though nextFrequency() had been called that many times.
+	 * @param periods
+	 */
+	protected abstract void skipPeriods(long periods);
+
 	public abstract List<AcalDateTime> buildSet();
 	public abstract String getFrequencyName();
 	public abstract String getPrettyFrequencyName(Context cx);
 
+	/**
+	 * <p>
+	 * Builds the set for the current period like buildSet() does, but as epoch seconds, sorted
+	 * and de-duplicated, in a buffer which is reused from one period to the next.  When the set
+	 * can only ever be the base date itself we skip buildSet() entirely, so the common rules
+	 * like "every week" don't allocate anything per period.
+	 * </p>
+	 * @return The number of entries in getEpochSet() for this period, which may be zero.
+	 */
+	public int buildEpochSet() {
+		if ( isSimpleFrequency() ) {
+			epochSet[0] = currentBase.getEpoch();
+			return 1;
+		}
+		List<AcalDateTime> set = buildSet();
+		int n = set.size();
+		if ( n > epochSet.length ) epochSet = new long[Math.max(n, epochSet.length * 2)];
+		for( int i=0; i<n; i++ ) {
+			epochSet[i] = set.get(i).getEpoch();
+		}
+		if ( n < 2 ) return n;
+		Arrays.sort(epochSet, 0, n);
+		int unique = 1;
+		for( int i=1; i<n; i++ ) {
+			if ( epochSet[i] != epochSet[unique-1] ) epochSet[unique++] = epochSet[i];
+		}
+		return unique;
+	}
+
+
+	/**
+	 * @return The buffer filled by the last call to buildEpochSet().  This is overwritten by the
+	 * next call, and may be longer than the set.
+	 */
+	public long[] getEpochSet() {
+		return epochSet;
+	}
+
+
+	/**
+	 * @return true if buildSet() would only ever return the current base date.
+	 */
+	protected boolean isSimpleFrequency() {
+		return !hasByParts;
+	}
+
+
 	public void resetBaseDate() {
 		currentBase  = null;
 		originalBase = null;
@@ -351,6 +420,46 @@ public abstract class AcalRepeatRuleParser {
 	}
 
 
+	/**
+	 * <p>
+	 * Starts the rule from c as nextBaseDate() would, then moves the current period straight on
+	 * to shortly before target without building any of the sets in between.  The next call to
+	 * buildSet() will build the period we have moved to, rather than calling nextBaseDate() first.
+	 * </p>
+	 * <p>
+	 * If the rule has a COUNT we can only do this when there is exactly one instance in every
+	 * period, since otherwise we can't know how much of the count we have skipped over.
+	 * </p>
+	 * @param c The start of the rule.
+	 * @param target
+	 * @return The number of periods skipped, which will be zero if we can't skip any.
+	 */
+	public long seekBaseDate( AcalDateTime c, AcalDateTime target ) {
+		resetBaseDate();
+		nextBaseDate(c);
+		if ( count != INFINITE_REPEAT_COUNT && !isSimpleFrequency() ) return 0;
+
+		// One period short, since BYxxx expansions can put instances earlier than the period's base.
+		long periods = periodsUntil(target.clone().shiftTimeZone(originalBase.getTimeZoneId())) - 1;
+		if ( periods < 1 ) return 0;
+		skipPeriods(periods);
+		return periods;
+	}
+
+
+	/**
+	 * Starts the rule from c as nextBaseDate() would, but with the current period set to one we
+	 * have been at before, as recorded by an AcalRepeatRule.Checkpoint.
+	 * @param c The start of the rule.
+	 * @param periodBase The currentBase of that period.
+	 */
+	public void resumeBaseDate( AcalDateTime c, AcalDateTime periodBase ) {
+		resetBaseDate();
+		nextBaseDate(c);
+		currentBase = periodBase.clone();
+	}
+
+
 	protected void startNewSet() {
 		currentSet = new ArrayList<AcalDateTime>();
 		currentSet.add(currentBase.clone());
@@ -550,7 +659,7 @@ public abstract class AcalRepeatRuleParser {
 	
 	protected void limitBySetPos() {
 		if ( bysetpos == null ) return;
-		Collections.sort(currentSet, new AcalDateTime.AcalDateTimeSorter());
+		Collections.sort(currentSet, dateSorter);
 		List<AcalDateTime> finalSet = new ArrayList<AcalDateTime>();
 		for( int pos : bysetpos ) {
 			if ( pos < 0 )
@@ -45,6 +45,16 @@ public class AcalRepeatWeekly extends AcalRepeatRuleParser {
 		currentBase.addDays(7 * interval);
 	}
 
+	@Override
+	protected long periodsUntil( AcalDateTime target ) {
+		return (target.getEpochDay() - originalBase.getEpochDay()) / (7 * interval);
+	}
+
+	@Override
+	protected void skipPeriods( long periods ) {
+		currentBase = originalBase.clone().addDays((int) (periods * 7 * interval));
+	}
+
 	@Override
 	public List<AcalDateTime> buildSet() {
 		startNewSet();
@@ -64,6 +64,28 @@ public class AcalRepeatYearly extends AcalRepeatRuleParser {
 	}
 
 	
+	@Override
+	protected long periodsUntil( AcalDateTime target ) {
+		return (target.getYear() - originalBase.getYear()) / interval;
+	}
+
+	@Override
+	protected void skipPeriods( long periods ) {
+		currentBase = originalBase.clone();
+		int newYear = (int) (currentBase.getYear() + (periods * interval));
+		if ( !currentBase.setYear(newYear) ) {
+			// Only February 29th can fail, so use the 28th as nextFrequency() does
+			currentBase.set(AcalDateTime.DAY_OF_MONTH, 28 );
+			currentBase.setYear(newYear);
+		}
+	}
+
+	@Override
+	protected boolean isSimpleFrequency() {
+		// Days after the 28th need expanding, since they don't happen in every period
+		return super.isSimpleFrequency() && originalBase.get(AcalDateTime.DAY_OF_MONTH) <= 28;
+	}
+
 	@Override
 	public List<AcalDateTime> buildSet() {
 		startNewSet();
@@ -166,6 +188,6 @@ public class AcalRepeatYearly extends AcalRepeatRuleParser {
 			}
 			currentSet = finalSet;
 		}
-		Collections.sort(currentSet, new AcalDateTime.AcalDateTimeSorter());
+		Collections.sort(currentSet, dateSorter);
 	}
 }
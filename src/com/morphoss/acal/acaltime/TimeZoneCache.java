@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.morphoss.acal.acaltime;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.morphoss.acal.davacal.VCalendar;
+
+/**
+ * <p>
+ * A process-wide cache of timezones.  Looking up a Java TimeZone returns a fresh clone every
+ * time, and extracting an Olson name from an iCalendar TZID is a regex match, so doing either
+ * of those for every date in a recurrence expansion adds up very quickly.  Here we do them once
+ * per distinct name and hand back the same (interned) Zone thereafter.
+ * </p>
+ * <p>
+ * Each Zone also keeps a table of the UTC offset transitions it has been asked about, in blocks
+ * of a little over a year which are filled on demand by probing the underlying TimeZone, so
+ * getOffset() is then a binary search over a small primitive array.  Blocks are probed every
+ * six days or so, so a pair of transitions closer together than that which return to the same
+ * offset would be missed.  Real zones don't do that.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public final class TimeZoneCache {
+
+	private static final ConcurrentHashMap<String,Zone> zonesByName = new ConcurrentHashMap<String,Zone>();
+	private static final ConcurrentHashMap<String,Zone> zonesByTzid = new ConcurrentHashMap<String,Zone>();
+
+	private TimeZoneCache() {
+	}
+
+	/**
+	 * Returns the zone for a name which TimeZone.getTimeZone() understands, which will
+	 * normally be an Olson name.  As with TimeZone.getTimeZone() an unknown name will get
+	 * a zone which behaves like GMT.
+	 * @param name
+	 * @return The cached zone, never null.
+	 */
+	public static Zone forName(String name) {
+		Zone zone = zonesByName.get(name);
+		if ( zone == null ) {
+			zone = new Zone(name.intern(), TimeZone.getTimeZone(name));
+			Zone existing = zonesByName.putIfAbsent(zone.id, zone);
+			if ( existing != null ) zone = existing;
+		}
+		return zone;
+	}
+
+	/**
+	 * Returns the zone for an iCalendar TZID, which might be something like
+	 * "/mozilla.org/20070129_1/Pacific/Auckland", an alias like "Eastern Standard Time", or just
+	 * a plain Olson name.
+	 * @param tzid
+	 * @return The cached zone, never null.
+	 */
+	public static Zone forTzid(String tzid) {
+		Zone zone = zonesByTzid.get(tzid);
+		if ( zone == null ) {
+			zone = forName(VCalendar.staticGetOlsonName(tzid));
+			zonesByTzid.putIfAbsent(tzid, zone);
+		}
+		return zone;
+	}
+
+	/**
+	 * Returns the zone with the same ID as this TimeZone.
+	 * @param tz
+	 * @return The cached zone, never null.
+	 */
+	public static Zone forTimeZone(TimeZone tz) {
+		return forName(tz.getID());
+	}
+
+	/**
+	 * A cached equivalent to TimeZone.getTimeZone(name).  The returned TimeZone is shared,
+	 * so it must not be modified.
+	 * @param name
+	 * @return
+	 */
+	public static TimeZone getTimeZone(String name) {
+		return forName(name).tz;
+	}
+
+
+	/**
+	 * A named zone, along with the offset transitions we have found so far.
+	 */
+	public static final class Zone {
+
+		// 2^35 milliseconds is a little over 397 days, and 2^29 is a little over 6 days.
+		private static final int BLOCK_SHIFT = 35;
+		private static final long PROBE_INTERVAL = 1L << 29;
+
+		public final String id;
+		public final TimeZone tz;
+
+		private final boolean fixedOffset;
+		private final ConcurrentHashMap<Long,Block> blocks = new ConcurrentHashMap<Long,Block>();
+		private volatile Block lastBlock = null;
+
+		private Zone(String id, TimeZone tz) {
+			this.id = id;
+			this.tz = tz;
+			String tzId = tz.getID();
+			this.fixedOffset = tzId.equals("UTC") || tzId.equals("GMT") || tzId.equals("Etc/UTC");
+		}
+
+		/**
+		 * Returns the offset from UTC in milliseconds at the given UTC time, as
+		 * TimeZone.getOffset(long) would.
+		 * @param utcMillis
+		 * @return
+		 */
+		public int getOffset(long utcMillis) {
+			if ( fixedOffset ) return tz.getRawOffset();
+			long index = utcMillis >> BLOCK_SHIFT;
+			Block block = lastBlock;
+			if ( block == null || block.index != index ) {
+				block = blocks.get(index);
+				if ( block == null ) {
+					block = new Block(index, tz);
+					Block existing = blocks.putIfAbsent(index, block);
+					if ( existing != null ) block = existing;
+				}
+				lastBlock = block;
+			}
+			return block.getOffset(utcMillis);
+		}
+
+		@Override
+		public String toString() {
+			return id;
+		}
+	}
+
+
+	/**
+	 * The transitions within one block of time.  transitions[0] is the start of the block, and
+	 * offsets[i] is the offset in effect from transitions[i] until the next one.
+	 */
+	private static final class Block {
+		final long index;
+		private long[] transitions = new long[4];
+		private int[] offsets = new int[4];
+		private int count = 0;
+
+		Block(long index, TimeZone tz) {
+			this.index = index;
+			long start = index << Zone.BLOCK_SHIFT;
+			long end = start + (1L << Zone.BLOCK_SHIFT) - 1;
+
+			long lastTime = start;
+			int lastOffset = tz.getOffset(start);
+			add(start, lastOffset);
+			long probe = start + Zone.PROBE_INTERVAL;
+			while( lastTime < end ) {
+				if ( probe > end ) probe = end;
+				int offset = tz.getOffset(probe);
+				if ( offset == lastOffset ) {
+					lastTime = probe;
+					probe += Zone.PROBE_INTERVAL;
+					continue;
+				}
+
+				// Narrow it down to the exact millisecond at which the offset changes
+				long lo = lastTime;
+				long hi = probe;
+				while( hi - lo > 1 ) {
+					long mid = lo + ((hi - lo) / 2);
+					if ( tz.getOffset(mid) == lastOffset ) lo = mid;
+					else hi = mid;
+				}
+				lastTime = hi;
+				lastOffset = tz.getOffset(hi);
+				add(hi, lastOffset);
+				// Go around again from here with the same probe, in case there were two changes
+			}
+		}
+
+		private void add(long time, int offset) {
+			if ( count == transitions.length ) {
+				long[] newTransitions = new long[count * 2];
+				int[] newOffsets = new int[count * 2];
+				System.arraycopy(transitions, 0, newTransitions, 0, count);
+				System.arraycopy(offsets, 0, newOffsets, 0, count);
+				transitions = newTransitions;
+				offsets = newOffsets;
+			}
+			transitions[count] = time;
+			offsets[count] = offset;
+			count++;
+		}
+
+		int getOffset(long utcMillis) {
+			if ( count == 1 ) return offsets[0];
+			int lo = 0;
+			int hi = count - 1;
+			while( lo < hi ) {
+				int mid = (lo + hi + 1) >>> 1;
+				if ( transitions[mid] <= utcMillis ) lo = mid;
+				else hi = mid - 1;
+			}
+			return offsets[lo];
+		}
+	}
+}
@@ -114,7 +114,7 @@ public class TestPort {
 			if ( Constants.debugCheckServerDialog ) Log.println(Constants.LOGD,TAG, "Checking port open "+requestor.protocolHostPort());
 			this.isOpen = false;
 			try {
-				requestor.doRequest("OPTIONS", null, null, null);
+				requestor.releaseResponse(requestor.doRequest("OPTIONS", null, null, null));
 				if ( Constants.debugCheckServerDialog ) Log.println(Constants.LOGD,TAG, "Probe "+requestor.fullUrl()+" success: status " + requestor.getStatusCode());
 
 				// No exception, so it worked!
@@ -420,7 +420,7 @@ public class TestPort {
 			try {
 				path = requestor.getPath();
 				if ( Constants.debugCheckServerDialog ) Log.println(Constants.LOGI,TAG, "Starting OPTIONS on "+path);
-				requestor.doRequest("OPTIONS", path, null, null);
+				requestor.releaseResponse(requestor.doRequest("OPTIONS", path, null, null));
 				int status = requestor.getStatusCode();
 				if ( Constants.debugCheckServerDialog )
 					Log.println(Constants.LOGD,TAG, "OPTIONS request " + status + " on " + requestor.fullUrl() );
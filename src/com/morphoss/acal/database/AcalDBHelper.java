@@ -24,6 +24,7 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
 import com.morphoss.acal.Constants;
@@ -52,7 +53,7 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 	/**
 	 * The version of this database. Used to determine if an upgrade is required.
 	 */
-	public static final int DB_VERSION = 20;
+	public static final int DB_VERSION = 24;
 	
 
 	
@@ -224,7 +225,23 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 			+",dtendfloat BOOLEAN"
 			+",completedfloat BOOLEAN"
 			+",flags INTEGER"
+			+",utc_start NUMERIC"
+			+",utc_end NUMERIC"
+			+",long_instance BOOLEAN"
 		+");";
+
+	/**
+	 * Floating start/end times are normalised to UTC in utc_start/utc_end so that range queries
+	 * on the cache can be answered from these indexes, without any arithmetic on the columns.
+	 * Instances longer than a week are flagged in long_instance, so that a range query only has
+	 * to look a week before its start for the rest, and can find those few separately.
+	 */
+	public static final String RESOURCE_CACHE_START_INDEX_SQL =
+		"CREATE INDEX event_cache_start_idx ON event_cache ( resource_type, utc_start, utc_end );";
+	public static final String RESOURCE_CACHE_UTC_INDEX_SQL =
+		"CREATE INDEX event_cache_utc_idx ON event_cache ( utc_start, utc_end );";
+	public static final String RESOURCE_CACHE_LONG_INDEX_SQL =
+		"CREATE INDEX event_cache_long_idx ON event_cache ( long_instance, utc_start );";
 	
 	public static final String RESOURCE_CACHE_META_TABLE_SQL = 
 		"CREATE TABLE event_cache_meta ("
@@ -239,6 +256,20 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 	public static final String SET_RESOURCE_CACHE_DIRTY_SQL = 
 			"INSERT INTO event_cache_meta (dtstart, dtend, count, closed) VALUES("+now+","+now+",0,0)";
 
+	/**
+	 * Used for resuming the expansion of a recurrence part way through, without working through
+	 * every instance from DTSTART.  Rows are only valid for the etag they were built from.
+	 */
+	public static final String RECURRENCE_CHECKPOINT_TABLE_SQL =
+		"CREATE TABLE recurrence_checkpoint ("
+	        +"_id INTEGER PRIMARY KEY AUTOINCREMENT"
+			+",resource_id INTEGER REFERENCES dav_resource(_id)"
+			+",etag TEXT"
+			+",next_epoch NUMERIC"
+			+",checkpoint TEXT"
+			+",UNIQUE(resource_id,next_epoch)"
+		+");";
+
 	public static final String ALARM_TABLE_SQL = 
 		"CREATE TABLE alarms ("
 	        +"_id INTEGER PRIMARY KEY AUTOINCREMENT"
@@ -248,6 +279,15 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 			+",state NUMERIC" 
 			+", blob TEXT"
 		+");";
+
+	/**
+	 * The next alarm to fire is found by state and time, and a resource's alarms are replaced
+	 * whenever it changes.
+	 */
+	public static final String ALARM_STATE_INDEX_SQL =
+		"CREATE INDEX alarms_state_idx ON alarms ( state, ttf );";
+	public static final String ALARM_RID_INDEX_SQL =
+		"CREATE INDEX alarms_rid_idx ON alarms ( rid );";
 	
 	public static final String ALARM_META_TABLE_SQL = 
 		"CREATE TABLE alarm_meta ("
@@ -285,6 +325,44 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 	
 	private Context	context;
 
+	private static AcalDBHelper sharedHelper = null;
+	private static SQLiteDatabase sharedDb = null;
+
+	/**
+	 * <p>
+	 * Returns the connection which the database managers share for the life of the process.  It
+	 * is opened (and upgraded, if need be) the first time it is asked for and then left open, so
+	 * callers must not close it, and use it for both reading and writing.
+	 * </p>
+	 * <p>
+	 * Where the platform supports it the database is switched to write-ahead logging.  Android
+	 * then keeps a pool of connections behind this one object: writes and transactions go through
+	 * a single primary connection while queries from other threads are given connections of their
+	 * own, so readers neither block nor are blocked by the writer.  On older platforms the calls
+	 * are simply serialised on the one connection.
+	 * </p>
+	 * 
+	 * @param context
+	 * @return The shared, open database.
+	 */
+	public static synchronized SQLiteDatabase getSharedDatabase(Context context) {
+		if ( sharedDb != null && sharedDb.isOpen() ) return sharedDb;
+
+		if ( sharedHelper == null ) sharedHelper = new AcalDBHelper(context.getApplicationContext());
+		sharedDb = sharedHelper.getWritableDatabase();
+		if ( Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ) {
+			try {
+				if ( !sharedDb.enableWriteAheadLogging() )
+					Log.w(TAG,"Unable to switch database to write-ahead logging.");
+			}
+			catch( Exception e ) {
+				Log.w(TAG,"Unable to switch database to write-ahead logging: "+e.getMessage());
+			}
+		}
+		if ( Constants.LOG_DEBUG ) Log.println(Constants.LOGD,TAG,"Opened shared database connection.");
+		return sharedDb;
+	}
+
 	/**
 	 * Visible single argument constructor. Calls super with default values.
 	 * 
@@ -414,6 +492,41 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 				db.execSQL(TIMEZONE_ALIAS_TABLE_SQL);
 				db.execSQL("ALTER TABLE dav_collection ADD COLUMN manually_added BOOLEAN");
 			}
+			if (oldVersion == 20) {
+				Log.i(TAG,"Updating database from version " + oldVersion);
+				oldVersion++;
+				db.execSQL(RECURRENCE_CHECKPOINT_TABLE_SQL);
+			}
+			if (oldVersion == 21) {
+				Log.i(TAG,"Updating database from version " + oldVersion);
+				oldVersion++;
+				// Tables created by an earlier step of this upgrade already have these columns.
+				try { db.execSQL("ALTER TABLE event_cache ADD COLUMN utc_start NUMERIC"); } catch( Exception e ) {}
+				try { db.execSQL("ALTER TABLE event_cache ADD COLUMN utc_end NUMERIC"); } catch( Exception e ) {}
+				db.execSQL(RESOURCE_CACHE_START_INDEX_SQL);
+				// Existing rows have no UTC times, so the cache must be rebuilt.
+				db.execSQL("DELETE FROM event_cache");
+				db.execSQL("DELETE FROM event_cache_meta");
+				db.execSQL(SET_RESOURCE_CACHE_DIRTY_SQL);
+			}
+			if (oldVersion == 22) {
+				Log.i(TAG,"Updating database from version " + oldVersion);
+				oldVersion++;
+				db.execSQL(ALARM_STATE_INDEX_SQL);
+				db.execSQL(ALARM_RID_INDEX_SQL);
+			}
+			if (oldVersion == 23) {
+				Log.i(TAG,"Updating database from version " + oldVersion);
+				oldVersion++;
+				try { db.execSQL("ALTER TABLE event_cache ADD COLUMN long_instance BOOLEAN"); } catch( Exception e ) {}
+				db.execSQL("DROP INDEX IF EXISTS event_cache_end_idx");
+				db.execSQL(RESOURCE_CACHE_UTC_INDEX_SQL);
+				db.execSQL(RESOURCE_CACHE_LONG_INDEX_SQL);
+				// Existing rows aren't flagged, so the cache must be rebuilt.
+				db.execSQL("DELETE FROM event_cache");
+				db.execSQL("DELETE FROM event_cache_meta");
+				db.execSQL(SET_RESOURCE_CACHE_DIRTY_SQL);
+			}
 			
 		}
 		catch( Exception e ) {
@@ -519,12 +632,18 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 			db.execSQL(TODO_INDEX_SQL);
 			
 			db.execSQL(RESOURCE_CACHE_TABLE_SQL);
+			db.execSQL(RESOURCE_CACHE_START_INDEX_SQL);
+			db.execSQL(RESOURCE_CACHE_UTC_INDEX_SQL);
+			db.execSQL(RESOURCE_CACHE_LONG_INDEX_SQL);
 			db.execSQL(RESOURCE_CACHE_META_TABLE_SQL);
 			db.execSQL(SET_RESOURCE_CACHE_DIRTY_SQL);
+			db.execSQL(RECURRENCE_CHECKPOINT_TABLE_SQL);
 			
 			db.execSQL(SHOW_UPCOMING_WIDGET_TABLE_SQL);
 			
 			db.execSQL(ALARM_TABLE_SQL);
+			db.execSQL(ALARM_STATE_INDEX_SQL);
+			db.execSQL(ALARM_RID_INDEX_SQL);
 			db.execSQL(ALARM_META_TABLE_SQL);
 			db.execSQL(SET_ALARM_TABLE_DIRTY_SQL);
 
@@ -550,6 +669,7 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 			
 			try { db.execSQL("DROP TABLE event_cache_meta"); } catch( Exception e ) {}
 			try { db.execSQL("DROP TABLE event_cache"); } catch( Exception e ) {}
+			try { db.execSQL("DROP TABLE recurrence_checkpoint"); } catch( Exception e ) {}
 			
 			try { db.execSQL("DROP TABLE show_upcoming_widget_data"); } catch( Exception e ) {}
 			
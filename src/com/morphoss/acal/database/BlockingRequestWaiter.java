@@ -0,0 +1,174 @@
+package com.morphoss.acal.database;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.util.Log;
+
+import com.morphoss.acal.Constants;
+
+/**
+ * <p>
+ * Hands a blocking request back to the thread which sent it, as soon as the manager's worker
+ * thread has finished with it, rather than having the sender poll isProcessed() every few
+ * milliseconds.  The sender calls expect() before queueing the request and then await(), and
+ * the worker calls completed() after processing every request.  When a manager is closed with
+ * requests still queued it calls abandoned() for each of them instead, so their senders fail
+ * rather than waiting for something which will never happen.
+ * </p>
+ * <p>
+ * We also keep a histogram, for each class of request, of the time from expect() to completed(),
+ * which is the latency the sender actually saw.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public final class BlockingRequestWaiter {
+
+	// Upper bounds of the histogram buckets, in milliseconds.  The last bucket takes everything over.
+	private static final long[] BUCKET_LIMITS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+	private final String tag;
+	private final Map<Object,Waiter> waiting = Collections.synchronizedMap(new IdentityHashMap<Object,Waiter>());
+	private final ConcurrentHashMap<String,AtomicLongArray> latencies = new ConcurrentHashMap<String,AtomicLongArray>();
+
+	private static final class Waiter {
+		final CountDownLatch done = new CountDownLatch(1);
+		final long queued = System.nanoTime();
+		volatile boolean abandoned = false;
+	}
+
+	/**
+	 * @param tag The tag to log the histogram under.
+	 */
+	public BlockingRequestWaiter(String tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * Registers a request which a thread is about to wait for.  This must happen before it is
+	 * queued, or the worker might finish with it before we are listening.
+	 * @param request
+	 */
+	public void expect(Object request) {
+		waiting.put(request, new Waiter());
+	}
+
+	/**
+	 * Called by the worker thread when it has finished with a request, however that went.  Any
+	 * thread waiting for it is released, and requests nobody is waiting for are ignored.
+	 * @param request
+	 */
+	public void completed(Object request) {
+		Waiter waiter = waiting.remove(request);
+		if ( waiter == null ) return;
+		record(request.getClass().getSimpleName(), (System.nanoTime() - waiter.queued) / 1000000L);
+		waiter.done.countDown();
+	}
+
+	/**
+	 * Called instead of completed() for a request which will never be processed, because the
+	 * manager has been closed.  Any thread waiting for it is released, and its await() throws.
+	 * The request stays registered until then, so a sender which hasn't started waiting yet will
+	 * still find out.
+	 * @param request
+	 */
+	public void abandoned(Object request) {
+		Waiter waiter = waiting.get(request);
+		if ( waiter == null ) return;
+		waiter.abandoned = true;
+		waiter.done.countDown();
+	}
+
+	/**
+	 * Waits for the worker thread to finish with a request passed to expect().
+	 * @param request
+	 * @param timeout Milliseconds
+	 * @return true if it has been completed, or false if we timed out first.  After a timeout it is
+	 * still fine to call await() again, or forget() if we are giving up on it.
+	 * @throws InterruptedException if we were interrupted while waiting, in which case the request
+	 * has been forgotten and the caller should give up on it.
+	 * @throws CancellationException if the request was abandoned() without being processed.
+	 */
+	public boolean await(Object request, long timeout) throws InterruptedException {
+		Waiter waiter = waiting.get(request);
+		if ( waiter == null ) return true;
+		boolean done;
+		try {
+			done = waiter.done.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch( InterruptedException e ) {
+			forget(request);
+			throw e;
+		}
+		if ( waiter.abandoned ) {
+			forget(request);
+			throw new CancellationException(request.getClass().getSimpleName()+" was abandoned without being processed.");
+		}
+		return done;
+	}
+
+	/**
+	 * Stops waiting for a request which has timed out.
+	 * @param request
+	 */
+	public void forget(Object request) {
+		waiting.remove(request);
+	}
+
+	private void record(String requestClass, long millis) {
+		AtomicLongArray counts = latencies.get(requestClass);
+		if ( counts == null ) {
+			counts = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+			AtomicLongArray existing = latencies.putIfAbsent(requestClass, counts);
+			if ( existing != null ) counts = existing;
+		}
+		int bucket = 0;
+		while( bucket < BUCKET_LIMITS.length && millis >= BUCKET_LIMITS[bucket] ) bucket++;
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Returns the latency histogram for one class of request.
+	 * @param requestClass
+	 * @return A copy of the counts, where element i is the number of requests which took less than
+	 * getBucketLimits()[i] milliseconds (and no less than the limit before), and the last element is
+	 * those which took longer than any limit.  Null if none of these have completed.
+	 */
+	public long[] getLatencyHistogram(Class<?> requestClass) {
+		AtomicLongArray counts = latencies.get(requestClass.getSimpleName());
+		if ( counts == null ) return null;
+		long[] result = new long[counts.length()];
+		for( int i = 0; i < result.length; i++ ) result[i] = counts.get(i);
+		return result;
+	}
+
+	public static long[] getBucketLimits() {
+		return BUCKET_LIMITS.clone();
+	}
+
+	/**
+	 * Logs the histogram for each class of request, skipping empty buckets.
+	 */
+	public void logLatencies() {
+		for( Map.Entry<String,AtomicLongArray> entry : latencies.entrySet() ) {
+			StringBuilder line = new StringBuilder(entry.getKey()).append(" latency:");
+			AtomicLongArray counts = entry.getValue();
+			for( int i = 0; i < counts.length(); i++ ) {
+				long count = counts.get(i);
+				if ( count == 0 ) continue;
+				line.append(' ');
+				if ( i < BUCKET_LIMITS.length ) line.append('<').append(BUCKET_LIMITS[i]);
+				else line.append(">=").append(BUCKET_LIMITS[BUCKET_LIMITS.length - 1]);
+				line.append("ms:").append(count);
+			}
+			Log.println(Constants.LOGD, tag, line.toString());
+		}
+	}
+}
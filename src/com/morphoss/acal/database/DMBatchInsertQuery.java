@@ -0,0 +1,35 @@
+package com.morphoss.acal.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+
+/**
+ * A run of consecutive inserts from a DMQueryList, which are done together through one compiled
+ * statement rather than one at a time.
+ */
+public class DMBatchInsertQuery implements DMAction {
+	private final String nullColumnHack;
+	private final ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+
+	public DMBatchInsertQuery(String nullColumnHack) {
+		this.nullColumnHack = nullColumnHack;
+	}
+
+	void addRow(ContentValues values) {
+		rows.add(values);
+	}
+
+	public String getNullColumnHack() {
+		return nullColumnHack;
+	}
+
+	public List<ContentValues> getRows() {
+		return rows;
+	}
+
+	public void process(DatabaseTableManager dm) {
+		dm.insertBatch(nullColumnHack, rows);
+	}
+}
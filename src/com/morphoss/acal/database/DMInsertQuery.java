@@ -14,4 +14,12 @@ public class DMInsertQuery implements DMAction {
 	public void process(DatabaseTableManager dm) {
 		dm.insert(nullColumnHack, values);
 	}
+
+	String getNullColumnHack() {
+		return nullColumnHack;
+	}
+
+	ContentValues getValues() {
+		return values;
+	}
 }
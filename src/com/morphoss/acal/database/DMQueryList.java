@@ -9,6 +9,40 @@ public class DMQueryList {
 	public void addAction(DMAction action) { actions.add(action); }
 	
 	public List<DMAction> getActions() { return Collections.unmodifiableList(actions); }
+
+	/**
+	 * The actions as getActions() returns them, except that each run of two or more consecutive
+	 * inserts is replaced by a single DMBatchInsertQuery.
+	 * @return
+	 */
+	public List<DMAction> getBatchedActions() {
+		ArrayList<DMAction> batched = new ArrayList<DMAction>(actions.size());
+		int i = 0;
+		while( i < actions.size() ) {
+			DMAction action = actions.get(i++);
+			if ( !(action instanceof DMInsertQuery) || !continuesRun((DMInsertQuery) action, i) ) {
+				batched.add(action);
+				continue;
+			}
+			DMBatchInsertQuery batch = new DMBatchInsertQuery(((DMInsertQuery) action).getNullColumnHack());
+			batch.addRow(((DMInsertQuery) action).getValues());
+			while( continuesRun((DMInsertQuery) action, i) ) {
+				batch.addRow(((DMInsertQuery) actions.get(i++)).getValues());
+			}
+			batched.add(batch);
+		}
+		return batched;
+	}
+
+	/**
+	 * @return true if the action at index is an insert which can go in the same batch as first.
+	 */
+	private boolean continuesRun(DMInsertQuery first, int index) {
+		if ( index >= actions.size() || !(actions.get(index) instanceof DMInsertQuery) ) return false;
+		String a = first.getNullColumnHack();
+		String b = ((DMInsertQuery) actions.get(index)).getNullColumnHack();
+		return (a == null ? b == null : a.equals(b));
+	}
 	
 	public boolean isEmpty() {
 		return actions.isEmpty();
@@ -1,14 +1,18 @@
 package com.morphoss.acal.database;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteMisuseException;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Process;
 import android.util.Log;
 
@@ -37,7 +41,6 @@ public abstract class DatabaseTableManager {
 	private static final int preferredPriority = Process.THREAD_PRIORITY_DISPLAY + (2*Process.THREAD_PRIORITY_LESS_FAVORABLE);
 
 	protected SQLiteDatabase db = null;
-	protected AcalDBHelper dbHelper;
 	protected Context context;
 
 	private boolean	readOnlyDb = true;
@@ -52,6 +55,27 @@ public abstract class DatabaseTableManager {
 
 	public abstract void dataChanged(ArrayList<DataChangeEvent> changes);
 	protected abstract String getTableName();
+
+	/**
+	 * Receives the rows of a query one at a time, directly from the Cursor, so a large result never
+	 * has to be held in memory as a list of ContentValues.  Column indexes should be looked up once
+	 * in prepare() rather than on every row.
+	 */
+	public static abstract class RowVisitor {
+		/**
+		 * Called once, before the first row, with the Cursor the rows will come from.
+		 * @param c
+		 */
+		protected void prepare(Cursor c) {
+		}
+
+		/**
+		 * Called with the Cursor positioned on each row in turn.  The Cursor must not be kept.
+		 * @param c
+		 * @return false if no more rows are wanted.
+		 */
+		protected abstract boolean visit(Cursor c);
+	}
 	
 	protected DatabaseTableManager(Context context) {
 		this.context = context;
@@ -97,7 +121,6 @@ public abstract class DatabaseTableManager {
 		}
 		this.initialPriority = Process.getThreadPriority(Process.myTid());
 		Process.setThreadPriority(preferredPriority);
-		dbHelper = new AcalDBHelper(context);
 		changes = new ArrayList<DataChangeEvent>();
 		this.dbOpened = System.currentTimeMillis();
 		this.dbYielded = dbOpened;
@@ -106,17 +129,15 @@ public abstract class DatabaseTableManager {
 		switch ( type ) {
 			case OPEN_READ:
 				saveStackTraceInfo();
-				db = dbHelper.getReadableDatabase();
+				db = AcalDBHelper.getSharedDatabase(context);
 				readOnlyDb = true;
 				break;
 			case OPEN_WRITE:
 				saveStackTraceInfo();
-				db = dbHelper.getWritableDatabase();
+				db = AcalDBHelper.getSharedDatabase(context);
 				readOnlyDb = false;
 				break;
 			default:
-				dbHelper.close();
-				dbHelper = null;
 				changes = null;
 				throw new IllegalArgumentException("Invalid argument provided for openDB");
 		}
@@ -130,9 +151,8 @@ public abstract class DatabaseTableManager {
 		}
 
 		if (db == null) throw new SQLiteMisuseException("Tried to close a DB that wasn't opened");
-		dbHelper.close(db);
+		// The connection is shared, so we only let go of it
 		db = null;
-		dbHelper = null;
 		Process.setThreadPriority(this.initialPriority);
 
 		if (Constants.debugDatabaseManager && Constants.LOG_DEBUG) Log.println(Constants.LOGD,TAG,"DB:"+this.getTableName()+" CLOSE:");
@@ -271,8 +291,66 @@ public abstract class DatabaseTableManager {
 		return result;
 	}
 
+
+	/**
+	 * As query() above, but each row is handed to the visitor as it is read from the Cursor instead
+	 * of being copied into a list.
+	 * @return The number of rows visited.
+	 */
+	public int query(String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, RowVisitor visitor) {
+		int count = 0;
+		if (Constants.debugDatabaseManager && Constants.LOG_DEBUG) Log.println(Constants.LOGD,TAG,"DB: "+this.getTableName()+" visiting query:");
+		if (Constants.debugDatabaseManager && Constants.LOG_VERBOSE) printStackTraceInfo(Constants.LOGV);
+
+		boolean openedInternally = doWeNeedADatabase(OPEN_READ);
+
+		Cursor c = null;
+		try {
+			c = db.query(getTableName(), columns, selection, selectionArgs, groupBy, having, orderBy);
+			if ( c.moveToFirst() ) {
+				visitor.prepare(c);
+				do {
+					count++;
+					if ( !visitor.visit(c) ) break;
+				}
+				while( c.moveToNext() );
+			}
+		}
+		catch( Exception e ) {
+			Log.e(TAG,Log.getStackTraceString(e));
+		}
+		finally {
+			if ( c != null ) c.close();
+			if ( openedInternally ) closeDB();
+		}
+
+		return count;
+	}
+
 	
+	/**
+	 * The columns which DELETE change events should carry, or null for the whole row.  Tables whose
+	 * listeners only look at a few key columns should override this, so that a large delete doesn't
+	 * have to read back every column of every row just to report it.
+	 * @return
+	 */
+	protected String[] getDeleteEventColumns() {
+		return null;
+	}
+
+
 	public int delete(String whereClause, String[] whereArgs) {
+		return delete(whereClause, whereArgs, true);
+	}
+
+
+	/**
+	 * Deletes rows, optionally without reporting them individually.
+	 * @param reportRows If false the matching rows are not read before they are deleted and no
+	 * DELETE change events are generated, so the caller must deal with anything that depends on them.
+	 * @return The number of rows deleted.
+	 */
+	public int delete(String whereClause, String[] whereArgs, boolean reportRows) {
 		boolean openedInternally = doWeNeedADatabase(OPEN_WRITE);
 
 		if ( readOnlyDb ) throw new IllegalStateException("Cannot delete when DB is read-only!");
@@ -281,20 +359,29 @@ public abstract class DatabaseTableManager {
 
 		int count = 0;
 		try {
-			//First select or the row id's
-			ArrayList<ContentValues> rows = this.query(null, whereClause, whereArgs, null,null,null);
+			//First select the key columns of the rows we will delete
+			final ArrayList<DataChangeEvent> deleted = new ArrayList<DataChangeEvent>();
+			if ( reportRows ) {
+				this.query(getDeleteEventColumns(), whereClause, whereArgs, null, null, null, new RowVisitor() {
+					@Override
+					protected boolean visit(Cursor c) {
+						ContentValues cv = new ContentValues();
+						DatabaseUtils.cursorRowToContentValues(c, cv);
+						deleted.add(new DataChangeEvent(QUERY_ACTION.DELETE,cv));
+						return true;
+					}
+				});
+			}
 			count = db.delete(getTableName(), whereClause, whereArgs);
 	
-			if (count != rows.size()) {
+			if (reportRows && count != deleted.size()) {
 				if (Constants.debugDatabaseManager) Log.w(TAG, "Inconsistent number of rows deleted!");
 			}
 			if (count == 0) {
 				if (Constants.debugDatabaseManager) Log.w(TAG, "No rows deleted for '"+whereClause+"' args: "+whereArgs);
 			}
 			else {
-				for (ContentValues cv : rows) {
-					changes.add(new DataChangeEvent(QUERY_ACTION.DELETE,cv));
-				}
+				changes.addAll(deleted);
 			}
 		}
 		catch( Exception e ) {
@@ -345,13 +432,109 @@ public abstract class DatabaseTableManager {
 	}
 
 	
+	/**
+	 * Inserts a batch of rows through a compiled statement, which is only recompiled when the set of
+	 * columns changes from one row to the next.  As with insert() each row has its new _id put into
+	 * it, and batchInserted() then records the change events.  The caller should have started a
+	 * transaction, or each row will be committed separately.
+	 * @param nullColumnHack As for insert(), only used for rows with no values.
+	 * @param rows
+	 * @return The number of rows inserted
+	 */
+	public int insertBatch(String nullColumnHack, List<ContentValues> rows) {
+		boolean openedInternally = doWeNeedADatabase(OPEN_WRITE);
+		if ( readOnlyDb ) throw new IllegalStateException("Cannot insert when DB is read-only!");
+		if (Constants.debugDatabaseManager && Constants.LOG_DEBUG) Log.println(Constants.LOGD, TAG, 
+				"Inserting "+rows.size()+" rows on "+this.getTableName());
+
+		SQLiteStatement statement = null;
+		String[] columns = null;
+		try {
+			for (ContentValues values : rows) {
+				long newId;
+				if ( values.size() == 0 ) {
+					newId = db.insert(getTableName(), nullColumnHack, values);
+				}
+				else {
+					if ( statement == null || !hasColumns(values, columns) ) {
+						if ( statement != null ) statement.close();
+						columns = new String[values.size()];
+						StringBuilder sql = new StringBuilder("INSERT INTO ").append(getTableName()).append(" (");
+						StringBuilder params = new StringBuilder(") VALUES (");
+						int i = 0;
+						for (Entry<String,Object> column : values.valueSet()) {
+							if ( i > 0 ) {
+								sql.append(',');
+								params.append(',');
+							}
+							columns[i++] = column.getKey();
+							sql.append(column.getKey());
+							params.append('?');
+						}
+						statement = db.compileStatement(sql.append(params).append(')').toString());
+					}
+					for (int i = 0; i < columns.length; i++) {
+						bindValue(statement, i + 1, values.get(columns[i]));
+					}
+					try {
+						newId = statement.executeInsert();
+					}
+					catch( SQLException e ) {
+						// Carry on with the rest, just as db.insert() would
+						Log.e(TAG, "Error inserting "+values+": "+e);
+						newId = -1;
+					}
+				}
+				values.put("_id", newId);
+			}
+			batchInserted(rows);
+		}
+		finally {
+			if ( statement != null ) statement.close();
+			if ( openedInternally ) closeDB();
+		}
+		return rows.size();
+	}
+
+	/**
+	 * Adds the change events for a batch of rows just inserted by insertBatch().  By default that
+	 * is one event per row, just as insert() would have added, but tables whose listeners don't
+	 * need every row can override this to report the whole batch more cheaply.
+	 * @param rows The inserted rows, each with its new _id.
+	 */
+	protected void batchInserted(List<ContentValues> rows) {
+		for (ContentValues values : rows) {
+			changes.add(new DataChangeEvent(QUERY_ACTION.INSERT, new ContentValues(values)));
+		}
+	}
+
+	private static boolean hasColumns(ContentValues values, String[] columns) {
+		if ( values.size() != columns.length ) return false;
+		for (String column : columns) {
+			if ( !values.containsKey(column) ) return false;
+		}
+		return true;
+	}
+
+	private static void bindValue(SQLiteStatement statement, int index, Object value) {
+		if ( value == null ) statement.bindNull(index);
+		else if ( value instanceof String ) statement.bindString(index, (String) value);
+		else if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+			statement.bindLong(index, ((Number) value).longValue());
+		else if ( value instanceof Double || value instanceof Float )
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		else if ( value instanceof Boolean ) statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+		else if ( value instanceof byte[] ) statement.bindBlob(index, (byte[]) value);
+		else statement.bindString(index, value.toString());
+	}
+
 	public boolean processActions(DMQueryList queryList) {
 		boolean openedInternally = doWeNeedADatabase(OPEN_WRITE);
 		if ( readOnlyDb  ) throw new IllegalStateException("Can not process query list when DB is read-only!");
 		boolean transactionInternally = doWeNeedATransaction();
 		boolean res = false;
 		try {
-			for (DMAction action : queryList.getActions()) {
+			for (DMAction action : queryList.getBatchedActions()) {
 				action.process(this);
 				this.yield();
 			}
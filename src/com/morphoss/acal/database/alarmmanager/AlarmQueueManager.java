@@ -2,9 +2,12 @@ package com.morphoss.acal.database.alarmmanager;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
@@ -21,17 +24,22 @@ import com.morphoss.acal.Constants;
 import com.morphoss.acal.StaticHelpers;
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.acaltime.AcalDateTime;
+import com.morphoss.acal.acaltime.AcalRepeatRule.Checkpoint;
 import com.morphoss.acal.activity.AlarmActivity;
 import com.morphoss.acal.database.AcalDBHelper;
+import com.morphoss.acal.database.BlockingRequestWaiter;
 import com.morphoss.acal.database.DMInsertQuery;
 import com.morphoss.acal.database.DMQueryList;
 import com.morphoss.acal.database.DataChangeEvent;
 import com.morphoss.acal.database.DatabaseTableManager;
+import com.morphoss.acal.database.DatabaseTableManager.QUERY_ACTION;
+import com.morphoss.acal.database.DatabaseTableManager.RowVisitor;
 import com.morphoss.acal.database.alarmmanager.requests.ARResourceChanged;
 import com.morphoss.acal.database.alarmmanager.requesttypes.AlarmRequest;
 import com.morphoss.acal.database.alarmmanager.requesttypes.AlarmResponse;
 import com.morphoss.acal.database.alarmmanager.requesttypes.BlockingAlarmRequest;
 import com.morphoss.acal.database.alarmmanager.requesttypes.BlockingAlarmRequestWithResponse;
+import com.morphoss.acal.database.cachemanager.RecurrenceCheckpointTableManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceChangedEvent;
 import com.morphoss.acal.database.resourcesmanager.ResourceChangedListener;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager;
@@ -78,6 +86,8 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 	private Thread workerThread;
 	private boolean running = true;
 	private final ConcurrentLinkedQueue<AlarmRequest> queue = new ConcurrentLinkedQueue<AlarmRequest>();
+	private final BlockingRequestWaiter blockingRequests = new BlockingRequestWaiter(TAG);
+	private static final long SLOW_BLOCKING_REQUEST_WAIT = 20000;	// 20 seconds
 	
 	//Meta Table Management
 	private static Semaphore lockSem = new Semaphore(1, true);
@@ -88,6 +98,9 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 	private static final String FIELD_ID = "_id";
 	private static final String FIELD_CLOSED = "closed";
 
+	// A resource without one of these can't have any alarms, so there's no need to parse it.
+	private static final Pattern VALARM = Pattern.compile("BEGIN:VALARM", Pattern.CASE_INSENSITIVE);
+
 	
 	
 	//Comms
@@ -156,8 +169,7 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 	private void loadState() {
 		acquireMetaLock();
 		ContentValues data = new ContentValues();
-		AcalDBHelper dbHelper = new AcalDBHelper(context);
-		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteDatabase db = AcalDBHelper.getSharedDatabase(context);
 		//load start/end range from meta table
 		Cursor mCursor = db.query(META_TABLE, null, null, null, null, null, null);
 		boolean wasClosedCleanly = false;
@@ -185,7 +197,6 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 		db.delete(META_TABLE, null, null);
 		data.remove(FIELD_ID);
 		this.metaRow = db.insert(META_TABLE, null, data);
-		dbHelper.close(db);
 		rm.addListener(this);
 		releaseMetaLock();
 
@@ -203,11 +214,9 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 		ContentValues data = new ContentValues();
 		data.put(FIELD_CLOSED, 1);
 
-		AcalDBHelper dbHelper = new AcalDBHelper(context);
-		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteDatabase db = AcalDBHelper.getSharedDatabase(context);
 		//set CLOSED to true
 		db.update(META_TABLE, data, FIELD_ID+" = ?", new String[] {metaRow+""});
-		dbHelper.close(db);
 		
 		//dereference ourself so GC can clean up
 		instance = null;
@@ -230,6 +239,7 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 		}
 		workerThread = null;
 		saveState();
+		if ( Constants.debugAlarms ) blockingRequests.logLatencies();
 	}
 	
 	/**
@@ -249,7 +259,12 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 			//do stuff
 			while (!queue.isEmpty()) {
 				AlarmRequest request = queue.poll();
-				ATMinstance.process(request);
+				try {
+					ATMinstance.process(request);
+				}
+				finally {
+					blockingRequests.completed(request);
+				}
 			}
 			//Wait till next time
 			threadHolder.close();
@@ -279,25 +294,36 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 	}
 	
 	public <E> AlarmResponse<E> sendBlockingRequest(BlockingAlarmRequestWithResponse<E> request) {
+		blockingRequests.expect(request);
 		queue.offer(request);
-		threadHolder.open();
-		int priority = Thread.currentThread().getPriority();
-		Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-		while (!request.isProcessed()) {
-			try { Thread.sleep(10); } catch (Exception e) {	}
-		}
-		Thread.currentThread().setPriority(priority);
+		waitUntilProcessed(request);
 		return request.getResponse();
 	}
 	public void sendBlockingRequest(BlockingAlarmRequest request) {
+		blockingRequests.expect(request);
 		queue.offer(request);
+		waitUntilProcessed(request);
+	}
+
+	/**
+	 * Waits for the worker thread to finish with a request which was passed to
+	 * blockingRequests.expect() before it was queued.  A rebuild can hold up the queue for a
+	 * while, so we wait for as long as it takes, but complain about it.
+	 * @throws IllegalStateException if this thread is interrupted first, with the interrupt left set.
+	 */
+	private void waitUntilProcessed(BlockingAlarmRequest request) {
 		threadHolder.open();
-		int priority = Thread.currentThread().getPriority();
-		Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-		while (!request.isProcessed()) {
-			try { Thread.sleep(10); } catch (Exception e) {	}
+		long waited = 0;
+		try {
+			while ( !blockingRequests.await(request, SLOW_BLOCKING_REQUEST_WAIT) ) {
+				waited += SLOW_BLOCKING_REQUEST_WAIT;
+				Log.w(TAG, "Still waiting for "+request.getClass().getSimpleName()+" after "+waited/1000+"s");
+			}
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for "+request.getClass().getSimpleName());
 		}
-		Thread.currentThread().setPriority(priority);
 	}
 	
 	
@@ -322,6 +348,12 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 		private static final String TAG = "aCal AlarmQueueManager";
 		
 		private AlarmManager alarmManager;
+
+		// The pending and snoozed alarms in the table, so we don't have to query for the next one
+		private final UpcomingAlarms upcoming = new UpcomingAlarms();
+
+		// The etag of each resource as it was when we last worked out its alarms
+		private final HashMap<Long,String> alarmEtags = new HashMap<Long,String>();
 		
 		private AlarmTableManager() {
 			super(AlarmQueueManager.this.context);
@@ -363,6 +395,12 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 			return TABLENAME;
 		}
 
+		@Override
+		protected String[] getDeleteEventColumns() {
+			// Leave out the blob
+			return new String[] { FIELD_ID, FIELD_TIME_TO_FIRE, FIELD_RID, FIELD_RRID, FIELD_STATE };
+		}
+
 	
 		
 		//Custom operations
@@ -399,6 +437,8 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 			super.setTxSuccessful();
 			super.endTx();
 			super.closeDB();
+			upcoming.clear();
+			alarmEtags.clear();
 			Log.i(TAG, count+" entries added.");
 			//step 3 schedule alarm intent
 			scheduleAlarmIntent();
@@ -409,14 +449,8 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 		 * @return
 		 */
 		public AlarmRow getNextAlarm() {
-			ArrayList<ContentValues> res = super.query(null, 
-					FIELD_STATE +" = ? OR "+FIELD_STATE +" = ?", 
-					new String[] {ALARM_STATE.PENDING.ordinal()+"", ALARM_STATE.SNOOZED.ordinal()+""} , 
-					null, 
-					null, 
-					FIELD_TIME_TO_FIRE+" ASC");
-			if (res.isEmpty()) return null;
-			return AlarmRow.fromContentValues(res.get(0));
+			if ( !upcoming.isLoaded() ) loadUpcoming();
+			return upcoming.peek();
 		}
 		
 		/**
@@ -424,17 +458,47 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 		 * @return
 		 */
 		public AlarmRow getNextDueAlarm() {
-			ArrayList<ContentValues> res = super.query(null, 
-					"("+FIELD_STATE +" = ? OR "+FIELD_STATE +" = ? ) AND "+FIELD_TIME_TO_FIRE+" < ?", 
-					new String[] {ALARM_STATE.PENDING.ordinal()+"", ALARM_STATE.SNOOZED.ordinal()+"", System.currentTimeMillis()+""} , 
-					null, 
-					null, 
-					FIELD_TIME_TO_FIRE+" ASC");
-			if (res.isEmpty()) {
+			AlarmRow res = getNextAlarm();
+			if (res == null || res.getTimeToFire() >= System.currentTimeMillis()) {
 				this.scheduleAlarmIntent();
 				return null;
 			}
-			return AlarmRow.fromContentValues(res.get(0));
+			return res;
+		}
+
+		/**
+		 * Reads every pending and snoozed alarm from the table into the heap.
+		 */
+		private void loadUpcoming() {
+			final ArrayList<AlarmRow> rows = new ArrayList<AlarmRow>();
+			super.query(null, FIELD_STATE +" = ? OR "+FIELD_STATE +" = ?", 
+					new String[] {ALARM_STATE.PENDING.ordinal()+"", ALARM_STATE.SNOOZED.ordinal()+""}, 
+					null, null, null, new RowVisitor() {
+				@Override
+				protected boolean visit(Cursor c) {
+					rows.add(AlarmRow.fromCursor(c));
+					return true;
+				}
+			});
+			upcoming.load(rows);
+			if (Constants.debugAlarms) Log.d(TAG, "Loaded "+upcoming.size()+" upcoming alarms.");
+		}
+
+		/**
+		 * Reads only the first alarm which matches, stopping the cursor there rather than
+		 * fetching every row.
+		 * @return The alarm, or null if none match.
+		 */
+		private AlarmRow firstAlarm(String selection, String[] selectionArgs, String orderBy) {
+			final AlarmRow[] first = new AlarmRow[1];
+			super.query(null, selection, selectionArgs, null, null, orderBy, new RowVisitor() {
+				@Override
+				protected boolean visit(Cursor c) {
+					first[0] = AlarmRow.fromCursor(c);
+					return false;
+				}
+			});
+			return first[0];
 		}
 		
 		/**
@@ -449,17 +513,19 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 			//first remove any dismissed alarms
 			super.delete(FIELD_STATE+" = ?", new String[]{ALARM_STATE.DISMISSED.ordinal()+""});
 			
-			//set alarm row to dismissed
-			row.setState(ALARM_STATE.DISMISSED);
-			
+			//set alarm row to dismissed, on a copy since the row may be the one upcoming holds
+			AlarmRow dismissed = new AlarmRow(row.getId(), row.getTimeToFire(), row.getResourceId(),
+						row.getReccurenceId(), ALARM_STATE.DISMISSED, row.getBlob());
+
 			//attempt update
-			int res = super.update(row.toContentValues(), FIELD_ID+" = ?", new String[]{row.getId()+""});
+			int res = super.update(dismissed.toContentValues(), FIELD_ID+" = ?", new String[]{row.getId()+""});
 			if (res >0) {
 				//success
 				super.setTxSuccessful();
 			}
 			super.endTx();
 			super.closeDB();
+			if (res > 0) upcoming.remove(row.getId());
 			
 			
 			//Reschedule next intent.
@@ -482,83 +548,178 @@ public class AlarmQueueManager implements Runnable, ResourceChangedListener  {
 			
 		}
 
-		//Deal with resource changes
+		/**
+		 * Deal with resource changes.  Only resources whose data has changed since we last worked
+		 * out their alarms are looked at again, so a sync which rewrites rows without changing them,
+		 * or only changes their sync state, doesn't cost us a parse of every resource.
+		 * <p>
+		 * The changed resources are parsed, and the checkpoints for any which recur are fetched, before
+		 * our transaction begins.  The checkpoint table shares our connection, and the CacheManager may
+		 * be holding its lock while it waits to write some, so asking for them from inside a transaction
+		 * would deadlock.
+		 * </p>
+		 * @param changes
+		 */
 		public void processChanges(ArrayList<DataChangeEvent> changes) {
+			ArrayList<AlarmChange> alarmChanges = new ArrayList<AlarmChange>(changes.size());
+			ArrayList<Resource> recurring = new ArrayList<Resource>();
+			for (DataChangeEvent change : changes) {
+				ContentValues data = change.getData();
+				Long rid = (data == null ? null : data.getAsLong(ResourceTableManager.RESOURCE_ID));
+				if ( rid == null ) continue;
+				switch (change.action) {
+					case INSERT:
+					case UPDATE:
+					case PENDING_RESOURCE:
+						if ( !alarmsMayHaveChanged(rid, change.action, data) ) break;
+						this.yield();
+						AlarmChange alarmChange = new AlarmChange(rid, false);
+						alarmChange.calendar = calendarWithAlarms(data);
+						if ( alarmChange.calendar != null && alarmChange.calendar.masterRecurs() )
+							recurring.add(alarmChange.resource = Resource.fromContentValues(data));
+						alarmChanges.add(alarmChange);
+						break;
+					default:
+						alarmChanges.add(new AlarmChange(rid, true));
+						break;
+				}
+			}
+			if ( !recurring.isEmpty() ) {
+				HashMap<Long,List<Checkpoint>> checkpoints = RecurrenceCheckpointTableManager.getInstance(context).getCheckpoints(recurring);
+				for (AlarmChange alarmChange : alarmChanges) {
+					if ( alarmChange.resource != null )
+						alarmChange.calendar.setRecurrenceCheckpoints(checkpoints.get(alarmChange.resource.getResourceId()));
+				}
+			}
+
+			int recalculated = 0;
+			AcalDateTime after = null;
 
 			super.openDB(OPEN_WRITE);
 			super.beginTx();
 			try {
-				for (DataChangeEvent change : changes) {
+				for (AlarmChange alarmChange : alarmChanges) {
 					this.yield();
-					super.delete(FIELD_RID+" = ?", new String[]{change.getData().getAsLong(ResourceTableManager.RESOURCE_ID)+""});
-					switch (change.action) {
-						case INSERT:
-						case UPDATE:
-						case PENDING_RESOURCE:
-							populateTableFromResource(change.getData());
-							break;
-						default: break;
+					removeAlarms(alarmChange.rid);
+					if ( alarmChange.deleted ) {
+						alarmEtags.remove(alarmChange.rid);
+						continue;
+					}
+					if ( alarmChange.calendar != null ) {
+						if ( after == null ) after = alarmsStartAfter();
+						populateTableFromCalendar(alarmChange.calendar, after);
 					}
+					recalculated++;
 				}
 			} catch (Exception e) {
 				Log.e(TAG, "Error processing resource changes: "+e+"\n"+Log.getStackTraceString(e));
+				// We can't be sure what we hold matches the table any more
+				upcoming.clear();
+				alarmEtags.clear();
 			}
 			super.setTxSuccessful();
 			super.endTx();
 			super.closeDB();
 
+			if (Constants.debugAlarms)
+				Log.d(TAG, "Recalculated alarms for "+recalculated+" of "+changes.size()+" changed resources.");
+
 			//schedule alarm intent
 			scheduleAlarmIntent();
 
 		}
 
-		private void populateTableFromResource(ContentValues data) {
-			if ( data == null
-					|| VComponent.VCARD.equalsIgnoreCase(data.getAsString(ResourceTableManager.EFFECTIVE_TYPE))
-					|| ( data.getAsString(ResourceTableManager.RESOURCE_DATA) == null
-						&&  data.getAsString(ResourceTableManager.NEW_DATA) == null )
-					) return;
+		/**
+		 * Decides whether a change to a resource might change its alarms, and remembers the etag it
+		 * is changing to if so.  A change with no data can't, nor can one which leaves the etag as
+		 * it was when we last worked them out.  Pending changes have no etag of their own, so they
+		 * always might.
+		 */
+		private boolean alarmsMayHaveChanged(long rid, QUERY_ACTION action, ContentValues data) {
+			boolean pending = ( action == QUERY_ACTION.PENDING_RESOURCE || data.getAsString(ResourceTableManager.NEW_DATA) != null );
+			if ( !pending && data.getAsString(ResourceTableManager.RESOURCE_DATA) == null ) return false;
 
-			//default start timestamp
-			AcalDateTime after = new AcalDateTime().applyLocalTimeZone();
+			String etag = ( pending ? null : data.getAsString(ResourceTableManager.ETAG) );
+			if ( etag != null && etag.equals(alarmEtags.get(rid)) ) return false;
+
+			if ( etag == null ) alarmEtags.remove(rid);
+			else alarmEtags.put(rid, etag);
+			return true;
+		}
+
+		private void removeAlarms(long rid) {
+			super.delete(FIELD_RID+" = ?", new String[]{Long.toString(rid)});
+			upcoming.removeResource(rid);
+		}
+
+		/**
+		 * @return The time from which alarms should be calculated, which is after the last one
+		 * that was dismissed, or now if none have been.
+		 */
+		private AcalDateTime alarmsStartAfter() {
+			AlarmRow lastDismissed = firstAlarm(FIELD_STATE+" = ?", new String[]{ALARM_STATE.DISMISSED.ordinal()+""}, FIELD_TIME_TO_FIRE+" DESC");
+			if (lastDismissed != null) return AcalDateTime.fromMillis(lastDismissed.getTimeToFire());
+			return new AcalDateTime().applyLocalTimeZone();
+		}
+
+		/**
+		 * @return The resource's data parsed as a VCalendar, or null if it is not one, or it has no alarms.
+		 */
+		private VCalendar calendarWithAlarms(ContentValues data) {
+			if ( VComponent.VCARD.equalsIgnoreCase(data.getAsString(ResourceTableManager.EFFECTIVE_TYPE)) ) return null;
+			String blob = data.getAsString(ResourceTableManager.NEW_DATA);
+			if ( blob == null ) blob = data.getAsString(ResourceTableManager.RESOURCE_DATA);
+			if ( blob == null || !VALARM.matcher(blob).find() ) return null;
 
-			ArrayList<AlarmRow> alarmList = new ArrayList<AlarmRow>();
-			//use last dismissed to calculate start
-			ArrayList<ContentValues> cvs = super.query(null, FIELD_STATE+" = ?", new String[]{ALARM_STATE.DISMISSED.ordinal()+""}, null, null, FIELD_TIME_TO_FIRE+" DESC");
-			if (!cvs.isEmpty()) after = AcalDateTime.fromMillis(cvs.get(0).getAsLong(FIELD_TIME_TO_FIRE));
-			
 			Resource r = Resource.fromContentValues(data);
 			VCalendar vc;
 			try {
 				vc = (VCalendar) VComponent.createComponentFromResource(r);
 			}
 			catch ( ClassCastException e ) {
-				return;
+				return null;
 			}
 			catch ( VComponentCreationException e ) {
 				// @todo Auto-generated catch block
 				Log.w(TAG,"Auto-generated catch block", e);
-				return;
+				return null;
 			}
 			if ( vc == null ) {
 				Log.w(TAG,"Couldn't create VCalendar from resource "+r.getResourceId()+":\n"+r.getBlob());
-				return;
+				return null;
 			}
+			return vc;
+		}
+
+		private void populateTableFromCalendar(VCalendar vc, AcalDateTime after) {
+			ArrayList<AlarmRow> alarmList = new ArrayList<AlarmRow>();
 			vc.appendAlarmInstancesBetween(alarmList, new AcalDateRange(after, AcalDateTime.addDays(after, 7)));
+			if ( alarmList.isEmpty() ) return;
 		
 			Collections.sort(alarmList);
 			
-			//Create query List
-			DMQueryList list = new DMQueryList();
-			for (AlarmRow alarm : alarmList) {
-				list.addAction(new DMInsertQuery(
-							null,
-							alarm.toContentValues()
-						));
-			}
-			
-			super.processActions(list);
+			ArrayList<ContentValues> rows = new ArrayList<ContentValues>(alarmList.size());
+			for (AlarmRow alarm : alarmList) rows.add(alarm.toContentValues());
+			super.insertBatch(null, rows);
+
+			// Each row now has its new _id, which we need to be able to update its state later
+			for (ContentValues row : rows) upcoming.add(AlarmRow.fromContentValues(row));
+		}
+	}
+
+	/**
+	 * A resource whose alarms are to be removed, and worked out again from its calendar unless it
+	 * has been deleted.
+	 */
+	private static final class AlarmChange {
+		final long		rid;
+		final boolean	deleted;
+		VCalendar		calendar	= null;
+		Resource		resource	= null;
 
+		AlarmChange(long rid, boolean deleted) {
+			this.rid = rid;
+			this.deleted = deleted;
 		}
 	}
 
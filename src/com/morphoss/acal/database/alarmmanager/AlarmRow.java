@@ -1,6 +1,7 @@
 package com.morphoss.acal.database.alarmmanager;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 
 import com.morphoss.acal.database.alarmmanager.AlarmQueueManager.AlarmTableManager;
 
@@ -59,6 +60,23 @@ public class AlarmRow implements Comparable<AlarmRow> {
 		
 	}
 
+	/**
+	 * Reads the row the Cursor is positioned on, without copying it into ContentValues first.
+	 * @param c
+	 * @return
+	 */
+	public static AlarmRow fromCursor(Cursor c) {
+		int idColumn = c.getColumnIndex(AlarmTableManager.FIELD_ID);
+		return new AlarmRow(
+				(idColumn < 0 ? -1 : c.getLong(idColumn)),
+				c.getLong(c.getColumnIndexOrThrow(AlarmTableManager.FIELD_TIME_TO_FIRE)),
+				c.getLong(c.getColumnIndexOrThrow(AlarmTableManager.FIELD_RID)),
+				c.getString(c.getColumnIndexOrThrow(AlarmTableManager.FIELD_RRID)),
+				ALARM_STATE.values()[c.getInt(c.getColumnIndexOrThrow(AlarmTableManager.FIELD_STATE))],
+				c.getString(c.getColumnIndexOrThrow(AlarmTableManager.FIELD_BLOB))
+		);
+	}
+
 	@Override
 	public int compareTo(AlarmRow another) {
 		return (int)(this.ttf - another.ttf);
@@ -73,6 +91,10 @@ public class AlarmRow implements Comparable<AlarmRow> {
 		
 	}
 
+	public ALARM_STATE getState() {
+		return this.state;
+	}
+
 	public long getId() {
 		return this.id;
 	}
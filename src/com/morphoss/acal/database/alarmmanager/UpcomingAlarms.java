@@ -0,0 +1,166 @@
+package com.morphoss.acal.database.alarmmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * An in-memory min-heap of the pending and snoozed alarms in the alarms table, ordered by the
+ * time they fire, so that finding the next one doesn't take a query every time anything changes.
+ * The AlarmTableManager keeps it in step with each insert, delete and change of state it makes to
+ * the table, and if anything goes wrong it can just clear() it to have it loaded again.
+ * </p>
+ * <p>
+ * Removing an arbitrary element from a PriorityQueue means a linear search, so alarms are only
+ * marked as removed, and are dropped when they reach the top of the heap, or all at once when
+ * they come to outnumber the live ones.
+ * </p>
+ * <p>
+ * This is only used from the AlarmQueueManager worker thread, so it does no locking of its own.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+final class UpcomingAlarms {
+
+	private static final class Entry {
+		final AlarmRow row;
+		boolean removed = false;
+
+		Entry(AlarmRow row) {
+			this.row = row;
+		}
+	}
+
+	private static final Comparator<Entry> byTimeToFire = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			long ttfA = a.row.getTimeToFire();
+			long ttfB = b.row.getTimeToFire();
+			if ( ttfA != ttfB ) return (ttfA < ttfB ? -1 : 1);
+			long idA = a.row.getId();
+			long idB = b.row.getId();
+			return (idA < idB ? -1 : (idA == idB ? 0 : 1));
+		}
+	};
+
+	private PriorityQueue<Entry> heap = new PriorityQueue<Entry>(64, byTimeToFire);
+	private final HashMap<Long,Entry> byId = new HashMap<Long,Entry>();
+	private final HashMap<Long,ArrayList<Entry>> byResource = new HashMap<Long,ArrayList<Entry>>();
+	private int removedCount = 0;
+	private boolean loaded = false;
+
+	/**
+	 * @return true if we hold every pending and snoozed alarm in the table, or false if they
+	 * need to be loaded first.
+	 */
+	boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Replaces the contents with these rows, which should be every pending and snoozed alarm
+	 * in the table.
+	 * @param rows
+	 */
+	void load(Collection<AlarmRow> rows) {
+		clear();
+		loaded = true;
+		for( AlarmRow row : rows ) add(row);
+	}
+
+	/**
+	 * Throws everything away, so it will all be loaded again next time.
+	 */
+	void clear() {
+		heap.clear();
+		byId.clear();
+		byResource.clear();
+		removedCount = 0;
+		loaded = false;
+	}
+
+	/**
+	 * Adds a row which has just been written to the table.  Dismissed alarms are ignored, as are
+	 * rows without an ID, since we couldn't then update their state later, and anything at all
+	 * while we aren't loaded, since the rows will be read from the table when we are.
+	 * @param row
+	 */
+	void add(AlarmRow row) {
+		if ( !loaded || row.getId() < 0 || row.getState() == ALARM_STATE.DISMISSED ) return;
+		remove(row.getId());
+		Entry entry = new Entry(row);
+		heap.add(entry);
+		byId.put(row.getId(), entry);
+		ArrayList<Entry> forResource = byResource.get(row.getResourceId());
+		if ( forResource == null ) {
+			forResource = new ArrayList<Entry>(2);
+			byResource.put(row.getResourceId(), forResource);
+		}
+		forResource.add(entry);
+	}
+
+	/**
+	 * Removes the alarm with this ID, if we have it.
+	 * @param id
+	 */
+	void remove(long id) {
+		Entry entry = byId.remove(id);
+		if ( entry == null ) return;
+		ArrayList<Entry> forResource = byResource.get(entry.row.getResourceId());
+		if ( forResource != null ) {
+			forResource.remove(entry);
+			if ( forResource.isEmpty() ) byResource.remove(entry.row.getResourceId());
+		}
+		markRemoved(entry);
+	}
+
+	/**
+	 * Removes all of the alarms for a resource.
+	 * @param resourceId
+	 */
+	void removeResource(long resourceId) {
+		ArrayList<Entry> forResource = byResource.remove(resourceId);
+		if ( forResource == null ) return;
+		for( Entry entry : forResource ) {
+			byId.remove(entry.row.getId());
+			markRemoved(entry);
+		}
+	}
+
+	/**
+	 * @return The alarm which fires first, or null if there are none.
+	 */
+	AlarmRow peek() {
+		Entry top = heap.peek();
+		while( top != null && top.removed ) {
+			heap.poll();
+			removedCount--;
+			top = heap.peek();
+		}
+		return (top == null ? null : top.row);
+	}
+
+	/**
+	 * @return The number of live alarms held.
+	 */
+	int size() {
+		return byId.size();
+	}
+
+	private void markRemoved(Entry entry) {
+		entry.removed = true;
+		removedCount++;
+		if ( removedCount > 32 && removedCount > byId.size() ) compact();
+	}
+
+	private void compact() {
+		PriorityQueue<Entry> live = new PriorityQueue<Entry>(Math.max(byId.size(), 64), byTimeToFire);
+		live.addAll(byId.values());
+		heap = live;
+		removedCount = 0;
+	}
+}
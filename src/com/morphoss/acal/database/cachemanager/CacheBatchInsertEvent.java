@@ -0,0 +1,71 @@
+package com.morphoss.acal.database.cachemanager;
+
+import java.util.List;
+
+import android.content.ContentValues;
+
+import com.morphoss.acal.database.DataChangeEvent;
+import com.morphoss.acal.database.DatabaseTableManager.QUERY_ACTION;
+import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
+
+/**
+ * Stands for a whole batch of rows inserted into the cache.  To listeners it looks like a single
+ * inserted row which spans every row in the batch, so anything which checks whether a change
+ * overlaps its range will still refresh.  The CacheIndex takes the actual rows from it.
+ *
+ * @author Morphoss Ltd
+ */
+final class CacheBatchInsertEvent extends DataChangeEvent {
+
+	private final List<ContentValues> rows;
+
+	CacheBatchInsertEvent( List<ContentValues> rows ) {
+		super(QUERY_ACTION.INSERT, spanOf(rows));
+		this.rows = rows;
+	}
+
+	List<ContentValues> getRows() {
+		return rows;
+	}
+
+	private static ContentValues spanOf( List<ContentValues> rows ) {
+		long start = Long.MAX_VALUE;
+		long end = Long.MIN_VALUE;
+		long utcStart = Long.MAX_VALUE;
+		long utcEnd = Long.MIN_VALUE;
+		String type = null;
+		boolean mixedTypes = false;
+		for( ContentValues row : rows ) {
+			start = Math.min(start, row.getAsLong(CacheTableManager.FIELD_DTSTART));
+			end = Math.max(end, row.getAsLong(CacheTableManager.FIELD_DTEND));
+			Long utc = row.getAsLong(CacheTableManager.FIELD_UTC_START);
+			if ( utc != null ) utcStart = Math.min(utcStart, utc);
+			utc = row.getAsLong(CacheTableManager.FIELD_UTC_END);
+			if ( utc != null ) utcEnd = Math.max(utcEnd, utc);
+			String rowType = row.getAsString(CacheTableManager.FIELD_RESOURCE_TYPE);
+			if ( type == null && !mixedTypes ) type = rowType;
+			else if ( type != null && !type.equals(rowType) ) {
+				type = null;
+				mixedTypes = true;
+			}
+		}
+
+		ContentValues span = new ContentValues();
+		span.put(CacheTableManager.FIELD_RESOURCE_ID, -1L);
+		span.put(CacheTableManager.FIELD_RESOURCE_TYPE, type);
+		span.putNull(CacheTableManager.FIELD_RECURRENCE_ID);
+		span.put(CacheTableManager.FIELD_CID, -1L);
+		span.put(CacheTableManager.FIELD_DTSTART, start);
+		span.put(CacheTableManager.FIELD_DTEND, end);
+		// Not completed, so that lists which hide completed tasks still take notice
+		span.put(CacheTableManager.FIELD_COMPLETED, Long.MAX_VALUE);
+		span.put(CacheTableManager.FIELD_DTSTART_FLOAT, 0);
+		span.put(CacheTableManager.FIELD_DTEND_FLOAT, 0);
+		span.put(CacheTableManager.FIELD_COMPLETE_FLOAT, 0);
+		span.put(CacheTableManager.FIELD_FLAGS, 0);
+		span.put(CacheTableManager.FIELD_UTC_START, utcStart);
+		span.put(CacheTableManager.FIELD_UTC_END, utcEnd);
+		span.put(CacheTableManager.FIELD_LONG_INSTANCE, CacheObject.isLongInstance(utcStart, utcEnd) ? 1 : 0);
+		return span;
+	}
+}
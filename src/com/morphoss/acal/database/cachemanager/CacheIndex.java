@@ -0,0 +1,273 @@
+package com.morphoss.acal.database.cachemanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.morphoss.acal.Constants;
+import com.morphoss.acal.database.DataChangeEvent;
+import com.morphoss.acal.database.DatabaseTableManager.QUERY_ACTION;
+import com.morphoss.acal.database.DatabaseTableManager.RowVisitor;
+import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
+
+/**
+ * <p>
+ * An in-memory copy of the event_cache table, so that requests for the objects in a range can be
+ * answered without going back to the database.  It is kept up to date from the change events the
+ * CacheTableManager generates, and any change it can't follow (like an update, which doesn't tell
+ * us which row it was) just means we load it all again next time it's needed.
+ * </p>
+ * <p>
+ * Objects are held in a set ordered by UTC start, which each insert and delete keeps in order, so
+ * a query never needs to sort the whole table.  Anything which lasts longer than a week is kept
+ * separately and checked every time, so for the rest an overlapping object must start no more than
+ * a week before the range and we can start looking from there, just as the query on the table does.
+ * </p>
+ * <p>
+ * The table only holds the cache window, but that can still be large, so if it has more than
+ * MAX_OBJECTS rows we don't hold it at all and the caller should query the table instead.  The
+ * objects we return are copies, since a response can be handed to more than one callback.
+ * </p>
+ * <p>
+ * This is only used from the CacheManager worker thread, so it does no locking of its own.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+final class CacheIndex {
+
+	private static final String TAG = "aCal CacheIndex";
+
+	static final int MAX_OBJECTS = 10000;
+
+	private final HashMap<Long,Entry> entries = new HashMap<Long,Entry>();
+	private final TreeSet<Entry> shortEntries = new TreeSet<Entry>(byStart);
+	private final TreeSet<Entry> longEntries = new TreeSet<Entry>(byStart);
+	private boolean loaded = false;
+	private boolean tooLarge = false;
+
+	private static final class Entry {
+		final long id;
+		final CacheObject object;
+		final String type;
+		final long utcStart;
+		final long utcEnd;
+
+		Entry( long id, ContentValues row ) {
+			this.id = id;
+			object = CacheObject.fromContentValues(row);
+			type = row.getAsString(CacheTableManager.FIELD_RESOURCE_TYPE);
+			Long utc = row.getAsLong(CacheTableManager.FIELD_UTC_START);
+			utcStart = (utc == null ? object.getStart() : utc);
+			utc = row.getAsLong(CacheTableManager.FIELD_UTC_END);
+			utcEnd = (utc == null ? object.getEnd() : utc);
+		}
+
+		Entry( long id, CacheObject object, String type, long utcStart, long utcEnd ) {
+			this.id = id;
+			this.object = object;
+			this.type = type;
+			this.utcStart = utcStart;
+			this.utcEnd = utcEnd;
+		}
+
+		/**
+		 * @return An entry which sorts before any real one starting at the same time.
+		 */
+		static Entry startingAt( long utcStart ) {
+			return new Entry(Long.MIN_VALUE, null, null, utcStart, utcStart);
+		}
+
+		boolean isLong() {
+			return CacheObject.isLongInstance(utcStart, utcEnd);
+		}
+	}
+
+	private static final Comparator<Entry> byStart = new Comparator<Entry>() {
+		@Override
+		public int compare( Entry a, Entry b ) {
+			if ( a.utcStart != b.utcStart ) return (a.utcStart < b.utcStart ? -1 : 1);
+			return (a.id < b.id ? -1 : (a.id == b.id ? 0 : 1));
+		}
+	};
+
+
+	/**
+	 * @return true if we hold the whole table, or false if load() needs to be called first.
+	 */
+	boolean isLoaded() {
+		return loaded;
+	}
+
+
+	/**
+	 * @return true if the last load() found more than MAX_OBJECTS rows, and nothing has been
+	 * removed from the table since, so there is no point trying again.
+	 */
+	boolean isTooLarge() {
+		return tooLarge;
+	}
+
+
+	/**
+	 * Replaces the contents with every row in the table, reading them straight from the Cursor.
+	 * If there are more than MAX_OBJECTS we give up, holding nothing.
+	 * @param table
+	 */
+	void load( CacheTableManager table ) {
+		invalidate();
+		table.query(null, null, null, null, null, null, new RowVisitor() {
+			private CacheObject.RowReader reader;
+			private int id;
+			private int type;
+			private int utcStart;
+			private int utcEnd;
+
+			@Override
+			protected void prepare( Cursor c ) {
+				reader = new CacheObject.RowReader(c);
+				id = c.getColumnIndex(CacheTableManager.FIELD_ID);
+				type = c.getColumnIndex(CacheTableManager.FIELD_RESOURCE_TYPE);
+				utcStart = c.getColumnIndex(CacheTableManager.FIELD_UTC_START);
+				utcEnd = c.getColumnIndex(CacheTableManager.FIELD_UTC_END);
+			}
+
+			@Override
+			protected boolean visit( Cursor c ) {
+				if ( entries.size() >= MAX_OBJECTS ) {
+					tooLarge = true;
+					return false;
+				}
+				CacheObject object = reader.read(c);
+				add(new Entry(c.getLong(id), object, c.getString(type),
+						(c.isNull(utcStart) ? object.getStart() : c.getLong(utcStart)),
+						(c.isNull(utcEnd) ? object.getEnd() : c.getLong(utcEnd))));
+				return true;
+			}
+		});
+		if ( tooLarge ) {
+			invalidate();
+			tooLarge = true;
+			if ( CacheManager.DEBUG && Constants.LOG_DEBUG )
+				Log.println(Constants.LOGD, TAG, "More than "+MAX_OBJECTS+" cache objects, so not holding them in memory.");
+			return;
+		}
+		loaded = true;
+		if ( CacheManager.DEBUG && Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD, TAG, "Loaded "+entries.size()+" cache objects into memory.");
+	}
+
+
+	/**
+	 * Throws everything away, so it will all be loaded again next time.
+	 */
+	void invalidate() {
+		entries.clear();
+		shortEntries.clear();
+		longEntries.clear();
+		loaded = false;
+		tooLarge = false;
+	}
+
+
+	/**
+	 * Applies the inserts and deletes from a set of changes to the table.
+	 * @param changes
+	 */
+	void applyChanges( List<DataChangeEvent> changes ) {
+		if ( !loaded ) return;
+		for( DataChangeEvent change : changes ) {
+			if ( change instanceof CacheBatchInsertEvent ) {
+				for( ContentValues row : ((CacheBatchInsertEvent) change).getRows() ) {
+					Long id = row.getAsLong(CacheTableManager.FIELD_ID);
+					if ( id != null && id >= 0 ) add(new Entry(id, row));
+				}
+			}
+			else {
+				ContentValues row = change.getData();
+				Long id = (row == null ? null : row.getAsLong(CacheTableManager.FIELD_ID));
+				if ( id == null || (change.action != QUERY_ACTION.INSERT && change.action != QUERY_ACTION.DELETE) ) {
+					invalidate();
+					return;
+				}
+				if ( change.action == QUERY_ACTION.INSERT ) {
+					if ( id >= 0 ) add(new Entry(id, row));
+				}
+				else
+					remove(id);
+			}
+			if ( entries.size() > MAX_OBJECTS ) {
+				invalidate();
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Drops the objects which overlap the range, following a delete on the table which didn't
+	 * report them row by row.
+	 * @param rangeStart UTC milliseconds
+	 * @param rangeEnd UTC milliseconds
+	 */
+	void removeRange( long rangeStart, long rangeEnd ) {
+		tooLarge = false;
+		if ( !loaded ) return;
+		ArrayList<Entry> found = new ArrayList<Entry>();
+		collectInRange(rangeStart, rangeEnd, null, found);
+		for( Entry e : found ) remove(e.id);
+	}
+
+
+	/**
+	 * Returns the objects which overlap the range, in order of their UTC start.  As with the query
+	 * on the table, an object with no end overlaps everything after its start, and one with no start
+	 * overlaps nothing.
+	 * @param rangeStart UTC milliseconds
+	 * @param rangeEnd UTC milliseconds
+	 * @param type The resource type to restrict to, or null for all of them.
+	 * @return
+	 */
+	ArrayList<CacheObject> getObjectsInRange( long rangeStart, long rangeEnd, String type ) {
+		ArrayList<Entry> found = new ArrayList<Entry>();
+		collectInRange(rangeStart, rangeEnd, type, found);
+
+		ArrayList<CacheObject> result = new ArrayList<CacheObject>(found.size());
+		for( Entry e : found ) result.add(new CacheObject(e.object));
+		return result;
+	}
+
+
+	private void collectInRange( long rangeStart, long rangeEnd, String type, List<Entry> found ) {
+		for( Entry e : shortEntries.tailSet(Entry.startingAt(rangeStart - CacheTableManager.LONG_INSTANCE)) ) {
+			if ( e.utcStart >= rangeEnd ) break;
+			if ( e.utcEnd > rangeStart && (type == null || type.equals(e.type)) ) found.add(e);
+		}
+		int fromShort = found.size();
+		for( Entry e : longEntries ) {
+			if ( e.utcStart >= rangeEnd ) break;
+			if ( e.utcEnd > rangeStart && (type == null || type.equals(e.type)) ) found.add(e);
+		}
+		if ( found.size() > fromShort && fromShort > 0 ) Collections.sort(found, byStart);
+	}
+
+
+	private void add( Entry e ) {
+		remove(e.id);
+		entries.put(e.id, e);
+		(e.isLong() ? longEntries : shortEntries).add(e);
+	}
+
+
+	private void remove( long id ) {
+		Entry e = entries.remove(id);
+		if ( e != null ) (e.isLong() ? longEntries : shortEntries).remove(e);
+	}
+}
@@ -1,10 +1,16 @@
 package com.morphoss.acal.database.cachemanager;
 
 import java.util.ArrayList;
-import java.util.TimeZone;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -20,7 +26,9 @@ import com.morphoss.acal.Constants;
 import com.morphoss.acal.StaticHelpers;
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.acaltime.AcalDateTime;
+import com.morphoss.acal.acaltime.AcalRepeatRule.Checkpoint;
 import com.morphoss.acal.database.AcalDBHelper;
+import com.morphoss.acal.database.BlockingRequestWaiter;
 import com.morphoss.acal.database.CacheModifier;
 import com.morphoss.acal.database.CacheWindow;
 import com.morphoss.acal.database.DMDeleteQuery;
@@ -33,6 +41,7 @@ import com.morphoss.acal.database.cachemanager.requests.CRAddRangeResult;
 import com.morphoss.acal.database.cachemanager.requests.CRObjectsInRange;
 import com.morphoss.acal.database.cachemanager.requests.CRReduceRangeSize;
 import com.morphoss.acal.database.cachemanager.requests.CRResourceChanged;
+import com.morphoss.acal.database.cachemanager.requests.CRSaveRecurrenceCheckpoints;
 import com.morphoss.acal.database.resourcesmanager.ResourceChangedEvent;
 import com.morphoss.acal.database.resourcesmanager.ResourceChangedListener;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager;
@@ -90,8 +99,14 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 	private ConditionVariable threadHolder = new ConditionVariable();
 	private Thread workerThread;
 	private boolean running = true;
-	private final ConcurrentLinkedQueue<CacheRequest> queue = new ConcurrentLinkedQueue<CacheRequest>();
+	private final CacheRequestQueue queue = new CacheRequestQueue();
 	private static final long	MAX_BLOCKING_REQUEST_WAIT	= 20000;
+	private final BlockingRequestWaiter blockingRequests = new BlockingRequestWaiter(TAG);
+
+	//Parallel parsing of resource batches
+	private static final int	PARSE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final int	MIN_RESOURCES_PER_PARSE_THREAD = 16;
+	private ExecutorService parsePool = null;
 
 	//DB Constants
 	private static final String META_TABLE = "event_cache_meta";
@@ -107,6 +122,7 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 	
 	//Request Processor Instance
 	private CacheTableManager CTMinstance;
+	private RecurrenceCheckpointTableManager checkpointTable;
 	
 	private static volatile boolean resourceInTransaction = false;
 	private static Semaphore lockSem = new Semaphore(1, true);
@@ -144,6 +160,7 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 	private CacheManager(Context context) {
 		this.context = context;
 		this.CTMinstance = this.getCTMInstance();
+		this.checkpointTable = RecurrenceCheckpointTableManager.getInstance(context);
 		rm = ResourceManager.getInstance(context);
 		loadState();
 		workerThread = new Thread(this);
@@ -212,23 +229,9 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 	
 	private synchronized static void setDBisDirty(Context c, boolean dirty) {
 		ContentValues data = new ContentValues();
-		AcalDBHelper dbHelper = new AcalDBHelper(c);
 		SQLiteDatabase db = null;
 		try {
-			int attempts = 0;
-			while( attempts++ < 20 ) {
-				try {
-					db = dbHelper.getWritableDatabase();
-					break;
-				}
-				catch( Exception e ) {
-					Log.println(Constants.LOGD,TAG,"Unable to get writable database - retrying");
-				}
-				try { Thread.sleep(50); } catch (Exception e) {}
-			}
-			if ( db == null )
-				db = dbHelper.getWritableDatabase();
-
+			db = AcalDBHelper.getSharedDatabase(c);
 		}
 		catch( Exception e ) {
 			Log.e(TAG,"Unable to get writable database!", e);
@@ -295,9 +298,6 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 				Log.e(TAG,Log.getStackTraceString(e));
 			}
 			releaseMetaLock();
-
-			// This closes the actual database and makes sure it is, much the same as the above to with transaction
-			dbHelper.close(db);
 		}
 	}
 	
@@ -315,6 +315,14 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		}
 		saveState();
 		workerThread = null;
+		if ( DEBUG && Constants.LOG_DEBUG ) {
+			blockingRequests.logLatencies();
+			Log.println(Constants.LOGD,TAG,queue.getMergedCount()+" requests were merged into newer ones.");
+		}
+		synchronized (this) {
+			if ( parsePool != null ) parsePool.shutdown();
+			parsePool = null;
+		}
 	}
 
 	/**
@@ -336,12 +344,9 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		}
 		data.put(FIELD_CLOSED, true);
 
-		AcalDBHelper dbHelper = new AcalDBHelper(context);
-		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteDatabase db = AcalDBHelper.getSharedDatabase(context);
 		//set CLOSED to true
 		db.update(META_TABLE, data, FIELD_ID+" = ?", new String[] {metaRow+""});
-		db.close();
-		dbHelper.close();
 		
 		//dereference ourself so GC can clean up
 		instance = null;
@@ -356,8 +361,7 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 	private void loadState() {
 		acquireMetaLock();
 		ContentValues data = new ContentValues();
-		AcalDBHelper dbHelper = new AcalDBHelper(context);
-		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		SQLiteDatabase db = AcalDBHelper.getSharedDatabase(context);
 
 		//load start/end range from meta table
 		AcalDateTime defaultWindow = new AcalDateTime();
@@ -368,8 +372,6 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		catch( SQLiteException e ) {
 			Log.i(TAG,Log.getStackTraceString(e));
 //			AcalDBHelper.recoverDatabase(db,true);
-			db.close();
-			dbHelper.close();
 			releaseMetaLock();
 			return;
 		}
@@ -406,8 +408,6 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		db.delete(META_TABLE, null, null);
 		data.remove(FIELD_ID);
 		this.metaRow = db.insert(META_TABLE, null, data);
-		db.close();
-		dbHelper.close();
 		long start = data.getAsLong(FIELD_START);
 		long end = data.getAsLong(FIELD_END);
 		AcalDateRange range = null;
@@ -444,7 +444,19 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 			//do stuff
 			while (!queue.isEmpty()) {
 				CacheRequest request = queue.poll();
-				CTMinstance.process(request);
+				try {
+					if ( request instanceof CoalescingCacheRequest && !((CoalescingCacheRequest<?>) request).isWanted(listeners) ) {
+						if ( DEBUG && Constants.LOG_DEBUG )
+							Log.println(Constants.LOGD,TAG,"Dropping "+request.getClass().getSimpleName()+" for a closed view.");
+					}
+					else {
+						CTMinstance.process(request);
+					}
+				}
+				finally {
+					// Anything waiting on a request must be woken whether or not we processed it
+					blockingRequests.completed(request);
+				}
 			}
 			if (!CacheManager.resourceInTransaction) setDBisDirty(context,false);
 			//Wait till next time
@@ -475,17 +487,19 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 	public <E> CacheResponse<E> sendRequest(BlockingCacheRequestWithResponse<E> request) throws IllegalStateException {
 		if (instance == null || this.workerThread == null || this.CTMinstance == null) 
 			throw new IllegalStateException("CM in illegal state - probably because sendRequest was called after close() has been called.");
+		blockingRequests.expect(request);
 		queue.offer(request);
 		threadHolder.open();
-		int priority = Thread.currentThread().getPriority();
-		Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-		long stopWaiting = System.currentTimeMillis() + MAX_BLOCKING_REQUEST_WAIT; 
-		while ( !request.isProcessed() ) {
-			try { Thread.sleep(10); } catch (Exception e) {	}
-			if ( System.currentTimeMillis() > stopWaiting )
+		try {
+			if ( !blockingRequests.await(request, MAX_BLOCKING_REQUEST_WAIT) ) {
+				blockingRequests.forget(request);
 				throw new IllegalStateException("Waited too long ("+MAX_BLOCKING_REQUEST_WAIT/1000+"s) for "+request.getClass().getSimpleName()+" response!");
+			}
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for "+request.getClass().getSimpleName()+" response.");
 		}
-		Thread.currentThread().setPriority(priority);
 		return request.getResponse();
 	}
 	
@@ -509,23 +523,13 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 			}
 			
 			
-			ArrayList<CacheObject> events = new ArrayList<CacheObject>();
 			//step 3 - foreach resource, Vcomps
 			//This is very CPU intensive, so lower our priority to prevent interfering with other parts of the app.
 			int currentPri = Thread.currentThread().getPriority();
 			Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-			for (Resource r : res.result()) {
-				try {
-				//if VComp is VCalendar
-				VComponent comp = VComponent.createComponentFromResource(r);
-				if (comp instanceof VCalendar)
-					((VCalendar)comp).appendCacheEventInstancesBetween(events, range);
-				} catch (VComponentCreationException e) {
-					//not a vcal
-					
-				}
-
-			}
+			HashMap<Long,List<Checkpoint>> checkpoints = checkpointTable.getCheckpoints(res.result());
+			DMQueryList checkpointSaves = new DMQueryList();
+			ArrayList<CacheObject> events = expandResources(res.result(), range, checkpoints, checkpointSaves);
 			Thread.currentThread().setPriority(currentPri);
 			if ( DEBUG && Constants.LOG_DEBUG )
 				Log.println(Constants.LOGD,TAG,events.size()+"Event Instances obtained. Posting Response.");
@@ -562,9 +566,135 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 			}
 
 			this.sendRequest(new CRAddRangeResult(inserts, range));
+			if ( !checkpointSaves.isEmpty() ) this.sendRequest(new CRSaveRecurrenceCheckpoints(checkpointSaves));
 		}
 	}
 
+	/**
+	 * Parses each resource and appends the cache instances falling within range. Large batches
+	 * are split into contiguous slices which are parsed concurrently, one per core, and the results
+	 * are concatenated in the original resource order.
+	 * @param resources
+	 * @param range
+	 * @param checkpoints Saved recurrence checkpoints, keyed by resource ID
+	 * @param checkpointSaves Has the saving of any new recurrence checkpoints added to it
+	 * @return
+	 */
+	private ArrayList<CacheObject> expandResources(final List<Resource> resources, final AcalDateRange range,
+				final HashMap<Long,List<Checkpoint>> checkpoints, final DMQueryList checkpointSaves) {
+		int threads = Math.min(PARSE_THREADS, resources.size() / MIN_RESOURCES_PER_PARSE_THREAD);
+		if ( threads < 2 ) return expandResourceSlice(resources, range, checkpoints, checkpointSaves);
+
+		ExecutorService pool = getParsePool();
+		int sliceSize = (resources.size() + threads - 1) / threads;
+		ArrayList<List<Resource>> slices = new ArrayList<List<Resource>>(threads);
+		ArrayList<Future<ArrayList<CacheObject>>> futures = new ArrayList<Future<ArrayList<CacheObject>>>(threads);
+		for( int from = 0; from < resources.size(); from += sliceSize ) {
+			final List<Resource> slice = resources.subList(from, Math.min(from + sliceSize, resources.size()));
+			slices.add(slice);
+			futures.add(pool.submit(new Callable<ArrayList<CacheObject>>() {
+				@Override
+				public ArrayList<CacheObject> call() {
+					return expandResourceSlice(slice, range, checkpoints, checkpointSaves);
+				}
+			}));
+		}
+
+		// A slice which fails, or which we are interrupted waiting for, is expanded again here, since
+		// the whole range gets marked as loaded and anything we left out would stay missing.
+		ArrayList<CacheObject> events = new ArrayList<CacheObject>();
+		boolean interrupted = false;
+		for( int i = 0; i < futures.size(); i++ ) {
+			if ( !interrupted ) {
+				try {
+					events.addAll(futures.get(i).get());
+					continue;
+				}
+				catch ( InterruptedException e ) {
+					interrupted = true;
+				}
+				catch ( ExecutionException e ) {
+					Log.e(TAG, "Error expanding resources in parallel, retrying slice serially: "+Log.getStackTraceString(e));
+				}
+			}
+			futures.get(i).cancel(true);
+			events.addAll(expandResourceSlice(slices.get(i), range, checkpoints, checkpointSaves));
+		}
+		if ( interrupted ) Thread.currentThread().interrupt();
+		return events;
+	}
+
+	private static ArrayList<CacheObject> expandResourceSlice(List<Resource> resources, AcalDateRange range,
+				HashMap<Long,List<Checkpoint>> checkpoints, DMQueryList checkpointSaves) {
+		ArrayList<CacheObject> events = new ArrayList<CacheObject>();
+		for (Resource r : resources) {
+			try {
+				//if VComp is VCalendar
+				VComponent comp = VComponent.createComponentFromResource(r);
+				if (comp instanceof VCalendar) {
+					VCalendar vCal = (VCalendar) comp;
+					vCal.setRecurrenceCheckpoints(checkpoints.get(r.getResourceId()));
+					vCal.appendCacheEventInstancesBetween(events, range);
+					List<Checkpoint> recorded = vCal.takeNewRecurrenceCheckpoints();
+					if ( recorded != null ) {
+						synchronized( checkpointSaves ) {
+							RecurrenceCheckpointTableManager.addSaveActions(checkpointSaves, r, recorded);
+						}
+					}
+				}
+			} catch (VComponentCreationException e) {
+				//not a vcal
+			}
+		}
+		return events;
+	}
+
+	private synchronized ExecutorService getParsePool() {
+		if ( parsePool == null ) {
+			parsePool = Executors.newFixedThreadPool(PARSE_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "aCal cache parser");
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			});
+		}
+		return parsePool;
+	}
+
+	/**
+	 * Returns a where clause matching rows which overlap a range, using the normalised UTC start
+	 * and end so that it can be answered from an index.  A row which isn't flagged as a long
+	 * instance must start less than LONG_INSTANCE before the range, which bounds the index range
+	 * scan at both ends, and the few long instances are found from their own index.  Rows without
+	 * a start or end have Long.MAX_VALUE there, so open-ended rows overlap anything after their
+	 * start, and rows with no start overlap nothing.  The arguments are from getRangeWhereArgs().
+	 * @param cacheObjectType The resource type to restrict to, or null for all of them
+	 * @return
+	 */
+	public static String getRangeWhereClause( String cacheObjectType ) {
+		String typeClause = ( cacheObjectType == null ? "" : CacheTableManager.FIELD_RESOURCE_TYPE+" = ? AND " );
+		return "( "+typeClause+CacheTableManager.FIELD_UTC_START+" >= ? AND "+CacheTableManager.FIELD_UTC_START+" < ? AND "
+					+CacheTableManager.FIELD_UTC_END+" > ? ) OR ( "+CacheTableManager.FIELD_LONG_INSTANCE+" = 1 AND "
+					+typeClause+CacheTableManager.FIELD_UTC_START+" < ? AND "+CacheTableManager.FIELD_UTC_END+" > ? )";
+	}
+
+	/**
+	 * @param cacheObjectType The resource type to restrict to, or null for all of them
+	 * @param start UTC milliseconds
+	 * @param end UTC milliseconds
+	 * @return The arguments for getRangeWhereClause(), for this range.
+	 */
+	public static String[] getRangeWhereArgs( String cacheObjectType, long start, long end ) {
+		String earliest = (start - CacheTableManager.LONG_INSTANCE)+"";
+		if ( cacheObjectType == null )
+			return new String[] { earliest, end+"", start+"", end+"", start+"" };
+		return new String[] { cacheObjectType, earliest, end+"", start+"", cacheObjectType, end+"", start+"" };
+	}
+
+
 	/**
 	 * Static class to encapsulate all database operations 
 	 * @author Chris Noldus
@@ -589,12 +719,32 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		public static final String	FIELD_DTEND_FLOAT		= "dtendfloat";
 		public static final String	FIELD_COMPLETE_FLOAT	= "completedfloat";
 		public static final String	FIELD_FLAGS				= "flags";
+		public static final String	FIELD_UTC_START			= "utc_start";
+		public static final String	FIELD_UTC_END			= "utc_end";
+		public static final String	FIELD_LONG_INSTANCE		= "long_instance";
+
+		/**
+		 * Instances lasting longer than this, or with no end, are flagged in FIELD_LONG_INSTANCE.
+		 */
+		public static final long	LONG_INSTANCE			= 86400000L*7L;	// 1 week
 
 		public static final String	RESOURCE_TYPE_VEVENT	= "VEVENT";
 		public static final String	RESOURCE_TYPE_VTODO		= "VTODO";
 		public static final String	RESOURCE_TYPE_VJOURNAL	= "VJOURNAL";
 		
 		private boolean windowOnly = false;
+
+		/**
+		 * An in-memory copy of the table, for answering range requests.
+		 */
+		private final CacheIndex index = new CacheIndex();
+
+		/**
+		 * Everything but the summary and location, which nobody looks at when a row is deleted.
+		 */
+		private final String[] deleteEventColumns = new String[] { FIELD_ID, FIELD_RESOURCE_ID, FIELD_RESOURCE_TYPE,
+				FIELD_RECURRENCE_ID, FIELD_CID, FIELD_DTSTART, FIELD_DTEND, FIELD_COMPLETED, FIELD_DTSTART_FLOAT,
+				FIELD_DTEND_FLOAT, FIELD_COMPLETE_FLOAT, FIELD_FLAGS, FIELD_UTC_START, FIELD_UTC_END, FIELD_LONG_INSTANCE };
 		
 		/**
 		 * The current request being processed. Presently not used but may become useful.
@@ -615,6 +765,20 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 			return TABLE;
 		}
 
+		@Override
+		protected String[] getDeleteEventColumns() {
+			return deleteEventColumns;
+		}
+
+		/**
+		 * A window fill can insert tens of thousands of rows, so rather than an event for each of
+		 * them listeners get one event spanning the batch.
+		 */
+		@Override
+		protected void batchInserted(List<ContentValues> rows) {
+			if ( !rows.isEmpty() ) addChange(new CacheBatchInsertEvent(rows));
+		}
+
 		/**
 		 * Process a CacheRequest. This class will provide an interface to the CacheRequest giving it access to the Cache Table.
 		 * Will warn if given request has misused the DB, but will not cause program to exit. Will ensure that database state is kept
@@ -654,10 +818,11 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		private void clearCache() {
 			this.openDB(OPEN_WRITE);
 			this.beginTx();
-			this.delete(null, null);
+			this.delete(null, null, false);
 			this.setTxSuccessful();
 			this.endTx();
 			this.closeDB();
+			index.invalidate();
 			window = new CacheWindow(lookForward, lookBack, maxSize, minPaddingBack,
 					minPaddingForward, increment, CacheManager.this, new AcalDateTime());
 			Log.println(Constants.LOGW,TAG,"Cache cleared of possibly corrupt data.");
@@ -670,41 +835,41 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		
 		
 		/**
-		 * One specific common query for the cache is to fetch rows for a particular range of dates.
+		 * Fetches the objects which overlap a range from memory, rather than from the table, unless
+		 * the table is too large to hold in memory.  The caller should have used checkWindow() first
+		 * to be sure the range is all in the cache.
 		 * 
 		 * @param range Must not be null, or have either end null
-		 * @return
+		 * @param cacheObjectType The resource type to restrict to, or null for all of them
+		 * @return The objects, in order of their UTC start
 		 */
-		public ArrayList<ContentValues> queryInRange( AcalDateRange range, String cacheObjectType ) {
-			long dtStart = range.start.getMillis();
-			long dtEnd = range.end.getMillis();
-			int offsetS = TimeZone.getDefault().getOffset(range.start.getMillis());
-			int offsetE = TimeZone.getDefault().getOffset(range.start.getMillis());
-			
-			String whereClause = 				
-			"( " + 
-				"( "+CacheTableManager.FIELD_DTEND+" > "+dtStart+" AND NOT "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-					" OR "+
-				"( "+CacheTableManager.FIELD_DTEND+" - "+offsetS+" > "+dtStart+" AND "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-					" OR "+
-				"( "+CacheTableManager.FIELD_DTEND+" ISNULL )"+
-			" ) AND ( "+
-				"( "+CacheTableManager.FIELD_DTSTART+" < "+dtEnd+" AND NOT "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-					" OR "+
-				"( "+CacheTableManager.FIELD_DTSTART+" - "+offsetE+" < "+dtEnd+" AND "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-					" OR "+
-				"( "+CacheTableManager.FIELD_DTSTART+" ISNULL )"+
-			")" +
-			( cacheObjectType == null ? "" : " AND "+CacheTableManager.FIELD_RESOURCE_TYPE+"='"+cacheObjectType+"'");
-
-			if ( CacheManager.DEBUG && Constants.LOG_DEBUG )
-				Log.println(Constants.LOGD, CacheManager.TAG,
-					"Selecting cache objects in "+range+": \nSELECT * FROM event_cache WHERE "+whereClause  );
-			
-			return this.query(null, whereClause, null, null,null,CacheTableManager.FIELD_DTSTART+" ASC");
+		public ArrayList<CacheObject> getObjectsInRange( AcalDateRange range, String cacheObjectType ) {
+			if ( !index.isLoaded() && !index.isTooLarge() ) index.load(this);
+			if ( index.isLoaded() )
+				return index.getObjectsInRange(range.start.getMillis(), range.end.getMillis(), cacheObjectType);
+
+			CacheObject.ListCollector collector = new CacheObject.ListCollector();
+			this.query(null, getRangeWhereClause(cacheObjectType),
+					getRangeWhereArgs(cacheObjectType, range.start.getMillis(), range.end.getMillis()),
+					null, null, CacheTableManager.FIELD_UTC_START, collector);
+			return collector.result;
+		}
+
+		/**
+		 * Deletes the rows which overlap a range, as when the window shrinks.  Nothing is read before
+		 * the delete and no change events are sent for the rows; the in-memory index just drops the
+		 * same range.
+		 * @param range
+		 * @return The number of rows deleted
+		 */
+		public int deleteRange( AcalDateRange range ) {
+			long start = range.start.getMillis();
+			long end = range.end.getMillis();
+			int count = this.delete(getRangeWhereClause(null), getRangeWhereArgs(null, start, end), false);
+			index.removeRange(start, end);
+			return count;
 		}
 
-		
 		/**
 		 * Checks that the window has been populated with the requested range
 		 * range can be NULL in which case the default range is used.
@@ -740,6 +905,7 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		@Override
 		public void dataChanged(ArrayList<DataChangeEvent> changes) {
 			if (changes.isEmpty()) return;
+			index.applyChanges(changes);
 			synchronized (listeners) {
 				for (CacheChangedListener listener: listeners) {
 					CacheChangedEvent cce = new CacheChangedEvent(new ArrayList<DataChangeEvent>(changes),windowOnly);
@@ -751,6 +917,15 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 			
 		}
 
+		/**
+		 * Checkpoints live in their own table, but saving them is queued along with everything else
+		 * so they are written by our worker thread.
+		 * @param queries
+		 */
+		public void saveRecurrenceCheckpoints(DMQueryList queries) {
+			checkpointTable.processActions(queries);
+		}
+
 		public void resourceDeleted(long rid) {
 			this.delete(FIELD_RESOURCE_ID+" = ?", new String[]{rid+""});
 		}
@@ -805,6 +980,7 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 		AcalDateRange windowRange = window.getCurrentWindow();
 		if (windowRange == null) return; // dont care 
 		DMQueryList queries = new DMQueryList();
+		DMQueryList checkpointQueries = new DMQueryList();
 		Resource r;
 		VComponent comp;
 		ArrayList<CacheObject> newData;
@@ -820,6 +996,8 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 					// Construct resource
 					try {
 						if ( r == null ) continue;
+						if ( change.action != QUERY_ACTION.INSERT )
+							RecurrenceCheckpointTableManager.addDeleteActions(checkpointQueries, r.getResourceId());
 						comp = VComponent.createComponentFromResource(r);
 						if ( comp == null ) continue;
 						// get instances within window
@@ -833,6 +1011,8 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 						newData = new ArrayList<CacheObject>();
 						if ( comp instanceof VCalendar ) {
 							((VCalendar) comp).appendCacheEventInstancesBetween(newData, windowRange);
+							RecurrenceCheckpointTableManager.addSaveActions(checkpointQueries, r,
+									((VCalendar) comp).takeNewRecurrenceCheckpoints());
 
 							// Delete existing first
 							queries.addAction(new DMDeleteQuery(CacheTableManager.FIELD_RESOURCE_ID+"="+r.getResourceId(), null));
@@ -854,6 +1034,7 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 				case DELETE:
 					long rid = change.getData().getAsLong(ResourceManager.ResourceTableManager.RESOURCE_ID);
 					queries.addAction(new DMDeleteQuery(CacheTableManager.FIELD_RESOURCE_ID+"="+rid, null));
+					RecurrenceCheckpointTableManager.addDeleteActions(checkpointQueries, rid);
 					break;
 			}
 		}
@@ -866,6 +1047,14 @@ public class CacheManager implements Runnable, ResourceChangedListener,  Resourc
 				Log.e(TAG,Log.getStackTraceString(e));
 			}
 		}
+		if ( !checkpointQueries.isEmpty() ) {
+			try {
+				this.sendRequest(new CRSaveRecurrenceCheckpoints(checkpointQueries));
+			}
+			catch( Exception e ) {
+				Log.e(TAG,Log.getStackTraceString(e));
+			}
+		}
 	
 		Thread.currentThread().setPriority(priority);
 
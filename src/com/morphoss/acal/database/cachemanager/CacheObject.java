@@ -1,9 +1,11 @@
 package com.morphoss.acal.database.cachemanager;
 
+import java.util.ArrayList;
 import java.util.TimeZone;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
@@ -11,6 +13,7 @@ import android.util.Log;
 import com.morphoss.acal.Constants;
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.acaltime.AcalDateTime;
+import com.morphoss.acal.database.DatabaseTableManager.RowVisitor;
 import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
 import com.morphoss.acal.dataservice.Resource;
 import com.morphoss.acal.davacal.Masterable;
@@ -303,8 +306,37 @@ public class CacheObject implements Parcelable, Comparable<CacheObject> {
 		cv.put(CacheTableManager.FIELD_DTEND_FLOAT, this.endFloating?1:0);
 		cv.put(CacheTableManager.FIELD_COMPLETE_FLOAT, this.completeFloating?1:0);
 		cv.put(CacheTableManager.FIELD_FLAGS, this.flags);
+		TimeZone tz = TimeZone.getDefault();
+		long utcStart = toUtc(this.start, this.startFloating, tz);
+		long utcEnd = toUtc(this.end, this.endFloating, tz);
+		cv.put(CacheTableManager.FIELD_UTC_START, utcStart);
+		cv.put(CacheTableManager.FIELD_UTC_END, utcEnd);
+		cv.put(CacheTableManager.FIELD_LONG_INSTANCE, isLongInstance(utcStart, utcEnd) ? 1 : 0);
 		return cv;
 	}
+
+	/**
+	 * Floating times are stored as though the local time were UTC.  To compare them against real
+	 * instants we take off the local offset in effect at that time.  The cache is rebuilt whenever
+	 * the default timezone changes, so this stays correct.
+	 * @param millis
+	 * @param floating
+	 * @param tz The local timezone
+	 * @return The UTC milliseconds for this time
+	 */
+	private static long toUtc(long millis, boolean floating, TimeZone tz) {
+		if ( !floating || millis == Long.MAX_VALUE ) return millis;
+		return millis - tz.getOffset(millis - tz.getOffset(millis));
+	}
+	
+	/**
+	 * @param utcStart
+	 * @param utcEnd
+	 * @return true if an instance with these UTC times is flagged in FIELD_LONG_INSTANCE.
+	 */
+	static boolean isLongInstance(long utcStart, long utcEnd) {
+		return utcEnd == Long.MAX_VALUE || utcEnd - utcStart > CacheTableManager.LONG_INSTANCE;
+	}
 	
 	public static CacheObject fromContentValues(ContentValues row) {
 		return new CacheObject(
@@ -324,6 +356,79 @@ public class CacheObject implements Parcelable, Comparable<CacheObject> {
 				);
 	}
 
+	/**
+	 * Builds CacheObjects straight from a Cursor over the cache table, with the column indexes
+	 * looked up once when it is created.
+	 */
+	public static final class RowReader {
+		private final int rid;
+		private final int resourceType;
+		private final int rrid;
+		private final int cid;
+		private final int summary;
+		private final int location;
+		private final int start;
+		private final int end;
+		private final int completed;
+		private final int startFloating;
+		private final int endFloating;
+		private final int completeFloating;
+		private final int flags;
+
+		public RowReader(Cursor c) {
+			rid = c.getColumnIndex(CacheTableManager.FIELD_RESOURCE_ID);
+			resourceType = c.getColumnIndex(CacheTableManager.FIELD_RESOURCE_TYPE);
+			rrid = c.getColumnIndex(CacheTableManager.FIELD_RECURRENCE_ID);
+			cid = c.getColumnIndex(CacheTableManager.FIELD_CID);
+			summary = c.getColumnIndex(CacheTableManager.FIELD_SUMMARY);
+			location = c.getColumnIndex(CacheTableManager.FIELD_LOCATION);
+			start = c.getColumnIndex(CacheTableManager.FIELD_DTSTART);
+			end = c.getColumnIndex(CacheTableManager.FIELD_DTEND);
+			completed = c.getColumnIndex(CacheTableManager.FIELD_COMPLETED);
+			startFloating = c.getColumnIndex(CacheTableManager.FIELD_DTSTART_FLOAT);
+			endFloating = c.getColumnIndex(CacheTableManager.FIELD_DTEND_FLOAT);
+			completeFloating = c.getColumnIndex(CacheTableManager.FIELD_COMPLETE_FLOAT);
+			flags = c.getColumnIndex(CacheTableManager.FIELD_FLAGS);
+		}
+
+		public CacheObject read(Cursor c) {
+			return new CacheObject(
+						c.getLong(rid),
+						c.getString(resourceType),
+						c.getString(rrid),
+						c.getLong(cid),
+						c.getString(summary),
+						c.getString(location),
+						c.getLong(start),
+						c.getLong(end),
+						c.getLong(completed),
+						c.getInt(startFloating) == 1,
+						c.getInt(endFloating) == 1,
+						c.getInt(completeFloating) == 1,
+						c.getInt(flags)
+					);
+		}
+	}
+
+	/**
+	 * A RowVisitor which collects the CacheObject for each row into a list.
+	 */
+	public static final class ListCollector extends RowVisitor {
+		public final ArrayList<CacheObject> result = new ArrayList<CacheObject>();
+		private RowReader reader;
+
+		@Override
+		protected void prepare(Cursor c) {
+			reader = new RowReader(c);
+		}
+
+		@Override
+		protected boolean visit(Cursor c) {
+			result.add(reader.read(c));
+			return true;
+		}
+	}
+
 	@Override
 	public int compareTo(CacheObject another) {
 		return (int) (this.start - another.start);
@@ -0,0 +1,69 @@
+package com.morphoss.acal.database.cachemanager;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * <p>
+ * The CacheManager's queue of requests.  Requests are processed in the order they arrive, except
+ * that a run of CoalescingCacheRequests queued one after another is served newest first, since
+ * while the user is scrolling the newest request is the one for what is on screen now.  Queueing
+ * one of those also merges away any older request in the same run which it replaces, so a fling
+ * through several months doesn't leave a backlog of answers nobody will look at.
+ * </p>
+ * <p>
+ * Any other request ends the run, and view requests are never moved or merged across it, so a view
+ * requested after a change to the cache always sees that change, and one requested before it is
+ * answered before the change is made.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+final class CacheRequestQueue {
+
+	private final LinkedList<CacheRequest> requests = new LinkedList<CacheRequest>();
+	private int merged = 0;
+
+	synchronized void offer(CacheRequest request) {
+		if ( !(request instanceof CoalescingCacheRequest) ) {
+			requests.add(request);
+			return;
+		}
+
+		// Walk back through the run of view requests at the end of the queue, which is newest first
+		CoalescingCacheRequest<?> newest = (CoalescingCacheRequest<?>) request;
+		ListIterator<CacheRequest> it = requests.listIterator(requests.size());
+		while( it.hasPrevious() ) {
+			CacheRequest previous = it.previous();
+			if ( !(previous instanceof CoalescingCacheRequest) ) {
+				it.next();
+				break;
+			}
+			CoalescingCacheRequest<?> older = (CoalescingCacheRequest<?>) previous;
+			if ( newest.canReplace(older) ) {
+				newest.merge(older);
+				it.remove();
+				merged++;
+			}
+		}
+		it.add(newest);
+	}
+
+	/**
+	 * @return The next request to process, or null if there are none.
+	 */
+	synchronized CacheRequest poll() {
+		return requests.poll();
+	}
+
+	synchronized boolean isEmpty() {
+		return requests.isEmpty();
+	}
+
+	/**
+	 * @return The number of requests which have been merged into newer ones so far.
+	 */
+	synchronized int getMergedCount() {
+		return merged;
+	}
+}
@@ -23,6 +23,13 @@ public abstract class CacheRequestWithResponse<E> implements CacheRequest {
 		this.callBack = callBack;
 	}
 	
+	/**
+	 * @return The callback the response will be posted to, which may be null.
+	 */
+	protected CacheResponseListener<E> getCallBack() {
+		return this.callBack;
+	}
+	
 	/**
 	 * Called by child classes to send response to the callback. Sends response on its own Thread so will usually return immediately.
 	 * Beware of Race conditions when sending multiple requests - callbacks may come back in an arbitrary order.
@@ -0,0 +1,98 @@
+package com.morphoss.acal.database.cachemanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * <p>
+ * Parent class of the CacheRequests which fetch data for display, where only the most recent
+ * request from a view matters.  While one of these is waiting on the queue, with only other view
+ * requests queued after it, a newer request from the same callback replaces it, and a request from
+ * another callback which would produce exactly the same response is merged into it so that the
+ * work is only done once.
+ * </p>
+ * <p>
+ * A request whose callbacks are CacheChangedListeners which have all since been removed (because
+ * the view was closed) is dropped without being processed.  Requests with a null callback are
+ * never merged.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ * @param <E> The Type of Object the response will contain.
+ */
+public abstract class CoalescingCacheRequest<E> extends CacheRequestWithResponse<E> {
+
+	//Callbacks from the requests which were merged into this one
+	private final ArrayList<CacheResponseListener<E>> mergedCallBacks = new ArrayList<CacheResponseListener<E>>();
+
+	protected CoalescingCacheRequest(CacheResponseListener<E> callBack) {
+		super(callBack);
+	}
+
+	/**
+	 * Returns true if processing this request would give the same response as processing the
+	 * other, so that the other request's callback can simply be given our response.
+	 * @param other
+	 * @return
+	 */
+	protected abstract boolean answersSameAs(CoalescingCacheRequest<?> other);
+
+	/**
+	 * @param older A request which is still on the queue.
+	 * @return true if this request makes the older one unnecessary, so that it can be merged into this one.
+	 */
+	final boolean canReplace(CoalescingCacheRequest<?> older) {
+		if ( getCallBack() == null || older.getCallBack() == null ) return false;
+		if ( older.getClass() == getClass() && older.getCallBack() == getCallBack() ) return true;
+		return answersSameAs(older);
+	}
+
+	/**
+	 * Takes over the callbacks of an older request which this one replaces.
+	 * @param older
+	 */
+	@SuppressWarnings("unchecked")
+	final void merge(CoalescingCacheRequest<?> older) {
+		// canReplace() only allows requests which will post the same type of response
+		CoalescingCacheRequest<E> same = (CoalescingCacheRequest<E>) older;
+		addCallBack(same.getCallBack());
+		for( CacheResponseListener<E> callBack : same.mergedCallBacks ) addCallBack(callBack);
+	}
+
+	private void addCallBack(CacheResponseListener<E> callBack) {
+		if ( callBack != getCallBack() && !mergedCallBacks.contains(callBack) ) mergedCallBacks.add(callBack);
+	}
+
+	/**
+	 * @param listeners The CacheChangedListeners which are currently registered.
+	 * @return false if every callback is a listener which has since been removed.
+	 */
+	final boolean isWanted(Collection<CacheChangedListener> listeners) {
+		if ( isWanted(getCallBack(), listeners) ) return true;
+		for( CacheResponseListener<E> callBack : mergedCallBacks )
+			if ( isWanted(callBack, listeners) ) return true;
+		return false;
+	}
+
+	private static boolean isWanted(CacheResponseListener<?> callBack, Collection<CacheChangedListener> listeners) {
+		return callBack == null || !(callBack instanceof CacheChangedListener) || listeners.contains(callBack);
+	}
+
+	/**
+	 * Sends the response to our own callback, and to those of any requests merged into this one.
+	 */
+	@Override
+	protected void postResponse(final CacheResponse<E> response) {
+		super.postResponse(response);
+		for( final CacheResponseListener<E> callBack : mergedCallBacks ) {
+			new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					callBack.cacheResponse(response);
+				}
+			}).start();
+		}
+	}
+}
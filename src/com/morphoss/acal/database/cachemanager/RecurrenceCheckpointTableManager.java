@@ -0,0 +1,171 @@
+package com.morphoss.acal.database.cachemanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.morphoss.acal.Constants;
+import com.morphoss.acal.acaltime.AcalRepeatRule.Checkpoint;
+import com.morphoss.acal.database.DMDeleteQuery;
+import com.morphoss.acal.database.DMQueryBuilder;
+import com.morphoss.acal.database.DMQueryList;
+import com.morphoss.acal.database.DataChangeEvent;
+import com.morphoss.acal.database.DatabaseTableManager;
+import com.morphoss.acal.database.DatabaseTableManager.QUERY_ACTION;
+import com.morphoss.acal.dataservice.Resource;
+
+/**
+ * Keeps the recurrence checkpoints which let the CacheManager carry on expanding a repeating
+ * resource from part way through, rather than from DTSTART each time.  Checkpoints are only
+ * good for the etag they were taken from, and are thrown away whenever the resource changes.
+ *
+ * Loading happens on whichever thread is expanding resources, which includes the alarm
+ * rebuild as well as the CacheManager, so there is just the one instance and everything which
+ * touches the database here is synchronized.
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class RecurrenceCheckpointTableManager extends DatabaseTableManager {
+
+	public static final String TAG = "aCal RecurrenceCheckpointTableManager";
+
+	public static final String TABLE = "recurrence_checkpoint";
+	public static final String	FIELD_ID			= "_id";
+	public static final String	FIELD_RESOURCE_ID	= "resource_id";
+	public static final String	FIELD_ETAG			= "etag";
+	public static final String	FIELD_NEXT_EPOCH	= "next_epoch";
+	public static final String	FIELD_CHECKPOINT	= "checkpoint";
+
+	// Keeps the IN (...) list comfortably inside what SQLite will accept in one statement
+	private static final int	MAX_IDS_PER_QUERY	= 500;
+
+	private static RecurrenceCheckpointTableManager instance = null;
+
+	private RecurrenceCheckpointTableManager(Context context) {
+		super(context);
+	}
+
+	public synchronized static RecurrenceCheckpointTableManager getInstance(Context context) {
+		if ( instance == null ) instance = new RecurrenceCheckpointTableManager(context.getApplicationContext());
+		return instance;
+	}
+
+	@Override
+	protected String getTableName() {
+		return TABLE;
+	}
+
+	@Override
+	public void dataChanged(ArrayList<DataChangeEvent> changes) {
+		// Nobody listens for changes to checkpoints.
+	}
+
+	@Override
+	protected String[] getDeleteEventColumns() {
+		return new String[] { FIELD_ID };
+	}
+
+	/**
+	 * Fetches the saved checkpoints for a batch of resources, in order, keyed by resource ID.
+	 * Pending resources are left out, since their etag doesn't describe their new data, as are
+	 * any checkpoints which were taken from a different etag.
+	 * @param resources
+	 * @return
+	 */
+	public synchronized HashMap<Long,List<Checkpoint>> getCheckpoints(List<Resource> resources) {
+		HashMap<Long,String> etags = new HashMap<Long,String>();
+		for( Resource r : resources ) {
+			if ( !r.isPending() && r.getEtag() != null ) etags.put(r.getResourceId(), r.getEtag());
+		}
+
+		HashMap<Long,List<Checkpoint>> result = new HashMap<Long,List<Checkpoint>>();
+		if ( etags.isEmpty() ) return result;
+
+		ArrayList<Long> ids = new ArrayList<Long>(etags.keySet());
+		try {
+			openReadQuerySet();
+			for( int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY ) {
+				StringBuilder whereClause = new StringBuilder(FIELD_RESOURCE_ID).append(" IN (");
+				int to = Math.min(from + MAX_IDS_PER_QUERY, ids.size());
+				for( int i = from; i < to; i++ ) {
+					if ( i > from ) whereClause.append(',');
+					whereClause.append(ids.get(i));
+				}
+				whereClause.append(')');
+
+				for( ContentValues cv : query(null, whereClause.toString(), null, null, null, FIELD_RESOURCE_ID+", "+FIELD_NEXT_EPOCH) ) {
+					long rid = cv.getAsLong(FIELD_RESOURCE_ID);
+					if ( !etags.get(rid).equals(cv.getAsString(FIELD_ETAG)) ) continue;
+					try {
+						Checkpoint checkpoint = Checkpoint.fromString(cv.getAsString(FIELD_CHECKPOINT));
+						List<Checkpoint> forResource = result.get(rid);
+						if ( forResource == null ) {
+							forResource = new ArrayList<Checkpoint>();
+							result.put(rid, forResource);
+						}
+						forResource.add(checkpoint);
+					}
+					catch( IllegalArgumentException e ) {
+						Log.w(TAG, "Ignoring unreadable checkpoint for resource "+rid+": "+e.getMessage());
+					}
+				}
+			}
+		}
+		catch( Exception e ) {
+			Log.e(TAG, "Error fetching recurrence checkpoints: "+Log.getStackTraceString(e));
+		}
+		finally {
+			if ( db != null ) closeReadQuerySet();
+		}
+		if ( CacheManager.DEBUG && Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD, TAG, "Fetched checkpoints for "+result.size()+" of "+etags.size()+" resources.");
+		return result;
+	}
+
+	@Override
+	public synchronized boolean processActions(DMQueryList queryList) {
+		return super.processActions(queryList);
+	}
+
+	/**
+	 * Queues the insert of newly recorded checkpoints for a resource, after removing any which are
+	 * left over from an earlier etag, and any we already have at the same place, since expanding
+	 * the same part of a rule again will record the same checkpoints again.
+	 * @param queries
+	 * @param r
+	 * @param checkpoints
+	 */
+	public static void addSaveActions(DMQueryList queries, Resource r, List<Checkpoint> checkpoints) {
+		if ( checkpoints == null || checkpoints.isEmpty() || r.isPending() || r.getEtag() == null ) return;
+		StringBuilder whereClause = new StringBuilder(FIELD_RESOURCE_ID).append('=').append(r.getResourceId());
+		whereClause.append(" AND (").append(FIELD_ETAG).append(" != ? OR ").append(FIELD_NEXT_EPOCH).append(" IN (");
+		for( int i = 0; i < checkpoints.size(); i++ ) {
+			if ( i > 0 ) whereClause.append(',');
+			whereClause.append(checkpoints.get(i).nextEpoch);
+		}
+		whereClause.append("))");
+		queries.addAction(new DMDeleteQuery(whereClause.toString(), new String[] { r.getEtag() }));
+		for( Checkpoint checkpoint : checkpoints ) {
+			ContentValues cv = new ContentValues();
+			cv.put(FIELD_RESOURCE_ID, r.getResourceId());
+			cv.put(FIELD_ETAG, r.getEtag());
+			cv.put(FIELD_NEXT_EPOCH, checkpoint.nextEpoch);
+			cv.put(FIELD_CHECKPOINT, checkpoint.toString());
+			queries.addAction(new DMQueryBuilder().setAction(QUERY_ACTION.INSERT).setValues(cv).build());
+		}
+	}
+
+	/**
+	 * Queues the removal of all the checkpoints for a resource which has changed or gone.
+	 * @param queries
+	 * @param resourceId
+	 */
+	public static void addDeleteActions(DMQueryList queries, long resourceId) {
+		queries.addAction(new DMDeleteQuery(FIELD_RESOURCE_ID+"="+resourceId, null));
+	}
+}
@@ -1,12 +1,10 @@
 package com.morphoss.acal.database.cachemanager.requests;
 
 import java.util.ArrayList;
-import java.util.TimeZone;
-
-import android.content.ContentValues;
 
 import com.morphoss.acal.acaltime.AcalDateTime;
 import com.morphoss.acal.database.cachemanager.BlockingCacheRequestWithResponse;
+import com.morphoss.acal.database.cachemanager.CacheManager;
 import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
 import com.morphoss.acal.database.cachemanager.CacheObject;
 import com.morphoss.acal.database.cachemanager.CacheProcessingException;
@@ -33,34 +31,13 @@ public class CRGetNextNObjects extends BlockingCacheRequestWithResponse<ArrayLis
 		AcalDateTime start = new AcalDateTime().applyLocalTimeZone();
 		AcalDateTime end = start.clone().addDays(7).applyLocalTimeZone();
 		
-		String dtStart = start.getMillis()+"";
-		String dtEnd = end.getMillis()+"";
-		String offset = TimeZone.getDefault().getOffset(start.getMillis())+"";
-		
-		
-		ArrayList<ContentValues> data = processor.query(null, 
-				"( " + 
-					"( "+CacheTableManager.FIELD_DTEND+" > ? AND NOT "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-						" OR "+
-						"( "+CacheTableManager.FIELD_DTEND+" + ? > ? AND "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTEND+" ISNULL )"+
-				" ) AND ( "+
-					"( "+CacheTableManager.FIELD_DTSTART+" < ? AND NOT "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTSTART+" + ? < ? AND "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTSTART+" ISNULL )"+
-				")" +
-					( cacheObjectType == null ? "" : " AND "+CacheTableManager.FIELD_RESOURCE_TYPE+"='"+cacheObjectType+"'"),
-				new String[] {dtStart , offset, dtStart, dtEnd, offset, dtEnd}, null, null,
-				CacheTableManager.FIELD_DTSTART+" + CASE WHEN "+CacheTableManager.FIELD_DTSTART_FLOAT+" THEN "+offset+" ELSE 0 END ASC " +
-						"LIMIT "+this.numObjects);
+		String[] whereArgs = CacheManager.getRangeWhereArgs(cacheObjectType, start.getMillis(), end.getMillis());
 		
-		ArrayList<CacheObject> res = new ArrayList<CacheObject>();
-		for (ContentValues obj : data) res.add(CacheObject.fromContentValues(obj));
+		CacheObject.ListCollector res = new CacheObject.ListCollector();
+		processor.query(null, CacheManager.getRangeWhereClause(cacheObjectType), whereArgs, null, null,
+				CacheTableManager.FIELD_UTC_START+" ASC LIMIT "+this.numObjects, res);
 		
-		this.postResponse(new CRGetNextNObjectsResponse(res));
+		this.postResponse(new CRGetNextNObjectsResponse(res.result));
 	}
 
 	
@@ -2,7 +2,6 @@ package com.morphoss.acal.database.cachemanager.requests;
 
 import java.util.ArrayList;
 
-import android.content.ContentValues;
 import android.util.Log;
 
 import com.morphoss.acal.Constants;
@@ -58,13 +57,11 @@ public class CRJournalsByType extends CacheRequestWithResponse<ArrayList<CacheOb
 
 		if ( Constants.LOG_DEBUG ) Log.println(Constants.LOGD, TAG, "Fetching journals WHERE "+whereClause);
 		
-		ArrayList<ContentValues> data = processor.query(null, whereClause, whereArgs, null,null,
-				CacheTableManager.FIELD_DTEND+" ASC, "+CacheTableManager.FIELD_DTSTART+" ASC ");
+		CacheObject.ListCollector journals = new CacheObject.ListCollector();
+		processor.query(null, whereClause, whereArgs, null,null,
+				CacheTableManager.FIELD_UTC_END+" ASC, "+CacheTableManager.FIELD_UTC_START+" ASC ", journals);
 		
-		for (ContentValues cv : data) 
-				result.add(CacheObject.fromContentValues(cv));
-		
-		this.postResponse(new CRJournalsByTypeResponse<ArrayList<CacheObject>>(result));
+		this.postResponse(new CRJournalsByTypeResponse<ArrayList<CacheObject>>(journals.result));
 	}
 
 	/**
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.TimeZone;
 
-import android.content.ContentValues;
 import android.util.Log;
 
 import com.morphoss.acal.Constants;
@@ -14,7 +13,7 @@ import com.morphoss.acal.database.cachemanager.CacheManager;
 import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
 import com.morphoss.acal.database.cachemanager.CacheObject;
 import com.morphoss.acal.database.cachemanager.CacheProcessingException;
-import com.morphoss.acal.database.cachemanager.CacheRequestWithResponse;
+import com.morphoss.acal.database.cachemanager.CoalescingCacheRequest;
 import com.morphoss.acal.database.cachemanager.CacheResponse;
 import com.morphoss.acal.database.cachemanager.CacheResponseListener;
 
@@ -28,7 +27,7 @@ import com.morphoss.acal.database.cachemanager.CacheResponseListener;
  * @author Chris Noldus
  *
  */
-public class CRObjectsInMonthByDay extends CacheRequestWithResponse<HashMap<Short,ArrayList<CacheObject>>> {
+public class CRObjectsInMonthByDay extends CoalescingCacheRequest<HashMap<Short,ArrayList<CacheObject>>> {
 
 	private int month;
 	private int year;
@@ -69,6 +68,17 @@ public class CRObjectsInMonthByDay extends CacheRequestWithResponse<HashMap<Shor
 		return result;
 	}
 	
+	/**
+	 * Any request for the same month and type of object gets the same response.
+	 */
+	@Override
+	protected boolean answersSameAs(CoalescingCacheRequest<?> other) {
+		if ( !(other instanceof CRObjectsInMonthByDay) ) return false;
+		CRObjectsInMonthByDay o = (CRObjectsInMonthByDay) other;
+		return o.month == month && o.year == year
+				&& (objectType == null ? o.objectType == null : objectType.equals(o.objectType));
+	}
+
 	@Override
 	public void process(CacheTableManager processor) throws CacheProcessingException {
 		pstart = System.currentTimeMillis();
@@ -86,12 +96,11 @@ public class CRObjectsInMonthByDay extends CacheRequestWithResponse<HashMap<Shor
 		}
 		
 		qstart  = System.currentTimeMillis();
-		ArrayList<ContentValues> data = processor.queryInRange(range,objectType);
+		ArrayList<CacheObject> data = processor.getObjectsInRange(range,objectType);
 		qend  = System.currentTimeMillis();
 		int daysInMonth = start.getActualMaximum(AcalDateTime.DAY_OF_MONTH);
-		for (ContentValues value : data ) {
+		for (CacheObject co : data ) {
 			try {
-				CacheObject co = CacheObject.fromContentValues(value);
 				start = co.getStartDateTime();
 				end = co.getEndDateTime();
 				if ( start == null ) start = end;
@@ -2,8 +2,6 @@ package com.morphoss.acal.database.cachemanager.requests;
 
 import java.util.ArrayList;
 
-import android.content.ContentValues;
-
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
 import com.morphoss.acal.database.cachemanager.CacheObject;
@@ -56,9 +54,7 @@ public class CRObjectsInRange extends CacheRequestWithResponse<ArrayList<CacheOb
 			return;
 		}
 
-		ArrayList<ContentValues> data = processor.queryInRange(range,objectType);
-		for (ContentValues cv : data) 
-				result.add(CacheObject.fromContentValues(cv));
+		result.addAll(processor.getObjectsInRange(range,objectType));
 		
 		this.postResponse(new CRObjectsInRangeResponse<ArrayList<CacheObject>>(result));
 	}
@@ -1,19 +1,16 @@
 package com.morphoss.acal.database.cachemanager.requests;
 
 import java.util.ArrayList;
-import java.util.TimeZone;
-
-import android.content.ContentValues;
 
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
 import com.morphoss.acal.database.cachemanager.CacheObject;
 import com.morphoss.acal.database.cachemanager.CacheProcessingException;
-import com.morphoss.acal.database.cachemanager.CacheRequestWithResponse;
 import com.morphoss.acal.database.cachemanager.CacheResponse;
+import com.morphoss.acal.database.cachemanager.CoalescingCacheRequest;
 import com.morphoss.acal.weekview.WeekViewCache;
 
-public class CRObjectsInWindow  extends CacheRequestWithResponse<ArrayList<CacheObject>> {
+public class CRObjectsInWindow  extends CoalescingCacheRequest<ArrayList<CacheObject>> {
 
 	private WeekViewCache caller;
 	
@@ -27,6 +24,15 @@ public class CRObjectsInWindow  extends CacheRequestWithResponse<ArrayList<Cache
 		this.caller = caller;
 	}
 	
+	/**
+	 * The range comes from the caller's window when we are processed, so only a request from the
+	 * same caller would get the same response, and those are replaced anyway.
+	 */
+	@Override
+	protected boolean answersSameAs(CoalescingCacheRequest<?> other) {
+		return false;
+	}
+
 	@Override
 	public void process(CacheTableManager processor)  throws CacheProcessingException{
 		final ArrayList<CacheObject> result = new ArrayList<CacheObject>();
@@ -45,30 +51,7 @@ public class CRObjectsInWindow  extends CacheRequestWithResponse<ArrayList<Cache
 			return;
 		}
 
-		String dtStart = range.start.getMillis()+"";
-		String dtEnd = range.end.getMillis()+"";
-		String offset = TimeZone.getDefault().getOffset(range.start.getMillis())+"";
-		
-		
-		ArrayList<ContentValues> data = processor.query(null, 
-				"( " + 
-					"( "+CacheTableManager.FIELD_DTEND+" > ? AND NOT "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-						" OR "+
-						"( "+CacheTableManager.FIELD_DTEND+" + ? > ? AND "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTEND+" ISNULL )"+
-				" ) AND ( "+
-					"( "+CacheTableManager.FIELD_DTSTART+" < ? AND NOT "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTSTART+" + ? < ? AND "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTSTART+" ISNULL )"+
-				")",
-				new String[] {dtStart , offset, dtStart, dtEnd, offset, dtEnd},
-				null,null,CacheTableManager.FIELD_DTSTART+" ASC");
-		
-		for (ContentValues cv : data) 
-				result.add(CacheObject.fromContentValues(cv));
+		result.addAll(processor.getObjectsInRange(range, null));
 		caller.getWindow().expandWindow(range);
 		this.postResponse(new CRObjectsInWindowResponse<ArrayList<CacheObject>>(result,range));
 	}
@@ -1,6 +1,5 @@
 package com.morphoss.acal.database.cachemanager.requests;
 
-import java.util.TimeZone;
 
 import android.util.Log;
 
@@ -25,26 +24,7 @@ public class CRReduceRangeSize implements CacheRequest {
 	public void process(CacheTableManager processor) throws CacheProcessingException {
 		if ( CacheManager.DEBUG && Constants.LOG_DEBUG ) Log.println(Constants.LOGD, TAG, "Reducing cache size and notifying window");
 		processor.setWindowOnlyTrue();
-		String dtStart = range.start.getMillis()+"";
-		String dtEnd = range.end.getMillis()+"";
-		String offset = TimeZone.getDefault().getOffset(range.start.getMillis())+"";
-		
-		
-		processor.delete( 
-				"( " + 
-					"( "+CacheTableManager.FIELD_DTEND+" > ? AND NOT "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-						" OR "+
-						"( "+CacheTableManager.FIELD_DTEND+" + ? > ? AND "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTEND+" ISNULL )"+
-				" ) AND ( "+
-					"( "+CacheTableManager.FIELD_DTSTART+" < ? AND NOT "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTSTART+" + ? < ? AND "+CacheTableManager.FIELD_DTSTART_FLOAT+" )"+
-						" OR "+
-					"( "+CacheTableManager.FIELD_DTSTART+" ISNULL )"+
-				")",
-				new String[] {dtStart , offset, dtStart, dtEnd, offset, dtEnd});
+		processor.deleteRange(range);
 		
 		processor.removeRangeFromWindow(range);
 		if ( CacheManager.DEBUG && Constants.LOG_DEBUG ) Log.println(Constants.LOGD, TAG,"Done");
@@ -0,0 +1,30 @@
+package com.morphoss.acal.database.cachemanager.requests;
+
+import android.util.Log;
+
+import com.morphoss.acal.Constants;
+import com.morphoss.acal.database.DMQueryList;
+import com.morphoss.acal.database.cachemanager.CacheManager;
+import com.morphoss.acal.database.cachemanager.CacheProcessingException;
+import com.morphoss.acal.database.cachemanager.CacheRequest;
+import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
+
+/**
+ * Saves (and/or removes) recurrence checkpoints in the recurrence_checkpoint table.
+ */
+public class CRSaveRecurrenceCheckpoints implements CacheRequest {
+
+	private DMQueryList queries;
+	public static final String TAG = "aCal CRSaveRecurrenceCheckpoints";
+	
+	public CRSaveRecurrenceCheckpoints(DMQueryList queries) {
+		this.queries = queries;
+	}
+	
+	@Override
+	public void process(CacheTableManager processor) throws CacheProcessingException {
+		if ( CacheManager.DEBUG ) Log.println(Constants.LOGD, TAG, "Processing "+queries.size()+" checkpoint queries");
+		processor.saveRecurrenceCheckpoints(queries);
+	}
+
+}
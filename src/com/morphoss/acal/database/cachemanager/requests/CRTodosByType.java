@@ -1,9 +1,7 @@
 package com.morphoss.acal.database.cachemanager.requests;
 
 import java.util.ArrayList;
-import java.util.TimeZone;
 
-import android.content.ContentValues;
 import android.util.Log;
 
 import com.morphoss.acal.Constants;
@@ -56,9 +54,6 @@ public class CRTodosByType extends CacheRequestWithResponse<ArrayList<CacheObjec
 			return;
 		}
 
-		String dtEnd = rangeEnd.getMillis()+"";
-		String offset = TimeZone.getDefault().getOffset(range.start.getMillis())+"";
-
 		String whereClause = CacheTableManager.FIELD_RESOURCE_TYPE +"= '"+CacheTableManager.RESOURCE_TYPE_VTODO+"'";
 		
 		if ( !includeCompleted )
@@ -67,22 +62,17 @@ public class CRTodosByType extends CacheRequestWithResponse<ArrayList<CacheObjec
 		String[] whereArgs = null;
 		if ( !includeFuture ) {
 			whereClause +=
-				" AND ( "+CacheTableManager.FIELD_DTEND+" = "+Long.MAX_VALUE + " OR " +
-					"( "+CacheTableManager.FIELD_DTEND+" < ? AND NOT "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+ " OR "+
-					"( "+CacheTableManager.FIELD_DTEND+" + ? < ? AND "+CacheTableManager.FIELD_DTEND_FLOAT+" )"+
-				")";
-			whereArgs = new String[] { dtEnd, offset, dtEnd }; 
+				" AND ( "+CacheTableManager.FIELD_UTC_END+" < ? OR "+CacheTableManager.FIELD_UTC_END+" = "+Long.MAX_VALUE+" )";
+			whereArgs = new String[] { rangeEnd.getMillis()+"" }; 
 		}
 
 		if ( Constants.LOG_DEBUG ) Log.println(Constants.LOGD, TAG, "Fetching todos WHERE "+whereClause);
 		
-		ArrayList<ContentValues> data = processor.query(null, whereClause, whereArgs, null,null,
-				CacheTableManager.FIELD_DTEND+" ASC, "+CacheTableManager.FIELD_DTSTART+" ASC ");
-		
-		for (ContentValues cv : data) 
-				result.add(CacheObject.fromContentValues(cv));
+		CacheObject.ListCollector todos = new CacheObject.ListCollector();
+		processor.query(null, whereClause, whereArgs, null,null,
+				CacheTableManager.FIELD_UTC_END+" ASC, "+CacheTableManager.FIELD_UTC_START+" ASC ", todos);
 		
-		this.postResponse(new CRTodosByTypeResponse<ArrayList<CacheObject>>(result));
+		this.postResponse(new CRTodosByTypeResponse<ArrayList<CacheObject>>(todos.result));
 	}
 
 	/**
@@ -1,12 +1,14 @@
 package com.morphoss.acal.database.resourcesmanager;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.PriorityBlockingQueue;
 
-import android.content.ContentQueryMap;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -18,6 +20,7 @@ import android.util.Log;
 
 import com.morphoss.acal.Constants;
 import com.morphoss.acal.acaltime.AcalDateRange;
+import com.morphoss.acal.database.BlockingRequestWaiter;
 import com.morphoss.acal.database.DMAction;
 import com.morphoss.acal.database.DMDeleteQuery;
 import com.morphoss.acal.database.DMInsertQuery;
@@ -26,6 +29,7 @@ import com.morphoss.acal.database.DMQueryList;
 import com.morphoss.acal.database.DMUpdateQuery;
 import com.morphoss.acal.database.DataChangeEvent;
 import com.morphoss.acal.database.DatabaseTableManager;
+import com.morphoss.acal.database.DatabaseTableManager.RowVisitor;
 import com.morphoss.acal.database.cachemanager.CacheManager;
 import com.morphoss.acal.database.resourcesmanager.requesttypes.BlockingResourceRequest;
 import com.morphoss.acal.database.resourcesmanager.requesttypes.BlockingResourceRequestWithResponse;
@@ -48,8 +52,6 @@ public class ResourceManager implements Runnable {
 	@SuppressWarnings("unused")
 	public static boolean DEBUG = false && Constants.DEBUG_MODE;
 
-	private volatile int numReadsProcessing = 0;
-
 	// Get an instance
 	public synchronized static ResourceManager getInstance(Context context) {
 		if (instance == null)
@@ -85,9 +87,15 @@ public class ResourceManager implements Runnable {
 	// ThreadManagement
 	private ConditionVariable threadHolder = new ConditionVariable();
 	private Thread workerThread;
-	private boolean running = true;
+	private volatile boolean running = true;
 	private final ConcurrentLinkedQueue<ResourceRequest> writeQueue = new ConcurrentLinkedQueue<ResourceRequest>();
 	private final PriorityBlockingQueue<ReadOnlyResourceRequest> readQueue = new PriorityBlockingQueue<ReadOnlyResourceRequest>();
+	private final BlockingRequestWaiter blockingRequests = new BlockingRequestWaiter(TAG);
+	private static final long SLOW_BLOCKING_REQUEST_WAIT = 20000;
+
+	// Read requests are shared between this many threads
+	private static final int READ_WORKERS = 3;
+	private final Thread[] readWorkers = new Thread[READ_WORKERS];
 
 	/**
 	 * IMPORTANT INVARIANT:
@@ -102,6 +110,10 @@ public class ResourceManager implements Runnable {
 		threadHolder.close();
 		workerThread = new Thread(this);
 		workerThread.start();
+		for( int i = 0; i < READ_WORKERS; i++ ) {
+			readWorkers[i] = new Thread(new ReadWorker());
+			readWorkers[i].start();
+		}
 	}
 
 	public void addListener(ResourceChangedListener ccl) {
@@ -123,77 +135,91 @@ public class ResourceManager implements Runnable {
 			// do stuff
 			if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Thread Opened...");
 
-			while ( !readQueue.isEmpty() || !writeQueue.isEmpty() ){
+			//process writes
+			if ( !writeQueue.isEmpty() ) {
+				CacheManager.setResourceInTx(context, true);
+				while (!writeQueue.isEmpty()) {
+					if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,writeQueue.size()+" items in write queue.");
+					final ResourceRequest request = writeQueue.poll();
+					if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Processing Write Request: "+request.getClass());
+					try {
+						getRPInstance().process(request);
+					} catch (Exception e) {
+						Log.e(TAG, "Error processing write request: "+Log.getStackTraceString(e));
+					} finally {
+						blockingRequests.completed(request);
+					}
+				}
+				CacheManager.setResourceInTx(context, false);
+			}
+			// do stuff
+			if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Finished processing, closing & blocking.");
 
-				//process reads first
-				if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,readQueue.size()+" items in read queue, "+writeQueue.size()+" items in write queue");
+			// Wait till next time
+			threadHolder.close();
+			threadHolder.block();
+		}
 
-				if (!readQueue.isEmpty()) {
-					//Tell the processor that we are about to send a bunch of reads.
-					Log.i(TAG, "Begin a set of read queries.");
-					getRPInstance().openReadQuerySet();
-					
-					//Start all read processes
-					while (!readQueue.isEmpty()) {
-						if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,readQueue.size()+" items in read queue.");
-						final ReadOnlyResourceRequest request = readQueue.poll();
-						if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Processing Read Request: "+request.getClass());
-						this.numReadsProcessing++;
-						try {
-							new Thread(new Runnable() {
-								public void run() {
-									try {
-										getRPInstance().processRead(request);
-									} catch (Exception e) {
-										Log.e(TAG, "Error processing read request: "+Log.getStackTraceString(e));
-									}
-								}
-							}).start();
-						} catch (Exception e) {
-							Log.e(TAG, "Error processing read request: "+Log.getStackTraceString(e));
-						}
-					}
+	}
 
-					//Wait until all processes have finished
-					while (this.numReadsProcessing > 0) {
-						try { Thread.sleep(10);	} catch (Exception e) {	}
-					}
 
-					//tell processor that we are done
-					Log.i(TAG, "End the set of read queries.");
-					getRPInstance().closeReadQuerySet();
-					
+	/**
+	 * <p>
+	 * Takes read requests from the readQueue, highest priority first, and processes them with a
+	 * ResourceTableManager of its own.  While requests keep arriving the worker holds its read
+	 * query set open, so a burst of reads only opens the database once per worker.
+	 * </p>
+	 * <p>
+	 * With the database in write-ahead logging mode each worker's queries get a connection of
+	 * their own, so the reads don't wait for each other, and they don't wait for the write queue
+	 * either.
+	 * </p>
+	 */
+	private final class ReadWorker implements Runnable {
+		private final ResourceTableManager processor = new ResourceTableManager();
 
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND );
+			while (running) {
+				ReadOnlyResourceRequest request;
+				try {
+					request = readQueue.take();
 				}
-				else {
-					//process writes
-					CacheManager.setResourceInTx(context, true);
-					while (!writeQueue.isEmpty()) {
-						if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,writeQueue.size()+" items in write queue.");
-						final ResourceRequest request = writeQueue.poll();
-						if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Processing Write Request: "+request.getClass());
+				catch ( InterruptedException e ) {
+					continue;
+				}
+
+				if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Begin a set of read queries.");
+				boolean opened = false;
+				try {
+					do {
+						if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Processing Read Request: "+request.getClass());
 						try {
-							getRPInstance().process(request);
+							if ( !opened ) {
+								processor.openReadQuerySet();
+								opened = true;
+							}
+							processor.processRead(request);
 						} catch (Exception e) {
-							Log.e(TAG, "Error processing write request: "+Log.getStackTraceString(e));
+							Log.e(TAG, "Error processing read request: "+Log.getStackTraceString(e));
+						} finally {
+							blockingRequests.completed(request);
 						}
-					}
-					CacheManager.setResourceInTx(context, false);
+					} while( running && (request = readQueue.poll()) != null );
+				}
+				finally {
+					if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"End the set of read queries.");
+					if ( opened ) processor.closeReadQuerySet();
 				}
 			}
-			// do stuff
-			if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Finished processing, closing & blocking.");
-
-			// Wait till next time
-			threadHolder.close();
-			threadHolder.block();
 		}
-
 	}
 
 	/**
 	 * Ensures that this classes closes properly. MUST be called before it is
-	 * terminated
+	 * terminated.  Requests still queued once the threads have stopped are abandoned, so that
+	 * anything waiting for one of them fails instead of waiting forever.
 	 */
 	public synchronized void close() {
 		this.running = false;
@@ -206,9 +232,30 @@ public class ResourceManager implements Runnable {
 			} catch (Exception e) {
 			}
 		}
+		for( Thread reader : readWorkers ) {
+			reader.interrupt();
+			try {
+				reader.join();
+			} catch (InterruptedException e) {
+			}
+		}
+		abandonQueuedRequests();
+		if ( ResourceManager.DEBUG && Constants.LOG_DEBUG ) blockingRequests.logLatencies();
 		instance = null;
 	}
 
+	/**
+	 * Empties both queues, releasing anything waiting for the requests on them.  The senders check
+	 * running after they queue a request and call this too, so a request queued while we are
+	 * closing can't be missed.
+	 */
+	private void abandonQueuedRequests() {
+		ResourceRequest write;
+		while( (write = writeQueue.poll()) != null ) blockingRequests.abandoned(write);
+		ReadOnlyResourceRequest read;
+		while( (read = readQueue.poll()) != null ) blockingRequests.abandoned(read);
+	}
+
 	// Request handlers
 	public void sendRequest(ResourceRequest request) {
 		if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,
@@ -217,26 +264,48 @@ public class ResourceManager implements Runnable {
 		threadHolder.open();
 	}
 
-	private void offerAndBlockUntilProcessed(BlockingResourceRequest request) {
+	/**
+	 * Waits for the worker thread to finish with a request which was passed to
+	 * blockingRequests.expect() before it was queued.  Some requests talk to the server while
+	 * they are processed, so we wait for as long as it takes, but complain if it is a while.
+	 * @throws IllegalStateException if this thread is interrupted first, with the interrupt left set,
+	 * or if we have been closed and the request will never be processed.
+	 */
+	private void waitUntilProcessed(Object request) {
 		threadHolder.open();
-		int priority = Process.getThreadPriority(Process.myTid());
-		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-		while (!request.isProcessed()) {
-			try { Thread.sleep(10); } catch (Exception e) {	}
+		waitForRead(request);
+	}
+
+	/**
+	 * As waitUntilProcessed(), but without waking the write thread, which the read workers don't need.
+	 */
+	private void waitForRead(Object request) {
+		if ( !running ) abandonQueuedRequests();
+		long waited = 0;
+		try {
+			while ( !blockingRequests.await(request, SLOW_BLOCKING_REQUEST_WAIT) ) {
+				waited += SLOW_BLOCKING_REQUEST_WAIT;
+				Log.w(TAG, "Still waiting for "+request.getClass().getSimpleName()+" after "+waited/1000+"s");
+			}
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for "+request.getClass().getSimpleName());
 		}
-		Process.setThreadPriority(priority);
 	}
 	
 	public void sendBlockingRequest(BlockingResourceRequest request) {
 		if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG, "Received Write Request: "+request.getClass());
+		blockingRequests.expect(request);
 		writeQueue.offer(request);
-		offerAndBlockUntilProcessed(request);
+		waitUntilProcessed(request);
 	}
 
 	public <E> ResourceResponse<E> sendBlockingRequest(BlockingResourceRequestWithResponse<E> request) {
 		if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG, "Received Blocking Request: "+request.getClass());
+		blockingRequests.expect(request);
 		writeQueue.offer(request);
-		offerAndBlockUntilProcessed(request);
+		waitUntilProcessed(request);
 		return request.getResponse();
 	}
 
@@ -244,19 +313,13 @@ public class ResourceManager implements Runnable {
 	public void sendRequest(ReadOnlyResourceRequest request) {
 		if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG, "Received Read Request: "+request.getClass());
 		readQueue.offer(request);
-		threadHolder.open();
 	}
 
 	public <E> ResourceResponse<E> sendBlockingRequest(ReadOnlyBlockingRequestWithResponse<E> request) {
 		if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG, "Received Blocking Read Request: "+request.getClass());
+		blockingRequests.expect(request);
 		readQueue.offer(request);
-		threadHolder.open();
-		int priority = Process.getThreadPriority(Process.myTid());
-		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-		while (!request.isProcessed()) {
-			try { Thread.sleep(10); } catch (Exception e) {	}
-		}
-		Process.setThreadPriority(priority);
+		waitForRead(request);
 		return request.getResponse();
 	}
 
@@ -289,11 +352,14 @@ public class ResourceManager implements Runnable {
 		
 		public ArrayList<ContentValues> query(String[] columns, String selection, String[] selectionArgs,
 				String groupBy, String having, String orderBy);
+		public int query(String[] columns, String selection, String[] selectionArgs,
+				String groupBy, String having, String orderBy, RowVisitor visitor);
 
 		public Map<String, ContentValues> contentQueryMap(String selection, String[] selectionArgs);
 		
 		public ContentValues getResource(long rid);
 		public ContentValues getResourceInCollection(long collectionId,	String name);
+		public Map<String, ContentValues> getResourcesInCollection(long collectionId, Collection<String> names);
 		public ArrayList<ContentValues> getPendingResources();
 		public Context getContext();
 		
@@ -343,6 +409,16 @@ public class ResourceManager implements Runnable {
 
 		public static final String TAG = "aCal ResourceTableManager";
 
+		/**
+		 * Listeners to a deleted resource only need to know which one it was, not its data.
+		 */
+		private final String[] deleteEventColumns = new String[] { RESOURCE_ID, COLLECTION_ID, RESOURCE_NAME, ETAG,
+				LAST_MODIFIED, CONTENT_TYPE, NEEDS_SYNC, EARLIEST_START, LATEST_END, EFFECTIVE_TYPE };
+
+
+		// Keeps the bound arguments for an IN (...) list well inside SQLite's limit of 999
+		private static final int MAX_NAMES_PER_QUERY = 500;
+
 
 		private ResourceTableManager() {
 			super(ResourceManager.this.context);
@@ -360,8 +436,6 @@ public class ResourceManager implements Runnable {
 				Log.e(TAG,
 						"INVALID TERMINATION while processing Resource Request: "
 						+ Log.getStackTraceString(e));
-			} finally {
-				numReadsProcessing--;
 			}
 		}
 
@@ -370,6 +444,11 @@ public class ResourceManager implements Runnable {
 			return RESOURCE_DATABASE_TABLE;
 		}
 
+		@Override
+		protected String[] getDeleteEventColumns() {
+			return deleteEventColumns;
+		}
+
 		public void process(ResourceRequest r) {
 			if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Begin Processing");
 			try {
@@ -451,6 +530,17 @@ public class ResourceManager implements Runnable {
 			return super.insert(nullColumnHack, preProcessValues(values));
 		}
 
+		/**
+		 * This override is important to ensure earliest start and latest end are always set
+		 */
+		@Override
+		public int insertBatch(String nullColumnHack, List<ContentValues> rows) {
+			if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG, "Resource Batch Insert Begin");
+			ArrayList<ContentValues> processed = new ArrayList<ContentValues>(rows.size());
+			for (ContentValues values : rows) processed.add(preProcessValues(values));
+			return super.insertBatch(nullColumnHack, processed);
+		}
+
 		/**
 		 * This override is important to ensure earliest start and latest end are always set
 		 */
@@ -476,32 +566,82 @@ public class ResourceManager implements Runnable {
 		}
 
 		/**
-		 * Provides a content query map for legacy classes.
+		 * Fetches the dav_resource rows for a set of resource names within one collection, as
+		 * getResourceInCollection() would for each of them, but with one query for every
+		 * MAX_NAMES_PER_QUERY names.
+		 * 
+		 * @param collectionId
+		 * @param names Any nulls among these are ignored.
+		 * @return A map from resource name to dav_resource row.  Names we don't have are not in it.
+		 */
+		public Map<String, ContentValues> getResourcesInCollection(long collectionId, Collection<String> names) {
+			final Map<String, ContentValues> result = new HashMap<String, ContentValues>();
+			RowVisitor collector = new RowVisitor() {
+				private int nameColumn;
+
+				@Override
+				protected void prepare(Cursor c) {
+					nameColumn = c.getColumnIndexOrThrow(RESOURCE_NAME);
+				}
+
+				@Override
+				protected boolean visit(Cursor c) {
+					ContentValues row = new ContentValues();
+					DatabaseUtils.cursorRowToContentValues(c, row);
+					result.put(c.getString(nameColumn), row);
+					return true;
+				}
+			};
+
+			ArrayList<String> args = new ArrayList<String>(MAX_NAMES_PER_QUERY + 1);
+			StringBuilder inList = new StringBuilder();
+			for( String name : names ) {
+				// A null can't be bound as an argument, and wouldn't match anything with IN anyway
+				if ( name == null ) continue;
+				if ( args.isEmpty() ) args.add(Long.toString(collectionId));
+				else inList.append(',');
+				inList.append('?');
+				args.add(name);
+				if ( args.size() > MAX_NAMES_PER_QUERY ) {
+					this.query(null, COLLECTION_ID+"=? AND "+RESOURCE_NAME+" IN ("+inList+")",
+							args.toArray(new String[args.size()]), null, null, null, collector);
+					args.clear();
+					inList.setLength(0);
+				}
+			}
+			if ( !args.isEmpty() )
+				this.query(null, COLLECTION_ID+"=? AND "+RESOURCE_NAME+" IN ("+inList+")",
+						args.toArray(new String[args.size()]), null, null, null, collector);
+
+			return result;
+		}
+
+		/**
+		 * Provides a content query map for legacy classes.  The rows are read from the cursor once,
+		 * straight into the map, rather than through a ContentQueryMap which reads them twice.
 		 * 
 		 * @Deprecated
 		 */
 		@Deprecated
 		public Map<String, ContentValues> contentQueryMap(String selection, String[] selectionArgs) {
-			Map<String, ContentValues> result = null;
+			final Map<String, ContentValues> result = new HashMap<String, ContentValues>();
 
-			boolean openedInternally = doWeNeedADatabase(OPEN_READ);
+			this.query(null, selection, selectionArgs, null, null, null, new RowVisitor() {
+				private int nameColumn;
 
-			Cursor mCursor = db.query( RESOURCE_DATABASE_TABLE, null, selection, selectionArgs, null, null, null);
-			try {
-				ContentQueryMap cqm = new ContentQueryMap(mCursor, ResourceTableManager.RESOURCE_NAME, false, null);
-				this.yield();
-				cqm.requery();
-				this.yield();
-				result = cqm.getRows();
-				this.yield();
-			}
-			catch( Exception e ) {
-				Log.i(TAG,Log.getStackTraceString(e));
-			}
-			finally {
-				if ( mCursor != null && !mCursor.isClosed() ) mCursor.close();
-				if ( openedInternally ) closeDB();
-			}
+				@Override
+				protected void prepare(Cursor c) {
+					nameColumn = c.getColumnIndexOrThrow(RESOURCE_NAME);
+				}
+
+				@Override
+				protected boolean visit(Cursor c) {
+					ContentValues row = new ContentValues();
+					DatabaseUtils.cursorRowToContentValues(c, row);
+					result.put(c.getString(nameColumn), row);
+					return true;
+				}
+			});
 			return result;
 		}
 	
@@ -2,15 +2,16 @@ package com.morphoss.acal.database.resourcesmanager.requests;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map.Entry;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.util.Log;
 
 import com.morphoss.acal.Constants;
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.database.CacheWindow;
+import com.morphoss.acal.database.DatabaseTableManager.RowVisitor;
 import com.morphoss.acal.database.cachemanager.CacheManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager.ReadOnlyResourceTableManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager.ResourceTableManager;
@@ -58,40 +59,49 @@ public class RRGetCacheEventsInRange extends ReadOnlyResourceRequestWithResponse
 
 		if ( CacheManager.DEBUG ) Log.println(Constants.LOGD,TAG,"Getting Resource rows where:\n"+whereClause);
 
-		//step 2 query db for resources in range
-		ArrayList<ContentValues> rValues = processor.query(null,whereClause,null,null,null,null);
-		
-		//also need pendings
+		//step 2 get the pendings, which replace any resource row with the same id
 		ArrayList<ContentValues> pValues = processor.getPendingResources();
-		HashMap<Long,ContentValues> pendingMap = new HashMap<Long, ContentValues>();
-		
-		if (!pValues.isEmpty()) {
-			//we need to remove from rValues, any values that have a corresponding entry in pValues
-			for (ContentValues cv : pValues) {
-				pendingMap.put(cv.getAsLong(ResourceTableManager.PEND_RESOURCE_ID),cv);	
+		final HashMap<Long,ContentValues> pendingMap = new HashMap<Long, ContentValues>();
+		for (ContentValues cv : pValues) {
+			pendingMap.put(cv.getAsLong(ResourceTableManager.PEND_RESOURCE_ID),cv);	
+		}
+
+		//step 3 query db for resources in range, building Resources straight from the cursor
+		final ArrayList<Resource> fromTable = new ArrayList<Resource>();
+		int rowCount = processor.query(null,whereClause,null,null,null,null, new RowVisitor() {
+			private Resource.RowReader reader;
+			private int ridColumn;
+
+			@Override
+			protected void prepare(Cursor c) {
+				reader = new Resource.RowReader(c);
+				ridColumn = c.getColumnIndex(ResourceTableManager.RESOURCE_ID);
 			}
-			Iterator<ContentValues> it = rValues.iterator();
-			while(it.hasNext()) {
-				ContentValues rValue = it.next();
-				long rid = rValue.getAsLong(ResourceTableManager.RESOURCE_ID);
-				if (pendingMap.containsKey(rid)) {
-					ContentValues pValue = pendingMap.get(rid);
-					it.remove();
+
+			@Override
+			protected boolean visit(Cursor c) {
+				long rid = c.getLong(ridColumn);
+				ContentValues pValue = pendingMap.get(rid);
+				if (pValue == null) {
+					fromTable.add(reader.read(c));
+				}
+				else {
 					String data = pValue.getAsString(ResourceTableManager.NEW_DATA);
 					if (data == null || data.equals("")) pendingMap.remove(rid);
 				}
+				return true;
 			}
-		}
+		});
 		
 		//Merge the lists
-		if ( CacheManager.DEBUG ) Log.println(Constants.LOGD,TAG,rValues.size()+" Resource Rows retreived. and "+pValues.size()+" pending values. Converting into Resource Objects");
+		if ( CacheManager.DEBUG ) Log.println(Constants.LOGD,TAG,rowCount+" Resource Rows retreived. and "+pValues.size()+" pending values. Converting into Resource Objects");
 		for (Entry<Long, ContentValues> ent : pendingMap.entrySet()) {
 			Resource r = Resource.fromContentValues(ent.getValue()); 
 			r.setPending(true);
 			result.add(r);
 			
 		}
-		for (ContentValues cv : rValues) result.add(Resource.fromContentValues(cv));
+		result.addAll(fromTable);
 		if ( CacheManager.DEBUG ) Log.println(Constants.LOGD,TAG, "Conversion complete. Populating VCalendars and appending events.");
 		
 		
@@ -0,0 +1,45 @@
+package com.morphoss.acal.database.resourcesmanager.requests;
+
+import java.util.Collection;
+import java.util.Map;
+
+import android.content.ContentValues;
+
+import com.morphoss.acal.database.resourcesmanager.ResourceManager.ReadOnlyResourceTableManager;
+import com.morphoss.acal.database.resourcesmanager.ResourceProcessingException;
+import com.morphoss.acal.database.resourcesmanager.ResourceResponse;
+import com.morphoss.acal.database.resourcesmanager.requesttypes.ReadOnlyBlockingRequestWithResponse;
+
+/**
+ * Looks up many resources in a collection by name at once, rather than one RRGetResourceInCollection
+ * after another.  The response maps each name we have a row for to that dav_resource row.
+ * 
+ * @author Morphoss Ltd
+ */
+public class RRGetResourcesInCollectionByName extends ReadOnlyBlockingRequestWithResponse<Map<String,ContentValues>> {
+
+	private long collectionId;
+	private Collection<String> names;
+	
+	public RRGetResourcesInCollectionByName(long collectionId, Collection<String> names) {
+		this.collectionId = collectionId;
+		this.names = names;
+	}
+
+	@Override
+	public void process(ReadOnlyResourceTableManager processor)	throws ResourceProcessingException {
+		this.postResponse(new RRGetResourcesInCollectionByNameResult(processor.getResourcesInCollection(collectionId, names)));
+	}
+
+	public class RRGetResourcesInCollectionByNameResult extends ResourceResponse<Map<String,ContentValues>> {
+
+		private Map<String,ContentValues> result;
+		
+		public RRGetResourcesInCollectionByNameResult(Map<String,ContentValues> result) { this.result = result; }
+		
+		@Override
+		public Map<String,ContentValues> result() {return this.result;	}
+		
+	}
+
+}
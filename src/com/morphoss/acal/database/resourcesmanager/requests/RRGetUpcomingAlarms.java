@@ -2,14 +2,19 @@ package com.morphoss.acal.database.resourcesmanager.requests;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import android.content.ContentValues;
+import android.database.Cursor;
 import android.util.Log;
 
 import com.morphoss.acal.acaltime.AcalDateRange;
 import com.morphoss.acal.acaltime.AcalDateTime;
+import com.morphoss.acal.acaltime.AcalRepeatRule.Checkpoint;
+import com.morphoss.acal.database.DatabaseTableManager.RowVisitor;
 import com.morphoss.acal.database.alarmmanager.AlarmRow;
+import com.morphoss.acal.database.cachemanager.RecurrenceCheckpointTableManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager.ReadOnlyResourceTableManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager.ResourceTableManager;
@@ -23,6 +28,8 @@ import com.morphoss.acal.davacal.VComponentCreationException;
 
 public class RRGetUpcomingAlarms extends ReadOnlyBlockingRequestWithResponse<ArrayList<AlarmRow>> {
 
+	private static final int BATCH_SIZE = 50;
+
 	private Map<Long,Collection> alarmCollections = null;
 	private AcalDateTime alarmsAfter = null;
 
@@ -34,7 +41,7 @@ public class RRGetUpcomingAlarms extends ReadOnlyBlockingRequestWithResponse<Arr
 	@Override
 	public void process(ReadOnlyResourceTableManager processor)	throws ResourceProcessingException {
 		alarmCollections = Collection.getAllCollections(processor.getContext());
-		ArrayList<AlarmRow> alarmList = new ArrayList<AlarmRow>(); 
+		final ArrayList<AlarmRow> alarmList = new ArrayList<AlarmRow>(); 
 
 		long start = alarmsAfter.getMillis();
 		long end = start;
@@ -68,25 +75,27 @@ public class RRGetUpcomingAlarms extends ReadOnlyBlockingRequestWithResponse<Arr
 			whereClause.append(ResourceTableManager.RESOURCE_DATA);
 			whereClause.append(" LIKE '%BEGIN:VALARM%' )");
 
-			ArrayList<ContentValues> cvs = processor.query(null, whereClause.toString(), null, null,null,null);
+			// Expand the resources a batch at a time as they come from the cursor, rather than holding
+			// them all at once, fetching the recurrence checkpoints for each batch in one query.
+			final AcalDateRange alarmRange = new AcalDateRange(alarmsAfter, AcalDateTime.addDays(alarmsAfter, 7));
+			final RecurrenceCheckpointTableManager checkpointTable = RecurrenceCheckpointTableManager.getInstance(processor.getContext());
+			final ArrayList<Resource> batch = new ArrayList<Resource>(BATCH_SIZE);
+			processor.query(null, whereClause.toString(), null, null,null,null, new RowVisitor() {
+				private Resource.RowReader reader;
 
-			for (ContentValues cv : cvs) {
-				Resource r = Resource.fromContentValues(cv);
-				try {
-					VCalendar vc = (VCalendar) VCalendar.createComponentFromResource(r);
-					vc.appendAlarmInstancesBetween(alarmList, new AcalDateRange(alarmsAfter, AcalDateTime.addDays(alarmsAfter, 7)));
-				}
-				catch ( VComponentCreationException e ) {
-					// @todo Auto-generated catch block
-					Log.w(ResourceManager.TAG,"Auto-generated catch block", e);
-					continue;
+				@Override
+				protected void prepare(Cursor c) {
+					reader = new Resource.RowReader(c);
 				}
-				catch ( Exception e ) {
-					// @todo Auto-generated catch block
-					Log.w(ResourceManager.TAG,"Auto-generated catch block", e);
-					continue;
+
+				@Override
+				protected boolean visit(Cursor c) {
+					batch.add(reader.read(c));
+					if ( batch.size() >= BATCH_SIZE ) expandBatch(batch, checkpointTable, alarmList, alarmRange);
+					return true;
 				}
-			}
+			});
+			expandBatch(batch, checkpointTable, alarmList, alarmRange);
 		}
 		Collections.sort(alarmList);
 		RRGetUpcomingAlarmsResult response = new RRGetUpcomingAlarmsResult(alarmList);
@@ -94,6 +103,28 @@ public class RRGetUpcomingAlarms extends ReadOnlyBlockingRequestWithResponse<Arr
 		this.postResponse(response);
 	}
 
+	private static void expandBatch(ArrayList<Resource> batch, RecurrenceCheckpointTableManager checkpointTable,
+				ArrayList<AlarmRow> alarmList, AcalDateRange alarmRange) {
+		if ( batch.isEmpty() ) return;
+		HashMap<Long,List<Checkpoint>> checkpoints = checkpointTable.getCheckpoints(batch);
+		for( Resource r : batch ) {
+			try {
+				VCalendar vc = (VCalendar) VCalendar.createComponentFromResource(r);
+				vc.setRecurrenceCheckpoints(checkpoints.get(r.getResourceId()));
+				vc.appendAlarmInstancesBetween(alarmList, alarmRange);
+			}
+			catch ( VComponentCreationException e ) {
+				// @todo Auto-generated catch block
+				Log.w(ResourceManager.TAG,"Auto-generated catch block", e);
+			}
+			catch ( Exception e ) {
+				// @todo Auto-generated catch block
+				Log.w(ResourceManager.TAG,"Auto-generated catch block", e);
+			}
+		}
+		batch.clear();
+	}
+
 	public class RRGetUpcomingAlarmsResult extends ResourceResponse<ArrayList<AlarmRow>> {
 
 		private ArrayList<AlarmRow> result;
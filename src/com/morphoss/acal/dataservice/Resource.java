@@ -1,10 +1,10 @@
 package com.morphoss.acal.dataservice;
 
-import java.util.Date;
 import java.util.Map.Entry;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.Log;
@@ -155,7 +155,7 @@ public class Resource implements Parcelable {
 				} catch( Exception e ) {}
 
 				try {
-					modTime = AcalDateTime.fromMillis(Date.parse(cv.getAsString(ResourceTableManager.LAST_MODIFIED)));
+					modTime = AcalDateTime.fromHttpDate(cv.getAsString(ResourceTableManager.LAST_MODIFIED));
 				} catch( Exception e ) {}
 				modTime.setTimeZone(AcalDateTime.UTC.getID());
 				needsSync = StaticHelpers.toBoolean(cv.getAsInteger(ResourceTableManager.NEEDS_SYNC),true);
@@ -197,6 +197,62 @@ public class Resource implements Parcelable {
 		
 	}
 
+	/**
+	 * Builds Resources straight from a Cursor over the resource table, with the column indexes
+	 * looked up once when it is created.  Unlike fromContentValues() this doesn't understand rows
+	 * from the pending table.
+	 */
+	public static final class RowReader {
+		private final int collectionId;
+		private final int resourceId;
+		private final int name;
+		private final int etag;
+		private final int contentType;
+		private final int data;
+		private final int needsSync;
+		private final int earliestStart;
+		private final int latestEnd;
+		private final int effectiveType;
+		private final int lastModified;
+
+		public RowReader(Cursor c) {
+			collectionId = c.getColumnIndex(ResourceTableManager.COLLECTION_ID);
+			resourceId = c.getColumnIndex(ResourceTableManager.RESOURCE_ID);
+			name = c.getColumnIndex(ResourceTableManager.RESOURCE_NAME);
+			etag = c.getColumnIndex(ResourceTableManager.ETAG);
+			contentType = c.getColumnIndex(ResourceTableManager.CONTENT_TYPE);
+			data = c.getColumnIndex(ResourceTableManager.RESOURCE_DATA);
+			needsSync = c.getColumnIndex(ResourceTableManager.NEEDS_SYNC);
+			earliestStart = c.getColumnIndex(ResourceTableManager.EARLIEST_START);
+			latestEnd = c.getColumnIndex(ResourceTableManager.LATEST_END);
+			effectiveType = c.getColumnIndex(ResourceTableManager.EFFECTIVE_TYPE);
+			lastModified = c.getColumnIndex(ResourceTableManager.LAST_MODIFIED);
+		}
+
+		public Resource read(Cursor c) {
+			AcalDateTime modTime = new AcalDateTime();
+			try {
+				modTime = AcalDateTime.fromHttpDate(c.getString(lastModified));
+			} catch( Exception e ) {}
+			modTime.setTimeZone(AcalDateTime.UTC.getID());
+
+			return new Resource(
+					c.getLong(collectionId),
+					c.getLong(resourceId),
+					c.getString(name),
+					c.getString(etag),
+					c.getString(contentType),
+					c.getString(data),
+					(c.isNull(needsSync) || c.getInt(needsSync) != 0),
+					(c.isNull(earliestStart) ? null : c.getLong(earliestStart)),
+					(c.isNull(latestEnd) ? null : c.getLong(latestEnd)),
+					c.getString(effectiveType),
+					false,
+					modTime
+			);
+		}
+	}
+
 	/**
 	 * Given a context and a resourceId we can retrieve a Resource from the database.
 	 * @param context
@@ -55,6 +55,11 @@ public class VCalendar extends VComponent implements Cloneable {
 	 * This holds the repeat rule.
 	 */
 	private AcalRepeatRule repeatRule = null;
+
+	/**
+	 * Checkpoints saved from an earlier expansion of the repeat rule, to be handed on to it.
+	 */
+	private List<AcalRepeatRule.Checkpoint> savedCheckpoints = null;
 	
 	/**
 	 * This indicates whether the masterInstance has any overrides.  A single instance calendar
@@ -352,7 +357,10 @@ public class VCalendar extends VComponent implements Cloneable {
 
 	public void checkRepeatRule() {
 		try {
-			if (repeatRule == null) repeatRule = AcalRepeatRule.fromVCalendar(this,collectionId,resourceId);
+			if (repeatRule == null) {
+				repeatRule = AcalRepeatRule.fromVCalendar(this,collectionId,resourceId);
+				if ( repeatRule != null && savedCheckpoints != null ) repeatRule.setCheckpoints(savedCheckpoints);
+			}
 		}
 		catch ( Exception e ) {
 			Log.e(TAG,"Exception getting repeat rule from VCalendar", e);
@@ -362,6 +370,24 @@ public class VCalendar extends VComponent implements Cloneable {
 		hasRepeatRule = ( repeatRule != null && repeatRule.repeatRule != AcalRepeatRule.SINGLE_INSTANCE );
 	}
 
+	/**
+	 * Supplies checkpoints saved from an earlier expansion of this calendar's repeat rule.
+	 * @param checkpoints
+	 */
+	public void setRecurrenceCheckpoints(List<AcalRepeatRule.Checkpoint> checkpoints) {
+		savedCheckpoints = checkpoints;
+		if ( repeatRule != null ) repeatRule.setCheckpoints(checkpoints);
+	}
+
+	/**
+	 * @return Any checkpoints recorded while expanding this calendar's repeat rule, which are worth
+	 * saving for next time, or null if there are none.
+	 */
+	public List<AcalRepeatRule.Checkpoint> takeNewRecurrenceCheckpoints() {
+		if ( repeatRule == null ) return null;
+		return repeatRule.takeNewCheckpoints();
+	}
+
 	public boolean appendAlarmInstancesBetween(ArrayList<AlarmRow> alarmList, AcalDateRange rangeRequested) {
 		try {
 			if ( Constants.debugAlarms && Constants.LOG_DEBUG ) Log.println(Constants.LOGD, TAG, 
@@ -460,13 +486,13 @@ public class VCalendar extends VComponent implements Cloneable {
 		}
 		for( PartInfo childInfo : content.partInfo ) {
 			if ( childInfo.type.equals(VEVENT) ) {
-				return new VEvent(new ComponentParts(childInfo.getComponent(content.componentString)), this);
+				return new VEvent(content.getChild(childInfo), this);
 			}
 			else if ( childInfo.type.equals(VTODO) ) {
-				return new VTodo(new ComponentParts(childInfo.getComponent(content.componentString)), this);
+				return new VTodo(content.getChild(childInfo), this);
 			}
 			else if ( childInfo.type.equals(VJOURNAL) ) {
-				return new VJournal(new ComponentParts(childInfo.getComponent(content.componentString)), this);
+				return new VJournal(content.getChild(childInfo), this);
 			}
 		}
 		return null;
@@ -492,6 +518,15 @@ public class VCalendar extends VComponent implements Cloneable {
 	}
 
 
+	/**
+	 * @return true if the master instance has an RRULE or an RDATE, and so may have more than one instance.
+	 */
+	public boolean masterRecurs() {
+		Masterable m = getMasterChild();
+		return m != null && ( m.getProperty(PropertyName.RRULE) != null || m.getProperty(PropertyName.RDATE) != null );
+	}
+
+
 	public boolean masterHasOverrides() {
 		if ( masterHasOverrides == null ) {
 			int countMasterables = 0;
@@ -549,7 +584,6 @@ public class VCalendar extends VComponent implements Cloneable {
 						override = matchingChildren.get(i);
 						recalculateTimes = true;
 					}
-					override = matchingChildren.get(i);
 				}
 			} catch (YouMustSurroundThisMethodInTryCatchOrIllEatYouException e) {
 				Log.w(TAG,Log.getStackTraceString(e));
@@ -557,7 +591,7 @@ public class VCalendar extends VComponent implements Cloneable {
 				this.setPersistentOff();	
 			}
 			if ( !recalculateTimes ) return override;
-			masterInstance = override;
+			if ( override != null ) masterInstance = override;
 		}
 
 		masterInstance.setToRecurrence(recurrenceProperty);
@@ -709,7 +743,7 @@ public class VCalendar extends VComponent implements Cloneable {
 		if ( this.hasAlarms != null ) return this.hasAlarms;
 		for( PartInfo childInfo : content.partInfo ) {
 			if ( childInfo.type.equals(VEVENT) ) {
-				VEvent vc = new VEvent(new ComponentParts(childInfo.getComponent(content.componentString)), this);
+				VEvent vc = new VEvent(content.getChild(childInfo), this);
 				for( PartInfo childChildInfo : vc.content.partInfo ) {
 					if ( childChildInfo.type.equals(VALARM)) {
 						this.hasAlarms = true;
@@ -718,7 +752,7 @@ public class VCalendar extends VComponent implements Cloneable {
 				}
 			}
 			else if ( childInfo.type.equals(VTODO) ) {
-				VTodo vc = new VTodo(new ComponentParts(childInfo.getComponent(content.componentString)), this);
+				VTodo vc = new VTodo(content.getChild(childInfo), this);
 				for( PartInfo childChildInfo : vc.content.partInfo ) {
 					if ( childChildInfo.type.equals(VALARM))  {
 						this.hasAlarms = true;
@@ -24,8 +24,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -69,13 +67,6 @@ public abstract class VComponent implements Parcelable {
 	
 	protected VComponent 				parent;
 
-	// Patterns used for matching begin:component and end:component lines. Note that we explicitly
-	// match the case choices since that is faster than using a case insensitive match
-	private static final Pattern myBegin = Pattern.compile("[Bb][Ee][Gg][Ii][Nn]:([A-Za-z]+)\\r?",
-				Pattern.MULTILINE  | Pattern.UNIX_LINES); 
-	private static final Pattern myEnd = Pattern.compile("[Ee][Nn][Dd]:([A-Za-z]+)\\r?(\\n|$)");
-
-	
 	// These members MUST remain private - if you must access them elsewhere create appropriate
 	// getters. To maintain consistency they should not be changed by external or child classes. 
 	private List<VComponent> children = null;
@@ -111,13 +102,15 @@ public abstract class VComponent implements Parcelable {
 		this.propertiesSet = true;
 	}
 
-	public synchronized static VComponent createComponentFromBlob(String blob) {
+	/**
+	 * Parses an iCalendar / vCard blob into the appropriate VComponent subclass. This holds no
+	 * global lock: the ComponentParts built are local to the call and immutable once constructed,
+	 * so any number of threads may parse concurrently.
+	 * @param blob
+	 * @return
+	 */
+	public static VComponent createComponentFromBlob(String blob) {
 		
-		// Remove all line spacing
-		// Very probably we should do this when we write it into the local database.
-		Matcher m = Constants.rfc5545UnWrapper.matcher(blob);
-		blob = m.replaceAll("");
-
 		ComponentParts splitter = new ComponentParts(blob);
 		if ( splitter.thisComponent.equals(VCALENDAR) )
 			return new VCalendar(splitter,VALUE_NOT_ASSIGNED,VALUE_NOT_ASSIGNED, null,null, null);
@@ -138,14 +131,17 @@ public abstract class VComponent implements Parcelable {
 	}
 
 	
-	public synchronized static VComponent createComponentFromResource(Resource r) throws VComponentCreationException {
+	/**
+	 * Creates a VCalendar or VCard from the blob of a Resource. As with createComponentFromBlob
+	 * this is safe to call from several threads at once.
+	 * @param r
+	 * @return
+	 * @throws VComponentCreationException
+	 */
+	public static VComponent createComponentFromResource(Resource r) throws VComponentCreationException {
 		
-		// Remove all line spacing
-		// Very probably we should do this when we write it into the local database.
 		String blob = r.getBlob();
 		if ( blob == null ) return null;
-		Matcher m = Constants.rfc5545UnWrapper.matcher(blob);
-		blob = m.replaceAll("");
 
 		ComponentParts splitter = new ComponentParts(blob);
 		if ( splitter.thisComponent.equals(VCALENDAR) ) {
@@ -229,7 +225,7 @@ public abstract class VComponent implements Parcelable {
 
 	public synchronized String getOriginalBlob() {
 		if ( content == null ) content = new ComponentParts(buildContent());
-		return content.componentString;
+		return content.getComponentString();
 	}
 
 	
@@ -272,9 +268,9 @@ public abstract class VComponent implements Parcelable {
 	 * @return an array of AcalProperty which are all of the properties of the component
 	 */
 	public synchronized AcalProperty[] getAllProperties() {
-		AcalProperty[] ret = new AcalProperty[content.propertyLines.length];
-		for( int i=0; i < content.propertyLines.length; i++ ) {
-			ret[i] = AcalProperty.fromString(content.propertyLines[i]);
+		AcalProperty[] ret = new AcalProperty[content.propertyCount()];
+		for( int i=0; i < ret.length; i++ ) {
+			ret[i] = AcalProperty.fromString(content.propertyLine(i));
 		}
 		return ret;
 	}
@@ -296,10 +292,8 @@ public abstract class VComponent implements Parcelable {
 	public synchronized boolean containsPropertyKey(String name) {
 		if (name == null) return false;
 		if ( !propertiesSet ) {
-			for( int i=0; i < content.propertyLines.length; i++ ) {
-				if (content.propertyLines[i].length() >= name.length()
-							&& content.propertyLines[i].substring(0, name.length()).equalsIgnoreCase(name))
-					return true;
+			for( int i=0; i < content.propertyCount(); i++ ) {
+				if ( content.propertyLineStartsWith(i, name) ) return true;
 			}
 			return false;
 		}
@@ -388,7 +382,7 @@ public abstract class VComponent implements Parcelable {
 		if (this.childrenSet) return;
 		this.children = new ArrayList<VComponent>(this.content.partInfo.size());
 		for (PartInfo childInfo : this.content.partInfo) {
-			ComponentParts childSplitter = new ComponentParts( childInfo.getComponent(content.componentString));
+			ComponentParts childSplitter = content.getChild(childInfo);
 			if ( childInfo.type.equals(VEVENT))
 				this.children.add(new VEvent(childSplitter, this));
 			else if (childInfo.type.equals(VALARM))
@@ -413,12 +407,12 @@ public abstract class VComponent implements Parcelable {
 
 	protected synchronized void populateProperties() {
 		if (propertiesSet) return;
-		properties = new HashMap<String,AcalProperty>(content.propertyLines.length);
+		properties = new HashMap<String,AcalProperty>(content.propertyCount());
 		if (properties == null) {
 			Log.e(TAG, "Somehow an object that was just instatiated is null????");
 		}
-		for( int i=0; i < content.propertyLines.length; i++ ) {
-			AcalProperty p = AcalProperty.fromString(content.propertyLines[i]);
+		for( int i=0; i < content.propertyCount(); i++ ) {
+			AcalProperty p = AcalProperty.fromString(content.propertyLine(i));
 			try {
 				properties.put(p.getName(), p);
 			}
@@ -459,99 +453,173 @@ public abstract class VComponent implements Parcelable {
 			begin = startPos;
 			end = endPos;
 		}
-		
-		public String getComponent( final String blob ) {
-			if ( begin < 0 || end > blob.length() || end < begin ) {
-				throw new IllegalArgumentException("(0 <= begin <= end <= string length) must be true!");
-			}
-			return blob.substring(begin,end);
-		}
 	}
 
 	/**
 	 * <p>
-	 * Splits the component up into an array of properties (Strings) and an array of componentinfo, which is the
-	 * name of the sub-component and the string offsets into the original componentString.
+	 * Splits the component up into property lines and an array of componentinfo, which is the name of the
+	 * sub-component and the offsets into the original source string.
+	 * </p>
+	 * <p>
+	 * This is done in a single forward pass over the source. Folded lines (RFC5545 3.1) are recognised
+	 * as we go, so the source is never rewritten: property lines are only recorded as offsets and are
+	 * unfolded into Strings when they are actually asked for, and child components share the same
+	 * source string rather than being copied out of it.
 	 * </p>
 	 * 
 	 * @author Morphoss Ltd
 	 *
 	 */
 	protected static class ComponentParts {
-		public final String[] propertyLines;
 		public final List<PartInfo> partInfo;
-		public final String componentString;
 		public final String thisComponent;
-		
+
+		private final String source;
+		private final int begin;
+		private final int end;
+		private int[] lineStart = new int[16];
+		private int[] lineEnd = new int[16];
+		private boolean[] lineFolded = new boolean[16];
+		private int lineCount = 0;
+		private String componentString = null;
+
 		ComponentParts( final String blob ) {
-			this.componentString = blob;
-//			Log.w(TAG,"vvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvvv");
-//			Log.w(TAG,"Parsing a component:\n"+blob.replace("\r", "\\r"));
-			Matcher begin = myBegin.matcher(blob);
-			Matcher end = myEnd.matcher(blob);
-			partInfo = new ArrayList<PartInfo>();
-			int pos = 0;
-			int thisFound = 0;
-			int loopLimiter = 0;
-			StringBuilder props = new StringBuilder();
+			this(blob, 0, blob.length());
+		}
+
+		private ComponentParts( final String blob, final int startPos, final int endPos ) {
+			this.source = blob;
+			this.begin = startPos;
+			this.end = endPos;
+			this.partInfo = new ArrayList<PartInfo>();
+
 			String componentName = "";
-			if( begin.find(0) ) {
-				thisComponent = begin.group(1);
-				pos = begin.end()+1;
-				if( !begin.find(pos) ) {
-//					Log.w(TAG,"No more begins, looking for end of "+thisComponent+" component.");
-					if ( end.find(pos) ) {
-						// If we couldn't find another BEGIN, but we can find our END then we're done.
-						int thisComponentEndPos = end.start();
-						if ( thisComponentEndPos > pos ) {
-//							Log.w(TAG,"Appending early property lines:\n"+blob.substring(pos, thisComponentEndPos).replace("\r", "\\r"));
-							props.append(blob.substring(pos, thisComponentEndPos));
+			int depth = 0;
+			int childBegin = 0;
+			String childName = null;
+			int pos = startPos;
+			while( pos < endPos ) {
+				// Find the end of this logical line, skipping over any folds
+				int eol = blob.indexOf('\n', pos);
+				boolean folded = false;
+				while( eol >= 0 && eol+1 < endPos && isFoldChar(blob.charAt(eol+1)) ) {
+					folded = true;
+					eol = blob.indexOf('\n', eol+1);
+				}
+				if ( eol < 0 || eol >= endPos ) eol = endPos;
+				int next = (eol < endPos ? eol + 1 : endPos);
+				int contentEnd = eol;
+				if ( contentEnd > pos && blob.charAt(contentEnd-1) == '\r' ) contentEnd--;
+
+				if ( contentEnd > pos ) {
+					if ( startsWith(blob, pos, contentEnd, "BEGIN:") ) {
+						if ( depth == 0 ) {
+							componentName = lineValue(blob, pos+6, contentEnd, folded);
 						}
+						else if ( depth == 1 ) {
+							childBegin = pos;
+							childName = lineValue(blob, pos+6, contentEnd, folded);
+						}
+						depth++;
+					}
+					else if ( startsWith(blob, pos, contentEnd, "END:") ) {
+						if ( depth == 2 ) partInfo.add(new PartInfo(childName, childBegin, next));
+						if ( depth > 0 ) depth--;
+						if ( depth == 0 ) break;
+					}
+					else if ( depth == 1 ) {
+						addLine(pos, contentEnd, folded);
 					}
-//					else {
-//						Log.w(TAG,"No END:"+thisComponent+" either!");
-//					}
 				}
+				pos = next;
 			}
-			else {
-				thisComponent = "";
+			this.thisComponent = componentName.toUpperCase();
+		}
+
+		/**
+		 * Returns the parts of a child component, sharing our source string.
+		 */
+		ComponentParts getChild( final PartInfo child ) {
+			if ( child.begin < begin || child.end > end || child.end < child.begin ) {
+				throw new IllegalArgumentException("(begin <= child.begin <= child.end <= end) must be true!");
 			}
-			int endPos;
-			while( begin.find(pos) && loopLimiter++ < 1000 ) {
-				thisFound = begin.start();
-				if ( thisFound > pos ) {
-					// Append any properties between the last place we were up to this BEGIN
-					props.append(blob.substring(pos, thisFound));
-//					Log.w(TAG,"Appending some property lines:\n"+blob.substring(pos, thisFound).replace("\r", "\\r"));
-					pos = thisFound;
-				}
-				componentName = begin.group(1);
-//				Log.w(TAG,"Looking for end of "+componentName+" component.");
-				endPos = pos;
-				while( end.find(endPos) && loopLimiter++ < 1000 ) {
-					endPos = end.end();
-//					Log.w(TAG,"Found END:"+end.group(1)+" which does "+(end.group(1).equals(componentName)?"":"not ")+"equal "+componentName);
-					if ( end.group(1).equals(componentName) ) {
-						partInfo.add( new PartInfo(componentName, pos, endPos) );
-						pos = endPos;
-						break;
-					}
-				}
+			return new ComponentParts(source, child.begin, child.end);
+		}
+
+		/**
+		 * @return The text of this component as it was originally supplied.
+		 */
+		String getComponentString() {
+			if ( componentString == null ) {
+				componentString = (begin == 0 && end == source.length() ? source : source.substring(begin, end));
+			}
+			return componentString;
+		}
+
+		int propertyCount() {
+			return lineCount;
+		}
+
+		/**
+		 * @return The unfolded text of the i'th property line.
+		 */
+		String propertyLine( int i ) {
+			return lineValue(source, lineStart[i], lineEnd[i], lineFolded[i]);
+		}
+
+		/**
+		 * Tests whether the i'th property line starts with the given (case-insensitive) name.
+		 */
+		boolean propertyLineStartsWith( int i, String name ) {
+			if ( lineFolded[i] ) {
+				String line = propertyLine(i);
+				return line.regionMatches(true, 0, name, 0, name.length());
 			}
-			if ( props.length() > 0 ) {
-				propertyLines = Constants.lineSplitter.split(props);
+			return startsWith(source, lineStart[i], lineEnd[i], name);
+		}
+
+		private void addLine( int startPos, int endPos, boolean folded ) {
+			if ( lineCount == lineStart.length ) {
+				int newSize = lineCount * 2;
+				int[] newStart = new int[newSize];
+				int[] newEnd = new int[newSize];
+				boolean[] newFolded = new boolean[newSize];
+				System.arraycopy(lineStart, 0, newStart, 0, lineCount);
+				System.arraycopy(lineEnd, 0, newEnd, 0, lineCount);
+				System.arraycopy(lineFolded, 0, newFolded, 0, lineCount);
+				lineStart = newStart;
+				lineEnd = newEnd;
+				lineFolded = newFolded;
 			}
-			else
-				propertyLines = new String[0];
-			
-//			for( String line : propertyLines ) {
-//				Log.w(TAG,thisComponent+">>>"+line.replace("\r", "\\r"));
-//			}
-//			Log.w(TAG,"-----------------------------------");
-//			for( PartInfo p : partInfo ) {
-//				Log.w(TAG,thisComponent+"+++"+p.type);
-//			}
-//			Log.w(TAG,"^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^");
+			lineStart[lineCount] = startPos;
+			lineEnd[lineCount] = endPos;
+			lineFolded[lineCount] = folded;
+			lineCount++;
+		}
+
+		private static boolean isFoldChar( char c ) {
+			return c == ' ' || c == '\t';
+		}
+
+		private static boolean startsWith( String blob, int startPos, int endPos, String prefix ) {
+			return endPos - startPos >= prefix.length() && blob.regionMatches(true, startPos, prefix, 0, prefix.length());
+		}
+
+		/**
+		 * Extracts the text between startPos and endPos, removing any line folding.
+		 */
+		private static String lineValue( String blob, int startPos, int endPos, boolean folded ) {
+			if ( !folded ) return blob.substring(startPos, endPos);
+			StringBuilder unfolded = new StringBuilder(endPos - startPos);
+			int pos = startPos;
+			int eol;
+			while( (eol = blob.indexOf('\n', pos)) >= 0 && eol < endPos ) {
+				int contentEnd = (eol > pos && blob.charAt(eol-1) == '\r' ? eol - 1 : eol);
+				unfolded.append(blob, pos, contentEnd);
+				pos = eol + 2;	// skip the newline and the following space or tab
+			}
+			if ( pos < endPos ) unfolded.append(blob, pos, endPos);
+			return unfolded.toString();
 		}
 	}
 	
@@ -625,7 +693,7 @@ public abstract class VComponent implements Parcelable {
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeString(name);
-		dest.writeString(content == null ? null : content.componentString);
+		dest.writeString(content == null ? null : content.getComponentString());
 		dest.writeString(getCurrentBlob());
 	}
 
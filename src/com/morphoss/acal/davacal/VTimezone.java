@@ -23,6 +23,8 @@ import java.util.List;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 
+import com.morphoss.acal.acaltime.TimeZoneCache;
+
 
 
 public class VTimezone extends VComponent {
@@ -54,14 +56,14 @@ public class VTimezone extends VComponent {
 		if ( tryTz(getProperty("X-ENTOURAGE-CFTIMEZONE")) ) return true;
 		tzid = getOlsonFromMsID();
 		if ( tzid != null ) {
-			tz = TimeZone.getTimeZone(tzid);
+			tz = TimeZoneCache.getTimeZone(tzid);
 			return true;
 		}
 		
 		String[] matchingZones = getMatchingZones();
 		if ( matchingZones != null && matchingZones.length == 1 ) {
 			tzid = matchingZones[0];
-			tz = TimeZone.getTimeZone(tzid); 
+			tz = TimeZoneCache.getTimeZone(tzid);
 			return true;
 		}
 		return false;
@@ -71,20 +73,9 @@ public class VTimezone extends VComponent {
 		if ( testProperty != null ) {
 			tzid = testProperty.getValue(); 
 			if ( tzid != null ) {
-				tz = TimeZone.getTimeZone(tzid);
-				if ( tz != null ) {
-					tzid = tz.getID();
-					return true;
-				}
-				tzid = VCalendar.staticGetOlsonName(tzid);
-				if ( tzid != null ) {
-					tz = TimeZone.getTimeZone(tzid);
-					if ( tz != null ) {
-						tzid = tz.getID();
-						return true;
-					}
-					tzid = null;
-				}
+				tz = TimeZoneCache.forTzid(tzid).tz;
+				tzid = tz.getID();
+				return true;
 			}
 		}
 		return false;
@@ -230,7 +221,7 @@ public class VTimezone extends VComponent {
 			i++;
 		}
 
-		TimeZone tz = TimeZone.getTimeZone(timeZoneId);
+		TimeZone tz = TimeZoneCache.getTimeZone(timeZoneId);
 		if ( i == ZoneData.zones.length ) {
 			String testTzId = tz.getID();
 
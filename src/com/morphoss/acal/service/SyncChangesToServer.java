@@ -326,6 +326,7 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 					}
 				}
 		}
+		requestor.releaseResponse(in);
 	}
 
 
@@ -389,8 +390,8 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 		try {
 			ContentValues serverData = processor.getServerData(collectionData.getAsInteger(DavCollections.SERVER_ID));
 			requestor.applyFromServer(serverData);
-			requestor.doRequest("PROPPATCH", collectionData.getAsString(DavCollections.COLLECTION_PATH),
-						proppatchHeaders, proppatchRequest);
+			requestor.releaseResponse(requestor.doRequest("PROPPATCH", collectionData.getAsString(DavCollections.COLLECTION_PATH),
+						proppatchHeaders, proppatchRequest));
 
 			collectionData.put(DavCollections.SYNC_METADATA, 0);
 			processor.updateCollection(collectionData.getAsLong(DavCollections._ID),collectionData);
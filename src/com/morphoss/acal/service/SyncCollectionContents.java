@@ -23,9 +23,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 
 import javax.net.ssl.SSLException;
@@ -38,6 +45,7 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Process;
 import android.util.Log;
 
 import com.morphoss.acal.AcalDebug;
@@ -53,15 +61,17 @@ import com.morphoss.acal.database.DatabaseTableManager.QUERY_ACTION;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager;
 import com.morphoss.acal.database.resourcesmanager.ResourceManager.ResourceTableManager;
 import com.morphoss.acal.database.resourcesmanager.requests.RRBlockAndProcessQueryList;
-import com.morphoss.acal.database.resourcesmanager.requests.RRGetResourceInCollection;
+import com.morphoss.acal.database.resourcesmanager.requests.RRGetResourcesInCollectionByName;
 import com.morphoss.acal.database.resourcesmanager.requests.RRSyncQueryMap;
 import com.morphoss.acal.database.resourcesmanager.requests.RRUpdateCollection;
 import com.morphoss.acal.providers.DavCollections;
 import com.morphoss.acal.providers.Servers;
+import com.morphoss.acal.service.connector.AcalConnectionPool;
 import com.morphoss.acal.service.connector.AcalRequestor;
 import com.morphoss.acal.service.connector.ConnectionFailedException;
 import com.morphoss.acal.service.connector.SendRequestFailedException;
 import com.morphoss.acal.xml.DavNode;
+import com.morphoss.acal.xml.MultistatusResponseHandler;
 
 public class SyncCollectionContents extends ServiceJob {
 
@@ -69,6 +79,14 @@ public class SyncCollectionContents extends ServiceJob {
 	private long collectionId;
 	
 	private static final int	nPerMultiget		= 30;
+
+	// Multigets are pipelined, with this many in flight at once, and the number of hrefs in each
+	// is adjusted between these limits to aim for a response of about this size and duration.
+	private static final int	MULTIGETS_IN_FLIGHT		= 3;
+	private static final int	MIN_PER_MULTIGET		= 10;
+	private static final int	MAX_PER_MULTIGET		= 200;
+	private static final long	TARGET_MULTIGET_MILLIS	= 3000;
+	private static final long	TARGET_MULTIGET_BYTES	= 256 * 1024;
 	
 	private long timeToWait = 0;
 	private boolean scheduleNextInstance = false;
@@ -132,6 +150,24 @@ public class SyncCollectionContents extends ServiceJob {
 		this.TIME_TO_EXECUTE = 0;
 	}
 
+
+	/**
+	 * <p>
+	 * For fetching resources from a collection whose rows we already have, without reading them
+	 * from the database.  Nothing is written unless writeResources() is overridden, since there is
+	 * no context to find the ResourceManager with.
+	 * </p>
+	 * @param collectionData The collection's row from dav_collection
+	 * @param serverData The server's row from dav_server
+	 */
+	SyncCollectionContents(ContentValues collectionData, ContentValues serverData) {
+		this(collectionData.getAsLong(DavCollections._ID));
+		applyCollectionData(collectionData);
+		this.serverData = serverData;
+		requestor = AcalRequestor.fromServerValues(serverData);
+		requestor.setPath(collectionPath);
+	}
+
 	
 	@Override
 	public void run(aCalService context) {
@@ -208,8 +244,10 @@ public class SyncCollectionContents extends ServiceJob {
 		}
 	
 		long finish = System.currentTimeMillis();
-		if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
+		if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents ) {
 			Log.println(Constants.LOGV,TAG, "Collection sync finished in " + (finish - start) + "ms");
+			AcalConnectionPool.logStatistics(TAG);
+		}
 
 		calculateNextSchedulingTime();
 		scheduleNextInstance();
@@ -410,6 +448,13 @@ public class SyncCollectionContents extends ServiceJob {
 				
 			}
 			else {
+
+				// Find all the resources we already have for these responses in one go
+				ArrayList<String> responseHrefs = new ArrayList<String>(responses.size());
+				for (DavNode response : responses) responseHrefs.add(response.segmentFromFirstHref("href"));
+				Map<String,ContentValues> existingResources =
+					ResourceManager.getInstance(context).sendBlockingRequest(
+							new RRGetResourcesInCollectionByName(collectionId,responseHrefs)).result();
 	
 				for (DavNode response : responses) {
 					String responseHref = response.segmentFromFirstHref("href");
@@ -419,9 +464,7 @@ public class SyncCollectionContents extends ServiceJob {
 					DMQueryBuilder builder = new DMQueryBuilder();
 					builder.setAction(QUERY_ACTION.UPDATE);
 					
-					ContentValues cv = 
-						ResourceManager.getInstance(context).sendBlockingRequest(
-								new RRGetResourceInCollection(collectionId,responseHref)).result();
+					ContentValues cv = existingResources.get(responseHref);
 	
 					if ( cv == null ) {
 						cv = new ContentValues();
@@ -431,6 +474,7 @@ public class SyncCollectionContents extends ServiceJob {
 						//action = WriteActions.INSERT;
 						builder.setAction(QUERY_ACTION.INSERT);
 					} else {
+						cv = new ContentValues(cv);
 						builder.setWhereClause(ResourceTableManager.RESOURCE_ID+" = ?");
 						builder.setwhereArgs(new String[] {cv.getAsString(ResourceTableManager.RESOURCE_ID)});
 					}
@@ -709,6 +753,7 @@ public class SyncCollectionContents extends ServiceJob {
 					default: // Unknown code
 						Log.w(TAG, "Unhandled status " + status + " on GET request for " + path);
 				}
+				requestor.releaseResponse(in);
 			}
 			if ( queryList.size() > nPerMultiget ) {
 				ResourceManager.getInstance(context).sendBlockingRequest(new RRBlockAndProcessQueryList(queryList));
@@ -816,21 +861,109 @@ public class SyncCollectionContents extends ServiceJob {
 	}
 
 	
+	/**
+	 * One calendar-multiget REPORT, fetched on one of the multiget threads with an AcalRequestor of
+	 * its own, since those hold the state of a single request.  The multistatus is streamed, so
+	 * each response is turned into a query as soon as it has been read and then dropped, and we
+	 * never hold more than one response's tree at a time.
+	 */
+	private final class Multiget implements Callable<DMQueryList>, MultistatusResponseHandler {
+		final int hrefCount;
+		final String xml;
+		final Map<String, ContentValues> originalData;
+		final List<String> toBeRemoved;
+		final DMQueryList queryList = new DMQueryList();
+		long elapsed = 0;
+		int statusCode = -1;
+		int responseCount = 0;
+		long dataBytes = 0;
+
+		Multiget( int hrefCount, String xml, Map<String, ContentValues> originalData, List<String> toBeRemoved ) {
+			this.hrefCount = hrefCount;
+			this.xml = xml;
+			this.originalData = originalData;
+			this.toBeRemoved = toBeRemoved;
+		}
+
+		/**
+		 * @return The queries to write the responses, or null if the request failed.
+		 */
+		@Override
+		public DMQueryList call() throws SSLHandshakeException {
+			long start = System.currentTimeMillis();
+			AcalRequestor multigetRequestor = AcalRequestor.fromServerValues(serverData);
+			DavNode root = multigetRequestor.doStreamingXmlRequest("REPORT", collectionPath,
+								SynchronisationJobs.getReportHeaders(1), xml, this);
+			statusCode = multigetRequestor.getStatusCode();
+			elapsed = System.currentTimeMillis() - start;
+			return (root == null ? null : queryList);
+		}
+
+		@Override
+		public void response(DavNode response) {
+			responseCount++;
+			// parseResponseNode() and toBeRemoved are shared with the other multigets
+			synchronized( SyncCollectionContents.this ) {
+				String name = response.segmentFromFirstHref("href");
+				if ( toBeRemoved.contains(name) ) {
+					if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
+						Log.println(Constants.LOGV,TAG,"Found href in our list.");
+					toBeRemoved.remove(name);
+				}
+
+				ContentValues cv = originalData.get(name);
+				DMQueryBuilder builder = new DMQueryBuilder();
+				builder.setAction(QUERY_ACTION.UPDATE);
+				
+				if ( cv == null ) {
+					cv = new ContentValues();
+					cv.put(ResourceTableManager.COLLECTION_ID, collectionId);
+					cv.put(ResourceTableManager.RESOURCE_NAME, name);
+					builder.setAction(QUERY_ACTION.INSERT);
+				} else {
+					builder.setWhereClause(ResourceTableManager.RESOURCE_ID+" = ?");
+					builder.setwhereArgs(new String[]{cv.getAsString(ResourceTableManager.RESOURCE_ID)});
+				}
+				if ( !parseResponseNode(response, cv, true) ) return;
+				if ( cv.getAsString("COLLECTION") != null ) return;
+
+				String data = cv.getAsString(ResourceTableManager.RESOURCE_DATA);
+				if ( data != null ) dataBytes += data.length();
+
+				if (Constants.LOG_DEBUG)
+					Log.println(Constants.LOGD,TAG, "Multiget response needs sync="+cv.getAsString(ResourceTableManager.NEEDS_SYNC)+" for "+name );
+				
+				builder.setValues(cv);
+				queryList.addAction(builder.build());
+			}
+		}
+	}
+
+	private static final ThreadFactory multigetThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			});
+		}
+	};
+
 	/**
 	 * <p>
-	 * Performs a sync using a series of multiget REPORT requests to retrieve the resources needing sync.
+	 * Fetches the given hrefs with calendar-multiget (or addressbook-multiget) REPORTs.  Several
+	 * multigets are kept in flight at once on background threads, so while we write the results of
+	 * one into the database the next ones are already being fetched and parsed.
+	 * </p>
+	 * <p>
+	 * Each multiget starts with nPerMultiget hrefs, and after each response we adjust the number
+	 * we ask for, aiming at TARGET_MULTIGET_MILLIS and TARGET_MULTIGET_BYTES per response.
 	 * </p>
-	 * 
-	 * @param originalData
-	 *            <p>
-	 *            The href => Contentvalues map.
-	 *            </p>
-	 * @param hrefs
-	 *            <p>
-	 *            The array of hrefs
-	 *            </p>
 	 */
-	private void syncWithMultiget(Map<String, ContentValues> originalData, Object[] hrefs) {
+	void syncWithMultiget(Map<String, ContentValues> originalData, Object[] hrefs) {
 
 		String baseXml = "<?xml version=\"1.0\" encoding=\"utf-8\" ?>"
 			+ "<" + multigetReportTag + " xmlns=\"" + nameSpace + "\" xmlns:D=\"DAV:\">\n"
@@ -851,77 +984,83 @@ public class SyncCollectionContents extends ServiceJob {
 		}
 
 		String pathOnServer =  StaticHelpers.pathOnServer(collectionPath);
-		int limit;
-		StringBuilder hrefList; 
-		for (int hrefIndex = 0; hrefIndex < hrefs.length; hrefIndex += nPerMultiget) {
-			limit = nPerMultiget + hrefIndex;
-			if ( limit > hrefs.length ) limit = hrefs.length;
-			
-			hrefList = new StringBuilder();
-			for (int i = hrefIndex; i < limit; i++) {
-				try {
-					hrefList.append(String.format("<D:href>%s</D:href>\n", pathOnServer + hrefs[i].toString()));
-					if (Constants.LOG_DEBUG)
-						Log.w(TAG,"Fetching resource from: "+ pathOnServer + " " + hrefs[i].toString());
-				}
-				catch( Exception e) {
-					Log.e(TAG,"Error syncing resource.", e);
-				}
-			}
-		
-			if (Constants.LOG_DEBUG)
-				Log.println(Constants.LOGD,TAG, "Requesting " + multigetReportTag + " for " + nPerMultiget + " resources out of "+hrefs.length+"." );
+		long started = System.currentTimeMillis();
+		int perMultiget = nPerMultiget;
+		int hrefIndex = 0;
+		LinkedList<Future<DMQueryList>> inFlight = new LinkedList<Future<DMQueryList>>();
+		LinkedList<Multiget> inFlightRequests = new LinkedList<Multiget>();
+		ExecutorService multigetPool = Executors.newFixedThreadPool(MULTIGETS_IN_FLIGHT, multigetThreads);
+		try {
+			while( hrefIndex < hrefs.length || !inFlight.isEmpty() ) {
+				while( inFlight.size() < MULTIGETS_IN_FLIGHT && hrefIndex < hrefs.length ) {
+					int limit = perMultiget + hrefIndex;
+					if ( limit > hrefs.length ) limit = hrefs.length;
 
-			DavNode root = doCalendarRequest( "REPORT", 1, String.format(baseXml,hrefList.toString()) );
+					StringBuilder hrefList = new StringBuilder();
+					for (int i = hrefIndex; i < limit; i++) {
+						try {
+							hrefList.append(String.format("<D:href>%s</D:href>\n", pathOnServer + hrefs[i].toString()));
+							if (Constants.LOG_DEBUG)
+								Log.w(TAG,"Fetching resource from: "+ pathOnServer + " " + hrefs[i].toString());
+						}
+						catch( Exception e) {
+							Log.e(TAG,"Error syncing resource.", e);
+						}
+					}
 
-			if (root == null) {
-				Log.w(TAG, "Unable to sync collection " + this.collectionPath + " (ID:" + this.collectionId
-							+ " - no data from server).");
-				return;
-			}
+					if (Constants.LOG_DEBUG)
+						Log.println(Constants.LOGD,TAG, "Requesting " + multigetReportTag + " for " + (limit - hrefIndex) + " resources out of "+hrefs.length+"." );
 
-			if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
-				Log.println(Constants.LOGV,TAG, "Start processing response");
-			List<DavNode> responses = root.getNodesFromPath("multistatus/response");
-			//List<ResourceModification> changeList = new ArrayList<ResourceModification>(hrefList.length());
-			DMQueryList queryList = new DMQueryList();
+					Multiget multiget = new Multiget(limit - hrefIndex, String.format(baseXml,hrefList.toString()),
+														originalData, toBeRemoved);
+					inFlight.add(multigetPool.submit(multiget));
+					inFlightRequests.add(multiget);
+					hrefIndex = limit;
+				}
 
-			for (DavNode response : responses) {
-				try { Thread.sleep(2); } catch ( InterruptedException e ) { }  // Give the UI thread more of a chance to do stuff.
-				String name = response.segmentFromFirstHref("href");
-				if ( toBeRemoved.contains(name) ) {
-					if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
-						Log.println(Constants.LOGV,TAG,"Found href in our list.");
-					toBeRemoved.remove(name);
+				Multiget multiget = inFlightRequests.removeFirst();
+				Future<DMQueryList> fetched = inFlight.removeFirst();
+				DMQueryList queryList = null;
+				try {
+					queryList = fetched.get();
+				}
+				catch ( ExecutionException e ) {
+					Log.w(TAG,"Error fetching multiget response", e.getCause());
+				}
+				catch ( InterruptedException e ) {
+					// The rest in flight are cancelled on the way out
+					Log.w(TAG,"Interrupted waiting for multiget response, abandoning sync of "+collectionPath);
+					fetched.cancel(true);
+					Thread.currentThread().interrupt();
+					return;
 				}
 
-				ContentValues cv = originalData.get(name);
-				DMQueryBuilder builder = new DMQueryBuilder();
-				builder.setAction(QUERY_ACTION.UPDATE);
-				
-				if ( cv == null ) {
-					cv = new ContentValues();
-					cv.put(ResourceTableManager.COLLECTION_ID, collectionId);
-					cv.put(ResourceTableManager.RESOURCE_NAME, name);
-					builder.setAction(QUERY_ACTION.INSERT);
-				} else {
-					builder.setWhereClause(ResourceTableManager.RESOURCE_ID+" = ?");
-					builder.setwhereArgs(new String[]{cv.getAsString(ResourceTableManager.RESOURCE_ID)});
+				if ( multiget.statusCode == 404 ) {
+					Log.w(TAG,"Multiget REPORT got 404 on "+collectionPath+" so a HomeSetsUpdate is being scheduled.");
+					context.addWorkerJob(new HomeSetsUpdate(serverId));
+					return;
+				}
+				if (queryList == null) {
+					Log.w(TAG, "Unable to sync collection " + this.collectionPath + " (ID:" + this.collectionId
+								+ " - no data from server).");
+					return;
 				}
-				if ( !parseResponseNode(response, cv, true) ) continue;
-				if ( cv.getAsString("COLLECTION") != null ) continue;
 
-				if (Constants.LOG_DEBUG)
-					Log.println(Constants.LOGD,TAG, "Multiget response needs sync="+cv.getAsString(ResourceTableManager.NEEDS_SYNC)+" for "+name );
-				
-				//changeList.add( new ResourceModification(action, cv, null) );
-				builder.setValues(cv);
-				queryList.addAction(builder.build());
+				perMultiget = nextMultigetSize(perMultiget, multiget);
+
+				// Meanwhile the next multigets are already on their way
+				writeResources(queryList);
 			}
+		}
+		finally {
+			for( Future<DMQueryList> f : inFlight ) f.cancel(true);
+			multigetPool.shutdownNow();
+		}
 
-			//ResourceModification.commitChangeList(context, changeList, processor.getTableName(this));
-			ResourceManager.getInstance(context).sendBlockingRequest( new RRBlockAndProcessQueryList(queryList));
-			try { Thread.sleep(300); } catch ( InterruptedException e ) { }
+		if ( Constants.LOG_DEBUG && Constants.debugSyncCollectionContents ) {
+			long elapsed = Math.max(1, System.currentTimeMillis() - started);
+			Log.println(Constants.LOGD,TAG, "Fetched "+hrefs.length+" resources by multiget in "+elapsed+"ms ("
+					+ (hrefs.length * 1000L / elapsed) +" per second).");
 		}
 
 		for( String href : toBeRemoved ) {
@@ -934,6 +1073,29 @@ public class SyncCollectionContents extends ServiceJob {
 
 		return;
 	}
+
+	/**
+	 * Writes the results of a multiget to the database, waiting until they have been.
+	 * @param queryList
+	 */
+	void writeResources(DMQueryList queryList) {
+		ResourceManager.getInstance(context).sendBlockingRequest( new RRBlockAndProcessQueryList(queryList));
+	}
+
+	/**
+	 * Works out how many hrefs to ask for in the next multiget from how long the last one took and
+	 * how much data it returned.  We never more than double it, or go outside MIN_PER_MULTIGET and
+	 * MAX_PER_MULTIGET.
+	 */
+	private static int nextMultigetSize( int current, Multiget last ) {
+		if ( last.responseCount == 0 ) return current;
+		long size = TARGET_MULTIGET_MILLIS * last.hrefCount / Math.max(1, last.elapsed);
+		if ( last.dataBytes > 0 ) size = Math.min(size, TARGET_MULTIGET_BYTES * last.responseCount / last.dataBytes);
+		size = Math.min(size, current * 2L);
+		if ( size < MIN_PER_MULTIGET ) return MIN_PER_MULTIGET;
+		if ( size > MAX_PER_MULTIGET ) return MAX_PER_MULTIGET;
+		return (int) size;
+	}
 	
 	private void calculateNextSchedulingTime() {
 		String lastSync = collectionData.getAsString(DavCollections.LAST_SYNCHRONISED);
@@ -1043,18 +1205,7 @@ public class SyncCollectionContents extends ServiceJob {
 			return false;
 		}
 		
-		serverId = collectionData.getAsInteger(DavCollections.SERVER_ID);
-		collectionPath = collectionData.getAsString(DavCollections.COLLECTION_PATH);
-		oldSyncToken = collectionData.getAsString(DavCollections.SYNC_TOKEN);
-		isAddressbook = (1 == collectionData.getAsInteger(DavCollections.ACTIVE_ADDRESSBOOK));
-		dataType = "calendar";
-		multigetReportTag = "calendar-multiget";
-		nameSpace = Constants.NS_CALDAV;
-		if (isAddressbook) {
-			dataType = "address";
-			multigetReportTag = dataType + "book-multiget";
-			nameSpace = Constants.NS_CARDDAV;
-		}
+		applyCollectionData(collectionData);
 
 		try {
 			// get serverData
@@ -1078,6 +1229,23 @@ public class SyncCollectionContents extends ServiceJob {
 	}
 
 	
+	private void applyCollectionData(ContentValues collectionData) {
+		this.collectionData = collectionData;
+		serverId = collectionData.getAsInteger(DavCollections.SERVER_ID);
+		collectionPath = collectionData.getAsString(DavCollections.COLLECTION_PATH);
+		oldSyncToken = collectionData.getAsString(DavCollections.SYNC_TOKEN);
+		isAddressbook = (1 == collectionData.getAsInteger(DavCollections.ACTIVE_ADDRESSBOOK));
+		dataType = "calendar";
+		multigetReportTag = "calendar-multiget";
+		nameSpace = Constants.NS_CALDAV;
+		if (isAddressbook) {
+			dataType = "address";
+			multigetReportTag = dataType + "book-multiget";
+			nameSpace = Constants.NS_CARDDAV;
+		}
+	}
+
+	
 	private void updateCollectionToken(String newToken) {
 		ContentValues updateData = new ContentValues();
 		updateData.put(DavCollections.SYNC_TOKEN, newToken);
@@ -1,7 +1,21 @@
 package com.morphoss.acal.service.connector;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.OperatedClientConnection;
 import org.apache.http.conn.params.ConnManagerPNames;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRoute;
@@ -9,20 +23,37 @@ import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 
 import android.os.Build;
+import android.util.Log;
 
+import com.morphoss.acal.Constants;
 import com.morphoss.acal.service.aCalService;
 
 public class AcalConnectionPool {
 	
 	public static final int	DEFAULT_BUFFER_SIZE	= 4096;
+
+	// Enough for the multigets a sync runs at once, plus whatever else is going on at the time.
+	private static final int	MAX_CONNECTIONS_PER_ROUTE	= 6;
+	private static final int	MAX_CONNECTIONS_TOTAL		= 20;
+
+	// How long we keep an unused connection open, unless the server tells us it will keep it for less.
+	private static final long	KEEP_ALIVE_MILLIS	= 30000;
+
+	private static final AtomicLong	connectionsRequested	= new AtomicLong(0);
+	private static final AtomicLong	connectionsOpened		= new AtomicLong(0);
+	private static final AtomicLong	connectMillis			= new AtomicLong(0);
 	
 	private static HttpParams httpParams = null;
 	private static SchemeRegistry schemeRegistry = null;
@@ -39,26 +70,25 @@ public class AcalConnectionPool {
 			httpParams.setParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE,DEFAULT_BUFFER_SIZE);
 			httpParams.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
 
-			httpParams.setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK, false);
+			// A pooled connection may have been closed by the server while it sat there.  This
+			// costs us a millisecond or so each time one is reused, where not checking would fail
+			// the request.
+			httpParams.setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK, true);
 
 			setTimeOuts(socketTimeOut,connectionTimeOut);
 	
-			// We need to set the MaxConnectionsPerRoute to a higher value so that we
-			// don't get an inexplicable timeout on the third attempt.  We set this pretty
-			// high to discourage weird timeouts when we're going through the discovery.
-			// All credit to:
+			// This used to be 1000, to avoid an inexplicable timeout on the third attempt:
 			//   http://androidisland.blogspot.com/2010/11/httpclient-and-connectionpooltimeoutexc.html
-			// for the fix.
-			//
-			// 2011-11-23 Reduced from 100 to 10 in case this is causing our memory leakage.
-			//
+			// That was us never closing some of the response streams, so connections were never
+			// given back.  Now that they are we can keep to a number the servers will like.
 			ConnManagerParams.setMaxConnectionsPerRoute(httpParams, new ConnPerRoute() {
 			    @Override
 			    public int getMaxForRoute(HttpRoute httproute)
 			    {
-			        return 1000;
+			        return MAX_CONNECTIONS_PER_ROUTE;
 			    }
 			});
+			ConnManagerParams.setMaxTotalConnections(httpParams, MAX_CONNECTIONS_TOTAL);
 	
 			ConnManagerParams.setTimeout(httpParams, 5000);
 		}
@@ -69,17 +99,117 @@ public class AcalConnectionPool {
 	public static ThreadSafeClientConnManager getHttpConnectionPool() {
 		if ( connectionPool == null ) {
 			schemeRegistry = new SchemeRegistry();
-			schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			schemeRegistry.register(new Scheme("http", new PlainSocketFactory(CachingHostNameResolver.getInstance()), 80));
 			Scheme httpsScheme = new Scheme("https",  new EasySSLSocketFactory(), 443);
 			schemeRegistry.register(httpsScheme);
-			connectionPool = new ThreadSafeClientConnManager(httpParams, schemeRegistry);
+			connectionPool = new MeteredConnManager(httpParams, schemeRegistry);
 		}
-		else
+		else {
 			connectionPool.closeExpiredConnections();
+			connectionPool.closeIdleConnections(KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
+		}
 		return connectionPool;
 	}
 
 
+	/**
+	 * Creates an HttpClient on the pool which will keep connections open for reuse.
+	 * @param connManager
+	 * @param params
+	 * @return
+	 */
+	public static DefaultHttpClient createHttpClient(ClientConnectionManager connManager, HttpParams params) {
+		DefaultHttpClient client = new DefaultHttpClient(connManager, params);
+		client.setKeepAliveStrategy(keepAliveStrategy);
+		return client;
+	}
+
+
+	/**
+	 * Keep a connection for as long as the server says in its Keep-Alive header, but no longer
+	 * than KEEP_ALIVE_MILLIS, which is also what we assume if it doesn't say.
+	 */
+	private static final ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			while( it.hasNext() ) {
+				HeaderElement he = it.nextElement();
+				if ( he.getValue() != null && "timeout".equalsIgnoreCase(he.getName()) ) {
+					try {
+						return Math.min(Long.parseLong(he.getValue().trim()) * 1000, KEEP_ALIVE_MILLIS);
+					}
+					catch( NumberFormatException e ) {
+					}
+				}
+			}
+			return KEEP_ALIVE_MILLIS;
+		}
+	};
+
+
+	/**
+	 * A connection manager which counts how often we ask it for a connection, and how often
+	 * (and for how long) it has had to open a new one, rather than reusing one from the pool.
+	 */
+	private static final class MeteredConnManager extends ThreadSafeClientConnManager {
+
+		MeteredConnManager(HttpParams params, SchemeRegistry schemes) {
+			super(params, schemes);
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+			connectionsRequested.incrementAndGet();
+			return super.requestConnection(route, state);
+		}
+
+		@Override
+		protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schemes) {
+			return new DefaultClientConnectionOperator(schemes) {
+				@Override
+				public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+							HttpContext context, HttpParams params) throws IOException {
+					long start = System.currentTimeMillis();
+					super.openConnection(conn, target, local, context, params);
+					connectionsOpened.incrementAndGet();
+					connectMillis.addAndGet(System.currentTimeMillis() - start);
+				}
+			};
+		}
+	}
+
+
+	/**
+	 * @return The number of times a request has asked the pool for a connection.
+	 */
+	public static long getConnectionsRequested() {
+		return connectionsRequested.get();
+	}
+
+	/**
+	 * @return The number of new connections we have opened, so the number of times the pool
+	 * had a connection to reuse is getConnectionsRequested() less this.
+	 */
+	public static long getConnectionsOpened() {
+		return connectionsOpened.get();
+	}
+
+	/**
+	 * @return The total time spent opening connections, which for https includes the TLS handshake.
+	 */
+	public static long getConnectMillis() {
+		return connectMillis.get();
+	}
+
+	public static void logStatistics(String tag) {
+		long requested = connectionsRequested.get();
+		long opened = connectionsOpened.get();
+		Log.println(Constants.LOGD, tag, "Connection pool: " + requested + " requests, " + (requested - opened)
+					+ " reused, " + opened + " opened taking " + connectMillis.get() + "ms");
+	}
+
+
 	public static void setTimeOuts(int socketTimeOut, int connectionTimeOut) {
 		httpParams.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, socketTimeOut);
 		httpParams.setIntParameter(CoreConnectionPNames.SO_LINGER, socketTimeOut);
@@ -18,21 +18,25 @@
 
 package com.morphoss.acal.service.connector;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
@@ -47,7 +51,6 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.params.HttpParams;
@@ -64,6 +67,7 @@ import com.morphoss.acal.activity.serverconfig.AuthenticationFailure;
 import com.morphoss.acal.providers.Servers;
 import com.morphoss.acal.xml.DavNode;
 import com.morphoss.acal.xml.DavParserFactory;
+import com.morphoss.acal.xml.MultistatusResponseHandler;
 
 public class AcalRequestor {
 
@@ -84,13 +88,7 @@ public class AcalRequestor {
 	private boolean authRequired = false;
 	private int authType  = Servers.AUTH_NONE; 
 //	private Header wwwAuthenticate = null;
-	private String authRealm = null;
-	private String nonce = null;
-	private String opaque = null;
 	private String cnonce = null;
-	private String qop = null;
-	private int authNC = 0;
-	private String algorithm = null;
 
 	private String username = null;
 	private String password = null;
@@ -108,9 +106,18 @@ public class AcalRequestor {
 	private DavRequest		request  = null;
 	private HttpResponse	response = null;
 
+	// Count the body of the most recent response as it is read, before and after decompression
+	private CountingInputStream	wireCounter = null;
+	private CountingInputStream	decodedCounter = null;
+
 	private boolean	debugThisRequest = false;
 
 
+	// We would much rather have our XML compressed on the way to us.  We only ask for it on
+	// PROPFIND and REPORT though, since some servers change the ETag of a compressed GET, and
+	// we would then send that back to them in an If-Match and have our PUT refused.
+	private final static Header ACCEPT_ENCODING = new BasicHeader("Accept-Encoding", "gzip, deflate");
+
 	public final static String PROTOCOL_HTTP = "http";
 	public final static String PROTOCOL_HTTPS = "https";
 	
@@ -216,7 +223,7 @@ public class AcalRequestor {
 	private void initialise() {
 		httpParams = AcalConnectionPool.defaultHttpParams(socketTimeOut, connectionTimeOut);
 		connManager = AcalConnectionPool.getHttpConnectionPool();
-		httpClient = new DefaultHttpClient(connManager, httpParams);
+		httpClient = AcalConnectionPool.createHttpClient(connManager, httpParams);
 
 		initialised = true;
 	}
@@ -251,6 +258,27 @@ public class AcalRequestor {
 		return this.statusCode;
 	}
 
+	/**
+	 * The number of bytes of the most recent response body which have been read from the
+	 * connection so far, which is the compressed size if it was compressed.  Like
+	 * getResponseBytesDecoded() this only covers the whole body once the stream returned
+	 * by doRequest() has been read to the end.
+	 * @return
+	 */
+	public long getResponseBytesReceived() {
+		return (wireCounter == null ? 0 : wireCounter.getCount());
+	}
+
+	/**
+	 * The number of bytes of the most recent response body which have been read so far
+	 * after decompression, which is the same as getResponseBytesReceived() if the server
+	 * didn't compress it.
+	 * @return
+	 */
+	public long getResponseBytesDecoded() {
+		return (decodedCounter == null ? 0 : decodedCounter.getCount());
+	}
+
 	/**
 	 * Interpret the URI in the string to set protocol, host, port & path for the next request.
 	 * If the URI only matches a path part then protocol/host/port will be unchanged. This call
@@ -348,6 +376,11 @@ public class AcalRequestor {
             Log.println(Constants.LOGV,TAG,"Interpreting '"+authRequestHeader+"'");
 
         String name;
+        String realm = null;
+        String nonce = null;
+        String opaque = null;
+        String qop = null;
+        String algorithm = null;
         for( HeaderElement he : authRequestHeader.getElements() ) {
             if ( debugThisRequest )
                 Log.println(Constants.LOGV,TAG,"Interpreting Element: '"+he.toString()+"' ("+he.getName()+":"+he.getValue()+")");
@@ -359,7 +392,7 @@ public class AcalRequestor {
                 algorithm = "md5";
                 name = name.substring(7);
                 if ( debugThisRequest )
-                    Log.println(Constants.LOGV,TAG,"Found '"+getAuthTypeName(authType)+"' auth, realm: "+authRealm);
+                    Log.println(Constants.LOGV,TAG,"Found '"+getAuthTypeName(authType)+"' auth");
             }
             else if ( name.length() > 6 && name.substring(0, 6).equalsIgnoreCase("Basic ") ) {
                 authType = Servers.AUTH_BASIC;
@@ -367,7 +400,7 @@ public class AcalRequestor {
             }
 
             if ( name.equalsIgnoreCase("realm") ) {
-                authRealm = he.getValue();
+                realm = he.getValue();
             }
             else if ( name.equalsIgnoreCase("nonce") ) {
                 nonce = he.getValue();
@@ -387,15 +420,28 @@ public class AcalRequestor {
                     Log.w(TAG, "Digest Auth requested algorithm of '"+he.getValue()+"' but we only support '"+algorithm+"'");
                 }
             }
+            else if ( name.equalsIgnoreCase("stale") ) {
+                // The nonce we sent has expired, which the new one replaces anyway.
+            }
             else {
                 Log.w(TAG, "Digest parameter of '"+name+"=\""+he.getValue()+"\"' is being ignored.");
             }
         }
 
+        if ( authType == Servers.AUTH_DIGEST ) {
+            // Keep this for any other requestors which will talk to this server
+            DigestAuthCache.put(digestCacheKey(), new DigestAuthCache.Challenge(realm, nonce, opaque, qop, algorithm));
+        }
+
         authRequired = true;
     }
 
 
+	private String digestCacheKey() {
+		return DigestAuthCache.key(protocol, hostName, port, username);
+	}
+
+
 	private String md5( String in ) {
 		// Create MD5 Hash
 		MessageDigest digest;
@@ -420,21 +466,30 @@ public class AcalRequestor {
 	}
 
 	
+	/**
+	 * Builds a Digest Authorization header from the most recent challenge this server has sent
+	 * to any requestor.
+	 * @return The header, or null if we haven't had a challenge yet, in which case we have to
+	 * send the request without one and wait for the 401.
+	 */
 	private Header digestAuthHeader() {
+		DigestAuthCache.Challenge challenge = DigestAuthCache.get(digestCacheKey());
+		if ( challenge == null ) return null;
+
 		String authValue;
-		String A1 = md5( username + ":" + authRealm + ":" + password);
+		String A1 = md5( username + ":" + challenge.realm + ":" + password);
 		String A2 = md5( method + ":" + path );
 		cnonce = md5(AcalConnectionPool.getUserAgent());
-		String printNC = String.format("%08x", ++authNC);
-		String responseString = A1+":"+nonce+":"+printNC+":"+cnonce+":auth:"+A2;
+		String printNC = challenge.nextNonceCount();
+		String responseString = A1+":"+challenge.nonce+":"+printNC+":"+cnonce+":auth:"+A2;
 		if ( debugThisRequest )
 			Log.println(Constants.LOGV,TAG, "DigestDebugging: '"+responseString+"'" );
 		String response = md5(responseString);
 		authValue = String.format("Digest realm=\"%s\", username=\"%s\", nonce=\"%s\", uri=\"%s\""
 					+ ", response=\"%s\", algorithm=\"%s\", cnonce=\"%s\", opaque=\"%s\", nc=\"%s\""
-					+ (qop == null ? "" : ", qop=\"auth\""),
-					authRealm, username, nonce, path,
-					response, algorithm, cnonce, opaque, printNC );
+					+ (challenge.qop == null ? "" : ", qop=\"auth\""),
+					challenge.realm, username, challenge.nonce, path,
+					response, challenge.algorithm, cnonce, challenge.opaque, printNC );
 		return new BasicHeader("Authorization", authValue );
 	}
 
@@ -510,7 +565,7 @@ public class AcalRequestor {
 		connectionTimeOut = newConnectionTimeOut;
 		if ( !initialised ) return;
 		AcalConnectionPool.setTimeOuts(socketTimeOut,connectionTimeOut);
-		httpClient = new DefaultHttpClient(connManager, httpParams);
+		httpClient = AcalConnectionPool.createHttpClient(connManager, httpParams);
 	}
 
 	
@@ -621,10 +676,21 @@ public class AcalRequestor {
 	}
 
 	private String entityToString(HttpEntity entity) {
-		InputStream in;
+		try {
+			return streamToString(entity.getContent());
+		}
+		catch ( IllegalStateException e ) {
+			Log.w(TAG,"Auto-generated catch block", e);
+		}
+		catch ( IOException e ) {
+			Log.w(TAG,"Auto-generated catch block", e);
+		}
+		return "";
+	}
+
+	private String streamToString(InputStream in) {
 		StringBuilder total = new StringBuilder();
 		try {
-			in = entity.getContent();
 			BufferedReader r = new BufferedReader(new InputStreamReader(in),AcalConnectionPool.DEFAULT_BUFFER_SIZE);
 			String line;
 			while ( (line = r.readLine()) != null ) {
@@ -632,15 +698,76 @@ public class AcalRequestor {
 			}
 			in.close();
 		}
-		catch ( IllegalStateException e ) {
-			Log.w(TAG,"Auto-generated catch block", e);
-		}
 		catch ( IOException e ) {
 			Log.w(TAG,"Auto-generated catch block", e);
 		}
 		return total.toString();
 	}
 
+
+	/**
+	 * Opens the body of the response, undoing any gzip or deflate Content-Encoding, and
+	 * counting the bytes as they are read both before and after that.
+	 * @param entity
+	 * @return
+	 * @throws IOException
+	 */
+	private InputStream openResponseStream(HttpEntity entity) throws IOException {
+		wireCounter = new CountingInputStream(entity.getContent());
+		decodedCounter = wireCounter;
+
+		Header encodingHeader = entity.getContentEncoding();
+		if ( encodingHeader == null || entity.getContentLength() == 0 ) return wireCounter;
+		String encoding = encodingHeader.getValue().trim();
+		InputStream decoded;
+		try {
+			if ( encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip") ) {
+				decoded = new GZIPInputStream(wireCounter, AcalConnectionPool.DEFAULT_BUFFER_SIZE);
+			}
+			else if ( encoding.equalsIgnoreCase("deflate") ) {
+				// This is supposed to be zlib-wrapped, but some servers send a raw deflate
+				// stream, so we look at the first two bytes to see if it has a zlib header.
+				InputStream in = new BufferedInputStream(wireCounter, AcalConnectionPool.DEFAULT_BUFFER_SIZE);
+				in.mark(2);
+				int b0 = in.read();
+				int b1 = in.read();
+				in.reset();
+				if ( b1 < 0 ) return in;
+				boolean zlib = (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+				decoded = new InflaterInputStream(in, new Inflater(!zlib), AcalConnectionPool.DEFAULT_BUFFER_SIZE);
+			}
+			else {
+				return wireCounter;
+			}
+		}
+		catch ( EOFException e ) {
+			// A compressed response with an empty body.  Closing it gives the connection back.
+			closeQuietly(wireCounter);
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		catch ( IOException e ) {
+			// Most likely a ZipException because the body isn't what the header says.  Nobody
+			// else has the stream yet, so we must close it or the connection is never released.
+			closeQuietly(wireCounter);
+			Log.i(TAG, "Could not decode response with Content-Encoding: "+encoding+": "+e.getMessage());
+			throw e;
+		}
+		if ( debugThisRequest )
+			Log.println(Constants.LOGD,TAG, "Decoding response with Content-Encoding: "+encoding);
+		decodedCounter = new CountingInputStream(decoded);
+		return decodedCounter;
+	}
+
+
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		}
+		catch ( IOException e ) {
+			// We were giving up on it anyway
+		}
+	}
+
 	
 	private void logEntityLines(int logLevel, String prefix, String entityString) {
 		for( String line : entityString.toString().split("\n") ) {
@@ -700,7 +827,14 @@ public class AcalRequestor {
 			return null;
 		}
 		
-		String entityString = entityToString(response.getEntity());
+		String entityString;
+		try {
+			entityString = streamToString(openResponseStream(response.getEntity()));
+		}
+		catch ( IOException e ) {
+			Log.w(TAG,"Auto-generated catch block", e);
+			entityString = "";
+		}
 		if (entityString != null) {
 			Log.println(logLevel,TAG, "----------------------- vvv Response Body vvv -----------------------" );
 			logEntityLines(logLevel, "R<  ", entityString);
@@ -734,9 +868,13 @@ public class AcalRequestor {
 			request = new DavRequest(method, this.fullUrl());
 //			request.addHeader(new BasicHeader("User-Agent", AcalConnectionPool.getUserAgent()));
 			if ( headers != null ) for (Header h : headers) request.addHeader(h);
+			if ( ("PROPFIND".equals(method) || "REPORT".equals(method)) && !request.containsHeader("Accept-Encoding") )
+				request.addHeader(ACCEPT_ENCODING);
 
-			if ( authRequired && authType != Servers.AUTH_NONE)
-				request.addHeader(buildAuthHeader());
+			if ( authRequired && authType != Servers.AUTH_NONE) {
+				Header authHeader = buildAuthHeader();
+				if ( authHeader != null ) request.addHeader(authHeader);
+			}
 			else if ( authRequired ) {
 				// Assume basicAuth
 				request.addHeader(basicAuthHeader());
@@ -748,14 +886,6 @@ public class AcalRequestor {
 			}
 			
 
-			// This trick greatly reduces the occurrence of host not found errors. 
-			try { InetAddress.getByName(this.hostName); } catch (UnknownHostException e1) {
-				Thread.sleep(100);
-				try { InetAddress.getByName(this.hostName); } catch (UnknownHostException e2) {
-					Thread.sleep(100);
-				}
-			}
-			
 			int requestPort = -1;
 			if ( this.protocol == null ) this.protocol = PROTOCOL_HTTP;
 			String requestProtocol = this.protocol;
@@ -775,6 +905,8 @@ public class AcalRequestor {
 			
 			// Send request and get response 
 			response = null;
+			wireCounter = null;
+			decodedCounter = null;
 
 			if ( Constants.debugHeap ) AcalDebug.heapDebug(TAG, "Making HTTP request");
 			try {
@@ -803,18 +935,11 @@ public class AcalRequestor {
 				return logResponse(Constants.LOGV);
 			}
 			else if (entity != null) {
-				if ( entity.getContentLength() > 0 ) return entity.getContent();
-
-				// Kind of admitting defeat here, but I can't track down why we seem
-				// to end up in never-never land if we just return entity.getContent()
-				// directly when entity.getContentLength() is -1 ('unknown', apparently).
-				// Horribly inefficient too.
-				//
-				// @todo: Check whether this problem was caused by failing to close the InputStream 
-				// and this hack can be removed...  Need to find a server which does not send Content-Length headers.
-				//
-				String tmpEntity = entityToString(entity);
-				return new ByteArrayInputStream( tmpEntity.getBytes() );
+				// This is handed straight on, whether or not we know the length, so the parser reads
+				// chunked responses as they arrive.  Closing it reads whatever is left and returns the
+				// connection to the pool, so whoever gets it must close it, including when we go round
+				// again for a 401 or a redirect.
+				return openResponseStream(entity);
 			}
 
 		}
@@ -907,6 +1032,8 @@ public class AcalRequestor {
     		if ( statusCode == 401 ) {
     			// In this case we didn't send auth credentials the first time, so
     			// we need to try again after we interpret the auth request.
+    			releaseResponse(result);
+    			result = null;
     			try {
     				interpretRequestedAuth(getAuthHeader());
     				return sendRequest( headers, entity );
@@ -929,6 +1056,8 @@ public class AcalRequestor {
                  *		307:  Temporary redirect. Meh.
                  */
                 if ( redirectCount++ < redirectLimit ) {
+        			releaseResponse(result);
+        			result = null;
         			String oldUrl = fullUrl();
         			interpretUriString(getLocationHeader());
         			if (debugThisRequest)
@@ -945,6 +1074,23 @@ public class AcalRequestor {
 	}
 
 	
+	/**
+	 * Finishes with the body of a response we aren't going to read, so that the connection
+	 * goes back to the pool rather than being held until it is garbage collected.  Anything
+	 * which calls doRequest() and doesn't close the stream it gets back should pass it here.
+	 * @param responseStream May be null.
+	 */
+	public void releaseResponse( InputStream responseStream ) {
+		if ( responseStream == null ) return;
+		try {
+			responseStream.close();
+		}
+		catch ( IOException e ) {
+			Log.i(TAG, "Error releasing response: "+e.getMessage());
+		}
+	}
+
+	
 	/**
 	 * <p>
 	 * Does an XML request against the specified path (or the previously set path, if null),
@@ -957,6 +1103,24 @@ public class AcalRequestor {
 	 * @throws SSLHandshakeException 
 	 */
 	public DavNode doXmlRequest( String method, String requestPath, Header[] headers, String xml) throws SSLHandshakeException {
+		return doXmlRequest(method, requestPath, headers, xml, null);
+	}
+
+	/**
+	 * As doXmlRequest(), but for a request which returns a multistatus, where each response is
+	 * passed to the handler as it is parsed and then thrown away, instead of the whole document
+	 * being built into a tree first.
+	 * 
+	 * @return The rest of the document, without the responses, or null if the request failed.
+	 * @throws SSLHandshakeException
+	 */
+	public DavNode doStreamingXmlRequest( String method, String requestPath, Header[] headers, String xml,
+				MultistatusResponseHandler handler) throws SSLHandshakeException {
+		return doXmlRequest(method, requestPath, headers, xml, handler);
+	}
+
+	private DavNode doXmlRequest( String method, String requestPath, Header[] headers, String xml,
+				MultistatusResponseHandler handler) throws SSLHandshakeException {
 		long start = System.currentTimeMillis();
 
 		InputStream responseStream = null;
@@ -980,7 +1144,10 @@ public class AcalRequestor {
 			if ( statusCode == 404 || statusCode == 401 ) {
 				return root;
 			}
-			root = DavParserFactory.buildTreeFromXml(Constants.XMLParseMethod, responseStream );
+			if ( handler == null )
+				root = DavParserFactory.buildTreeFromXml(Constants.XMLParseMethod, responseStream );
+			else
+				root = DavParserFactory.streamMultistatus(responseStream, handler);
 		}
 		catch (SSLHandshakeException e) 		{ throw e; }
 		catch (Exception e) {
@@ -993,7 +1160,8 @@ public class AcalRequestor {
 		}
 		
 		if (debugThisRequest)
-			Log.println(Constants.LOGV,TAG, "Request and parse completed in " + (System.currentTimeMillis() - start) + "ms");
+			Log.println(Constants.LOGV,TAG, "Request and parse completed in " + (System.currentTimeMillis() - start) + "ms, received "
+						+ getResponseBytesReceived() + " bytes for " + getResponseBytesDecoded() + " bytes of XML");
 		return root;
 	}
 
@@ -1007,8 +1175,9 @@ public class AcalRequestor {
 
 	public void setHostName(String hostIn) {
 		if ( hostIn == null ) throw new NullPointerException("May not set hostName to null");
-		// This trick greatly reduces the occurrence of host not found errors. 
-		try { InetAddress.getByName(hostIn); } catch (UnknownHostException e1) { }
+		// Starting the lookup early greatly reduces the occurrence of host not found errors, and
+		// the connection will find the result in the cache.
+		try { CachingHostNameResolver.getInstance().resolve(hostIn); } catch (IOException e1) { }
 		this.hostName = hostIn;
 	}
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.morphoss.acal.service.connector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.conn.scheme.HostNameResolver;
+
+import android.util.Log;
+
+import com.morphoss.acal.Constants;
+
+/**
+ * <p>
+ * Remembers the address of each server we connect to for a few minutes, so that opening a new
+ * connection doesn't mean another trip to a DNS server which, on a phone, is often slow or
+ * unreliable.  Android's own cache only holds addresses for a couple of seconds.
+ * </p>
+ * <p>
+ * A lookup which fails is tried once more after a short pause, which used to be done before every
+ * request, and if that fails too we will use an address we have seen before even though it has
+ * expired.  Failures themselves are not remembered.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public final class CachingHostNameResolver implements HostNameResolver {
+
+	private static final String TAG = "aCal CachingHostNameResolver";
+
+	private static final long TIME_TO_LIVE = 5 * 60 * 1000;	// 5 minutes
+	private static final long RETRY_PAUSE = 100;
+
+	private static final CachingHostNameResolver instance = new CachingHostNameResolver();
+
+	private final ConcurrentHashMap<String,Entry> addresses = new ConcurrentHashMap<String,Entry>();
+
+	private static final class Entry {
+		final InetAddress address;
+		final long expires;
+
+		Entry(InetAddress address) {
+			this.address = address;
+			this.expires = System.currentTimeMillis() + TIME_TO_LIVE;
+		}
+	}
+
+	private CachingHostNameResolver() {
+	}
+
+	public static CachingHostNameResolver getInstance() {
+		return instance;
+	}
+
+	@Override
+	public InetAddress resolve(String hostName) throws IOException {
+		Entry entry = addresses.get(hostName);
+		if ( entry != null && entry.expires > System.currentTimeMillis() ) return entry.address;
+
+		InetAddress address;
+		try {
+			address = lookup(hostName);
+		}
+		catch ( UnknownHostException e ) {
+			if ( entry == null ) throw e;
+			Log.i(TAG, "Lookup of "+hostName+" failed, using the expired address "+entry.address.getHostAddress());
+			return entry.address;
+		}
+		addresses.put(hostName, new Entry(address));
+		return address;
+	}
+
+	private InetAddress lookup(String hostName) throws UnknownHostException {
+		try {
+			return InetAddress.getByName(hostName);
+		}
+		catch ( UnknownHostException e ) {
+			if ( Constants.LOG_DEBUG )
+				Log.println(Constants.LOGD, TAG, "Lookup of "+hostName+" failed, retrying.");
+			try {
+				Thread.sleep(RETRY_PAUSE);
+			}
+			catch ( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+			return InetAddress.getByName(hostName);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.morphoss.acal.service.connector;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it, so we can tell how much of a response body has come over
+ * the wire and how much that was once it was decompressed.
+ *
+ * @author Morphoss Ltd
+ */
+final class CountingInputStream extends FilterInputStream {
+
+	private volatile long count = 0;
+	private long marked = 0;
+
+	CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * @return The number of bytes read so far.
+	 */
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if ( b >= 0 ) count++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int n = super.read(buffer, offset, length);
+		if ( n > 0 ) count += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		if ( skipped > 0 ) count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public synchronized void mark(int readLimit) {
+		super.mark(readLimit);
+		marked = count;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		super.reset();
+		count = marked;
+	}
+}
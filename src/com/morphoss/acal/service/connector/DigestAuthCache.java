@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.morphoss.acal.service.connector;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Remembers the most recent Digest challenge from each server, so that a new AcalRequestor can
+ * authenticate its first request instead of waiting to be sent a 401 with a fresh nonce.
+ * </p>
+ * <p>
+ * Every requestor using a challenge shares its nonce count, so no two requests go out with the
+ * same count against the same nonce, even when they are sent from different threads at once.
+ * When the server decides the nonce is stale it will send us another 401, and the new challenge
+ * replaces the old one here, with its count starting again.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+final class DigestAuthCache {
+
+	private static final ConcurrentHashMap<String,Challenge> challenges = new ConcurrentHashMap<String,Challenge>();
+
+	private DigestAuthCache() {
+	}
+
+	/**
+	 * The parameters of one WWW-Authenticate: Digest challenge.
+	 */
+	static final class Challenge {
+		final String realm;
+		final String nonce;
+		final String opaque;
+		final String qop;
+		final String algorithm;
+		private final AtomicInteger nonceCount = new AtomicInteger(0);
+
+		Challenge(String realm, String nonce, String opaque, String qop, String algorithm) {
+			this.realm = realm;
+			this.nonce = nonce;
+			this.opaque = opaque;
+			this.qop = qop;
+			this.algorithm = algorithm;
+		}
+
+		/**
+		 * @return The nc value for the next request using this nonce, formatted as it should be sent.
+		 */
+		String nextNonceCount() {
+			return String.format("%08x", nonceCount.incrementAndGet());
+		}
+	}
+
+	/**
+	 * @param key Identifies the server and user, as from key()
+	 * @return The last challenge we had for this key, or null if we haven't had one.
+	 */
+	static Challenge get(String key) {
+		return challenges.get(key);
+	}
+
+	/**
+	 * Replaces any challenge we had for this key.
+	 * @param key
+	 * @param challenge
+	 */
+	static void put(String key, Challenge challenge) {
+		challenges.put(key, challenge);
+	}
+
+	/**
+	 * @return The key to cache a challenge from this server, for this user, under.
+	 */
+	static String key(String protocol, String hostName, int port, String username) {
+		return protocol + "://" + username + "@" + hostName + ":" + port;
+	}
+}
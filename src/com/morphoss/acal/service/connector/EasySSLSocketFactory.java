@@ -71,7 +71,7 @@ public class EasySSLSocketFactory implements SocketFactory, LayeredSocketFactory
 			HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
 		int connTimeout = HttpConnectionParams.getConnectionTimeout(params);
 		int soTimeout = HttpConnectionParams.getSoTimeout(params);
-		InetSocketAddress remoteAddress = new InetSocketAddress(host, port);
+		InetSocketAddress remoteAddress = new InetSocketAddress(CachingHostNameResolver.getInstance().resolve(host), port);
 		SSLSocket sslsock = (SSLSocket) ((sock != null) ? sock : createSocket());
 
 		if ((localAddress != null) || (localPort > 0)) {
@@ -85,6 +85,10 @@ public class EasySSLSocketFactory implements SocketFactory, LayeredSocketFactory
 
 		sslsock.connect(remoteAddress, connTimeout);
 		sslsock.setSoTimeout(soTimeout);
+
+		// Do the handshake now, rather than on the first write, so that it is counted as part of
+		// opening the connection.
+		sslsock.startHandshake();
 		return sslsock;
 
 	}
@@ -31,6 +31,25 @@ public class DavParserFactory {
 		
 	}
 	
+	/**
+	 * Parses a multistatus document without ever holding all of it, handing each response to the
+	 * handler as soon as it has been read.  This is always done with SAX.
+	 * @param in
+	 * @param handler
+	 * @return The rest of the document (such as any sync-token), without the responses.
+	 */
+	public static DavNode streamMultistatus(InputStream in, MultistatusResponseHandler handler) {
+		if (in == null) return null;
+		DavNode root = null;
+		try {
+			root = SaxDavXmlTreeBuilder.streamMultistatus(in, handler);
+			in.close();
+		} catch (IOException e) {
+			Log.e(TAG,"IOException when parsing XML:\n"+Log.getStackTraceString(e));
+		}
+		return root;
+	}
+	
 	//Probably only used for debugging
 	public static DavNode buildTreeFromXml(PARSEMETHOD method, String xml) {
 		InputStream in = null;
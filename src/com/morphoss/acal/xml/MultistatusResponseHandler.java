@@ -0,0 +1,18 @@
+package com.morphoss.acal.xml;
+
+/**
+ * Receives the &lt;response&gt; elements of a multistatus document one at a time, as soon as
+ * each has been parsed, so that the whole document never needs to be held in memory at once.
+ * 
+ * @author Morphoss Ltd
+ */
+public interface MultistatusResponseHandler {
+
+	/**
+	 * Called for each multistatus/response element, in document order.
+	 * @param response The response, with everything inside it.  It is not part of the tree which the
+	 * parse returns, so it can be garbage collected as soon as this returns.
+	 */
+	public void response(DavNode response);
+
+}
@@ -23,6 +23,9 @@ public class SaxDavNode extends DavNode {
 	private String text;
 	private ArrayList<SaxDavNode> children;
 	private SaxDavNode parent;
+
+	//If set, completed multistatus/response nodes are passed here rather than kept
+	private MultistatusResponseHandler streamTo = null;
 	
 	public SaxDavNode() {
 		this.children = new ArrayList<SaxDavNode>();
@@ -33,11 +36,22 @@ public class SaxDavNode extends DavNode {
 			Log.v(TAG,"Created ROOT Node");
 		}
 	}
+
+	/**
+	 * Creates a ROOT node which will hand each multistatus/response to the handler as soon as it
+	 * is complete, rather than adding it to the tree.
+	 * @param streamTo
+	 */
+	public SaxDavNode(MultistatusResponseHandler streamTo) {
+		this();
+		this.streamTo = streamTo;
+	}
 	
 	private SaxDavNode(String tag, Attributes attributes, SaxDavNode parent) {
 		this.tagName = tag;
 		this.attributes = new HashMap<String,String>();
 		this.parent = parent;
+		this.streamTo = parent.streamTo;
 		this.children = new ArrayList<SaxDavNode>();
 		for (int i = 0; i<attributes.getLength(); i++) {
 			String name = attributes.getLocalName(i);
@@ -132,7 +146,10 @@ public class SaxDavNode extends DavNode {
 	    				childHandler.textbuffer = null;
 	    			}
 	    			inChild = false;
-	    	        SaxDavNode.this.children.add(child);
+	    			if ( streamTo != null && "response".equals(child.tagName) && "multistatus".equals(tagName) )
+	    				streamTo.response(child);
+	    			else
+	    				SaxDavNode.this.children.add(child);
 	    	        child = null;		
 	    		} else {
 	    			throw new SAXException("Malformed xml? Closing tag did not match opening tag");
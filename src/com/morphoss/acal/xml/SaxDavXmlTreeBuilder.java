@@ -16,8 +16,22 @@ public class SaxDavXmlTreeBuilder  {
 	public static final String TAG = "acal SaxDavXmlTreebuilder";
 	
 	public static SaxDavNode getXmlTree(InputStream xml) throws IOException {
+		  return parse(xml, new SaxDavNode());
+	}
+
+	/**
+	 * Parses a multistatus document, passing each response to the handler as it is read.
+	 * @param xml
+	 * @param handler
+	 * @return The rest of the document, without the responses.
+	 * @throws IOException
+	 */
+	public static SaxDavNode streamMultistatus(InputStream xml, MultistatusResponseHandler handler) throws IOException {
+		  return parse(xml, new SaxDavNode(handler));
+	}
+
+	private static SaxDavNode parse(InputStream xml, SaxDavNode root) throws IOException {
 		  SAXParserFactory factory = SAXParserFactory.newInstance();
-		  SaxDavNode root = new SaxDavNode();
 		  try {
 		        SAXParser saxParser = factory.newSAXParser();
 		        saxParser.parse( xml, root.getHandler() );
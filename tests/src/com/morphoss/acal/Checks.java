@@ -0,0 +1,68 @@
+package com.morphoss.acal;
+
+/**
+ * <p>
+ * Keeps count for the main() programs under tests/src, which check what they can against some
+ * other way of getting the same answer and then time it.  Each expectation either passes or is
+ * reported, up to MAX_REPORTED of them, and finish() prints the totals and exits with a non-zero
+ * status if any failed, so a script can run them one after another and stop at the first problem.
+ * </p>
+ * <p>
+ * Unless a class says otherwise, they run on an ordinary JVM with the compiled tests, bin/classes
+ * and android.jar on the classpath, e.g.:
+ * </p>
+ * <pre>
+ * java -cp tests/bin/classes:bin/classes:android.jar com.morphoss.acal.acaltime.CivilDateCheck
+ * </pre>
+ *
+ * @author Morphoss Ltd
+ */
+public class Checks {
+
+	private static final int	MAX_REPORTED	= 20;
+
+	private int	checked	= 0;
+	private int	failed	= 0;
+
+	/**
+	 * Counts a check, reporting it if it failed.
+	 * @param ok
+	 * @param failure What to report if it failed
+	 * @return ok
+	 */
+	public boolean expect( boolean ok, String failure ) {
+		checked++;
+		if ( ok ) return true;
+		failed++;
+		if ( failed <= MAX_REPORTED ) System.out.println("FAILED: "+failure);
+		return false;
+	}
+
+	/**
+	 * Counts a check that two things are equal, reporting them both if they aren't.
+	 * @param what Describes the check, should it fail
+	 * @param wanted
+	 * @param got
+	 * @return true if they are equal
+	 */
+	public boolean expectEqual( String what, Object wanted, Object got ) {
+		boolean ok = ( wanted == null ? got == null : wanted.equals(got) );
+		return expect(ok, ok ? null : what+": wanted "+wanted+", got "+got);
+	}
+
+	/**
+	 * @return The number of checks which have failed so far.
+	 */
+	public int failed() {
+		return failed;
+	}
+
+	/**
+	 * Prints the totals, and exits with a non-zero status if anything failed.  Anything which
+	 * should only happen once everything has passed, like timing, goes after this.
+	 */
+	public void finish() {
+		System.out.println(checked+" checks, "+failed+" failed.");
+		if ( failed > 0 ) System.exit(1);
+	}
+}
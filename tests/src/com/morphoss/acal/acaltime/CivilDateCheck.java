@@ -0,0 +1,210 @@
+package com.morphoss.acal.acaltime;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.morphoss.acal.Checks;
+
+/**
+ * <p>
+ * Checks AcalDateTime's conversions between seconds since epoch and year, month, day and time of
+ * day against a proleptic Gregorian java.util.GregorianCalendar in UTC: every day from 1800 to
+ * 2200, and every 97th day from MIN_EPOCH_VALUE to MAX_EPOCH_VALUE, which is a couple of decades
+ * short of MAX_YEAR_VALUE, since epochs beyond it are clamped.  Each day is converted both
+ * ways, with a random time of day, and addDays() is tried from it by a random amount so that the
+ * days overflowing the month are fixed up as well.
+ * </p>
+ * <p>
+ * Then each of the ways into the civil date arithmetic is timed over the same random instants,
+ * with GregorianCalendar doing the same thing alongside: converting an epoch to a date, adding
+ * days to a date, adding seconds to one and finding its day of the year.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public class CivilDateCheck {
+
+	private static final int	TIMING_CONVERSIONS	= 1000000;
+
+	private final Checks			checks		= new Checks();
+	private final GregorianCalendar	calendar	= utcCalendar();
+	private final Random			random		= new Random(42);
+
+	private long	first;
+	private long	last;
+
+	public static void main( String[] args ) {
+		CivilDateCheck check = new CivilDateCheck();
+		check.run();
+		check.checks.finish();
+		timeConversions();
+	}
+
+
+	private void run() {
+		first = Math.max(epochDay(AcalDateTime.MIN_YEAR_VALUE, 1, 1), AcalDateTime.MIN_EPOCH_VALUE / AcalDateTime.SECONDS_IN_DAY + 1);
+		last = Math.min(epochDay(AcalDateTime.MAX_YEAR_VALUE, 12, 31), AcalDateTime.MAX_EPOCH_VALUE / AcalDateTime.SECONDS_IN_DAY - 1);
+		long denseFrom = epochDay(1800, 1, 1);
+		long denseTo = epochDay(2200, 12, 31);
+		for( long day = first; day <= last; day += (day >= denseFrom && day <= denseTo ? 1 : 97) ) {
+			checkDay(day);
+		}
+		checkDay(last);
+	}
+
+
+	private void checkDay( long day ) {
+		long epoch = day * AcalDateTime.SECONDS_IN_DAY + random.nextInt(AcalDateTime.SECONDS_IN_DAY);
+		calendar.setTimeInMillis(epoch * 1000L);
+		int y = calendar.get(Calendar.YEAR);
+		int m = calendar.get(Calendar.MONTH) + 1;
+		int d = calendar.get(Calendar.DAY_OF_MONTH);
+		int hh = calendar.get(Calendar.HOUR_OF_DAY);
+		int mm = calendar.get(Calendar.MINUTE);
+		int ss = calendar.get(Calendar.SECOND);
+
+		// From the epoch to the fields
+		AcalDateTime fromEpoch = AcalDateTime.fromMillis(epoch * 1000L);
+		expect(epoch, "fields from epoch", fmt(y, m, d, hh, mm, ss), fields(fromEpoch));
+		expect(epoch, "year day", calendar.get(Calendar.DAY_OF_YEAR), (int) fromEpoch.getYearDay());
+
+		// From the fields to the epoch
+		AcalDateTime fromFields = new AcalDateTime(y, m, d, hh, mm, ss, AcalDateTime.UTC_NAME);
+		expect(epoch, "epoch from fields", epoch, fromFields.getEpoch());
+		expect(epoch, "epoch day from fields", day, new AcalDateTime(y, m, d, hh, mm, ss, null).getEpochDay());
+
+		// Adding days from the fields, which runs off the end of the month
+		int delta = random.nextInt(1500) - 750;
+		if ( day + delta < first || day + delta > last ) return;
+		calendar.add(Calendar.DAY_OF_MONTH, delta);
+		String wanted = fmt(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+					calendar.get(Calendar.DAY_OF_MONTH), hh, mm, ss);
+		expect(epoch, "add "+delta+" days", wanted, fields(new AcalDateTime(y, m, d, hh, mm, ss, null).addDays(delta)));
+	}
+
+
+	private void expect( long epoch, String what, Object wanted, Object got ) {
+		checks.expectEqual("epoch "+epoch+" "+what, wanted, got);
+	}
+
+
+	/**
+	 * Times each operation on random instants, three times over, printing the last.
+	 */
+	private static void timeConversions() {
+		Random random = new Random(7);
+		final long[] epochs = new long[TIMING_CONVERSIONS];
+		final int[] deltas = new int[TIMING_CONVERSIONS];
+		long range = AcalDateTime.MAX_EPOCH_VALUE - AcalDateTime.MIN_EPOCH_VALUE - 4000L * AcalDateTime.SECONDS_IN_DAY;
+		for( int i = 0; i < epochs.length; i++ ) {
+			epochs[i] = AcalDateTime.MIN_EPOCH_VALUE + 2000L * AcalDateTime.SECONDS_IN_DAY + (long) (random.nextDouble() * range);
+			deltas[i] = random.nextInt(1500) - 750;
+		}
+		final GregorianCalendar calendar = utcCalendar();
+
+		Timing[] timings = new Timing[] {
+			new Timing("epoch to date") {
+				long acal( int i ) {
+					AcalDateTime converted = AcalDateTime.fromMillis(epochs[i] * 1000L);
+					return converted.getYear() + converted.getMonth() + converted.getMonthDay();
+				}
+				long gregorian( int i ) {
+					calendar.setTimeInMillis(epochs[i] * 1000L);
+					return calendar.get(Calendar.YEAR) + calendar.get(Calendar.MONTH) + calendar.get(Calendar.DAY_OF_MONTH);
+				}
+			},
+			new Timing("add days") {
+				long acal( int i ) {
+					AcalDateTime date = AcalDateTime.fromMillis(epochs[i] * 1000L).addDays(deltas[i]);
+					return date.getYear() + date.getMonth() + date.getMonthDay();
+				}
+				long gregorian( int i ) {
+					calendar.setTimeInMillis(epochs[i] * 1000L);
+					calendar.add(Calendar.DAY_OF_MONTH, deltas[i]);
+					return calendar.get(Calendar.YEAR) + calendar.get(Calendar.MONTH) + calendar.get(Calendar.DAY_OF_MONTH);
+				}
+			},
+			new Timing("add seconds") {
+				long acal( int i ) {
+					AcalDateTime date = AcalDateTime.fromMillis(epochs[i] * 1000L).addSeconds(deltas[i] * 86399L);
+					return date.getYear() + date.getMonth() + date.getMonthDay();
+				}
+				long gregorian( int i ) {
+					calendar.setTimeInMillis(epochs[i] * 1000L);
+					calendar.add(Calendar.SECOND, deltas[i] * 86399);
+					return calendar.get(Calendar.YEAR) + calendar.get(Calendar.MONTH) + calendar.get(Calendar.DAY_OF_MONTH);
+				}
+			},
+			new Timing("day of year") {
+				long acal( int i ) {
+					return AcalDateTime.fromMillis(epochs[i] * 1000L).getYearDay();
+				}
+				long gregorian( int i ) {
+					calendar.setTimeInMillis(epochs[i] * 1000L);
+					return calendar.get(Calendar.DAY_OF_YEAR);
+				}
+			}
+		};
+
+		for( Timing timing : timings ) {
+			long acal = 0;
+			long gregorian = 0;
+			long sum = 0;
+			for( int pass = 0; pass < 3; pass++ ) {
+				long start = System.nanoTime();
+				for( int i = 0; i < epochs.length; i++ ) sum += timing.acal(i);
+				acal = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for( int i = 0; i < epochs.length; i++ ) sum += timing.gregorian(i);
+				gregorian = System.nanoTime() - start;
+			}
+			System.out.println(String.format("%s, %d times: AcalDateTime %.0fns, GregorianCalendar %.0fns, each (%d)",
+					timing.what, epochs.length, (double) acal / epochs.length, (double) gregorian / epochs.length, sum % 10));
+		}
+	}
+
+
+	/**
+	 * One operation, done by AcalDateTime and by GregorianCalendar on the i'th random instant,
+	 * each returning something from the result so that it can't be optimised away.
+	 */
+	private static abstract class Timing {
+		final String what;
+
+		Timing( String what ) {
+			this.what = what;
+		}
+
+		abstract long acal( int i );
+		abstract long gregorian( int i );
+	}
+
+
+	private static GregorianCalendar utcCalendar() {
+		GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+		return calendar;
+	}
+
+
+	private long epochDay( int y, int m, int d ) {
+		calendar.clear();
+		calendar.set(y, m - 1, d);
+		return calendar.getTimeInMillis() / 1000L / AcalDateTime.SECONDS_IN_DAY;
+	}
+
+
+	private static String fields( AcalDateTime dateTime ) {
+		return fmt(dateTime.getYear(), dateTime.getMonth(), dateTime.getMonthDay(),
+					dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond());
+	}
+
+
+	private static String fmt( int y, int m, int d, int hh, int mm, int ss ) {
+		return String.format("%04d-%02d-%02d %02d:%02d:%02d", y, m, d, hh, mm, ss);
+	}
+}
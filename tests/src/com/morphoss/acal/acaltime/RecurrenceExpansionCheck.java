@@ -0,0 +1,241 @@
+package com.morphoss.acal.acaltime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.morphoss.acal.Checks;
+import com.morphoss.acal.database.cachemanager.CacheObject;
+import com.morphoss.acal.davacal.AcalProperty;
+import com.morphoss.acal.davacal.Masterable;
+import com.morphoss.acal.davacal.PropertyName;
+import com.morphoss.acal.davacal.VCalendar;
+import com.morphoss.acal.davacal.VComponent;
+
+/**
+ * <p>
+ * Checks that the epoch cursor in AcalRepeatRule gives the same instances when it is started part
+ * way through with seek() as it does when it walks through the rule from DTSTART, and that walking
+ * through from DTSTART gives what we expect for some rules which have caught us out before.  Also
+ * checks that the instances found for a window of time, which start from a seek(), are the same as
+ * those found by expanding the whole event, including overrides which have been moved.
+ * </p>
+ * <p>
+ * Failures are reported with the master event's properties on one line, followed by the instances
+ * wanted and got, as iCalendar date-times.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public class RecurrenceExpansionCheck {
+
+	/** Nothing we check goes on past this, so unbounded rules are cut off here. */
+	private static final long	EXPANSION_END	= AcalDateTime.fromIcalendar("20150101T000000", null, "UTC").getEpoch();
+
+	private final Checks	checks	= new Checks();
+
+	public static void main( String[] args ) {
+		RecurrenceExpansionCheck check = new RecurrenceExpansionCheck();
+		check.run();
+		check.checks.finish();
+	}
+
+
+	private void run() {
+		// An RDATE which the rule also generates is only returned once.
+		expect("DTSTART:20090101T150000\r\nRRULE:FREQ=DAILY;COUNT=10\r\nRDATE:20090104T150000\r\n",
+				"20090101T150000", "20090102T150000", "20090103T150000", "20090104T150000", "20090105T150000",
+				"20090106T150000", "20090107T150000", "20090108T150000", "20090109T150000", "20090110T150000");
+
+		// RDATEs before DTSTART are instances too, and come before it.
+		expect("DTSTART:20090101T150000\r\nRRULE:FREQ=DAILY;COUNT=3\r\nRDATE:20081230T090000,20081225T150000\r\n",
+				"20081225T150000", "20081230T090000", "20090101T150000", "20090102T150000", "20090103T150000");
+
+		// An EXDATE can remove one of them, and an RDATE repeated or the same as DTSTART is only returned once.
+		expect("DTSTART:20090101T150000\r\nRRULE:FREQ=DAILY;COUNT=2\r\n"
+					+"RDATE:20081225T150000,20081230T090000,20081230T090000,20090101T150000\r\nEXDATE:20081225T150000\r\n",
+				"20081230T090000", "20090101T150000", "20090102T150000");
+
+		// An RDATE between the rule's instances.
+		expect("DTSTART:20090101T150000\r\nRRULE:FREQ=DAILY;COUNT=3\r\nRDATE:20090104T120000\r\n",
+				"20090101T150000", "20090102T150000", "20090103T150000", "20090104T120000");
+
+		String[] rules = {
+				"FREQ=DAILY",
+				"FREQ=DAILY;COUNT=400",
+				"FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH",
+				"FREQ=WEEKLY;UNTIL=20120630T000000Z",
+				"FREQ=MONTHLY;BYDAY=2TU",
+				"FREQ=MONTHLY;BYMONTHDAY=31",
+				"FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29",
+				"FREQ=YEARLY;COUNT=5"
+		};
+		String[] extras = {
+				"",
+				"RDATE;TZID=Pacific/Auckland:20081220T093000,20100303T120000,20130101T093000\r\n",
+				"EXDATE;TZID=Pacific/Auckland:20100111T093000,20110110T093000\r\n"
+		};
+		for( String rule : rules ) {
+			for( String extra : extras ) {
+				checkSeek("DTSTART;TZID=Pacific/Auckland:20090105T093000\r\nRRULE:"+rule+"\r\n"+extra);
+			}
+		}
+
+		// Overrides moved a long way later, and earlier, than their RECURRENCE-ID, and one made longer.
+		String overrides = "BEGIN:VEVENT\r\nUID:check\r\nDTSTAMP:20110101T000000Z\r\n"
+					+"RECURRENCE-ID;TZID=Pacific/Auckland:20100104T093000\r\n"
+					+"DTSTART;TZID=Pacific/Auckland:20100125T140000\r\nDURATION:PT1H\r\nEND:VEVENT\r\n"
+				+"BEGIN:VEVENT\r\nUID:check\r\nDTSTAMP:20110101T000000Z\r\n"
+					+"RECURRENCE-ID;TZID=Pacific/Auckland:20100308T093000\r\n"
+					+"DTSTART;TZID=Pacific/Auckland:20100212T093000\r\nDURATION:PT1H\r\nEND:VEVENT\r\n"
+				+"BEGIN:VEVENT\r\nUID:check\r\nDTSTAMP:20110101T000000Z\r\n"
+					+"RECURRENCE-ID;TZID=Pacific/Auckland:20100405T093000\r\n"
+					+"DTSTART;TZID=Pacific/Auckland:20100405T093000\r\nDURATION:P3D\r\nEND:VEVENT\r\n";
+		checkWindows("DTSTART;TZID=Pacific/Auckland:20090105T093000\r\nRRULE:FREQ=WEEKLY\r\n", overrides);
+		checkWindows("DTSTART;TZID=Pacific/Auckland:20090105T093000\r\nRRULE:FREQ=DAILY;BYDAY=MO,WE\r\n"
+					+"RDATE;TZID=Pacific/Auckland:20081220T093000\r\n", overrides);
+		checkWindows("DTSTART;TZID=Pacific/Auckland:20090105T093000\r\nRRULE:FREQ=MONTHLY;BYDAY=1MO,2MO\r\n", overrides);
+	}
+
+
+	/**
+	 * Checks that the cursor walks through exactly these instances, in this order, and that seek()
+	 * agrees with it.
+	 */
+	private void expect( String master, String... instances ) {
+		AcalRepeatRule rule = ruleFor(master);
+		List<Long> got = expandFrom(rule, null);
+		List<Long> wanted = new ArrayList<Long>(instances.length);
+		for( String instance : instances )
+			wanted.add(AcalDateTime.fromIcalendar(instance, null, null).getEpoch());
+		compare(master, "full expansion", wanted, got);
+		checkSeek(master);
+	}
+
+
+	/**
+	 * Checks that seeking to each instance, and to either side of it, gives the same instances
+	 * from there on as walking through the whole rule does.
+	 */
+	private void checkSeek( String master ) {
+		AcalRepeatRule rule = ruleFor(master);
+		List<Long> full = expandFrom(rule, null);
+		if ( !checks.expect(!full.isEmpty(), failure(master, "no instances at all")) ) return;
+		for( int i = 0; i < full.size(); i++ ) {
+			if ( i > 5 && i < full.size() - 5 && i % 7 != 0 ) continue;
+			long epoch = full.get(i);
+			for( long target = epoch - 1; target <= epoch + 1; target++ ) {
+				compare(master, "seek to "+fmt(target), after(full, target), expandFrom(rule, target));
+			}
+		}
+	}
+
+
+	/**
+	 * Checks that the instances found for each of a series of day-long windows are the ones from
+	 * a single expansion of the whole event which are in that window, either where the rule put
+	 * them or where an override has moved them to.
+	 */
+	private void checkWindows( String master, String overrides ) {
+		VCalendar vCal = calendarFor(masterEvent(master)+overrides);
+		HashMap<Long,Masterable> moved = new HashMap<Long,Masterable>();
+		for( VComponent child : vCal.getChildren() ) {
+			AcalProperty recurrenceId = child.getProperty(PropertyName.RECURRENCE_ID);
+			if ( recurrenceId != null ) moved.put(AcalDateTime.fromAcalProperty(recurrenceId).getMillis(), (Masterable) child);
+		}
+
+		AcalRepeatRule rule = AcalRepeatRule.fromVCalendar(vCal, 1, 1);
+		List<CacheObject> all = new ArrayList<CacheObject>();
+		rule.appendCacheEventInstancesBetween(all, new AcalDateRange(AcalDateTime.fromMillis(0),
+					AcalDateTime.fromMillis(EXPANSION_END * 1000L)));
+
+		long day = AcalDateTime.SECONDS_IN_DAY * 1000L;
+		long from = AcalDateTime.fromIcalendar("20091201T000000", null, "UTC").getMillis();
+		long until = AcalDateTime.fromIcalendar("20100501T000000", null, "UTC").getMillis();
+		for( long start = from; start < until; start += day ) {
+			List<String> wanted = new ArrayList<String>();
+			for( CacheObject instance : all ) {
+				Masterable override = moved.get(instance.getStart());
+				if ( (instance.getEnd() > start && instance.getStart() < start + day) || (override != null
+							&& override.getEnd().getMillis() > start && override.getStart().getMillis() < start + day) )
+					wanted.add(instance.getRecurrenceId());
+			}
+
+			List<CacheObject> found = new ArrayList<CacheObject>();
+			rule.appendCacheEventInstancesBetween(found, new AcalDateRange(AcalDateTime.fromMillis(start),
+						AcalDateTime.fromMillis(start + day)));
+			List<String> got = new ArrayList<String>();
+			for( CacheObject instance : found ) got.add(instance.getRecurrenceId());
+
+			boolean ok = wanted.equals(got);
+			checks.expect(ok, ok ? null : failure(master, "window from "+fmt(start / 1000L)+"\n    wanted: "+wanted+"\n    got:    "+got));
+		}
+	}
+
+
+	/**
+	 * Walks through the rule from the start, or from seek(target), returning the instances
+	 * which start at or after the target.
+	 */
+	private static List<Long> expandFrom( AcalRepeatRule rule, Long target ) {
+		if ( target == null )
+			rule.rewind();
+		else
+			rule.seek(AcalDateTime.fromMillis(target * 1000L));
+		List<Long> result = new ArrayList<Long>();
+		while( rule.hasNextEpoch() ) {
+			long epoch = rule.nextEpoch();
+			if ( epoch >= EXPANSION_END ) break;
+			if ( target == null || epoch >= target ) result.add(epoch);
+		}
+		return result;
+	}
+
+
+	private static List<Long> after( List<Long> full, long target ) {
+		List<Long> result = new ArrayList<Long>();
+		for( long epoch : full ) {
+			if ( epoch >= target ) result.add(epoch);
+		}
+		return result;
+	}
+
+
+	static VCalendar calendarFor( String components ) {
+		return (VCalendar) VComponent.createComponentFromBlob("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"
+					+components+"END:VCALENDAR\r\n");
+	}
+
+
+	private static String masterEvent( String master ) {
+		return "BEGIN:VEVENT\r\nUID:check\r\nDTSTAMP:20110101T000000Z\r\nDURATION:PT1H\r\n"+master+"END:VEVENT\r\n";
+	}
+
+
+	private static AcalRepeatRule ruleFor( String master ) {
+		return AcalRepeatRule.fromVCalendar(calendarFor(masterEvent(master)), 1, 1);
+	}
+
+
+	private void compare( String master, String what, List<Long> wanted, List<Long> got ) {
+		if ( wanted.equals(got) ) {
+			checks.expect(true, null);
+			return;
+		}
+		StringBuilder message = new StringBuilder(what).append("\n    wanted:");
+		for( long epoch : wanted ) message.append(' ').append(fmt(epoch));
+		message.append("\n    got:   ");
+		for( long epoch : got ) message.append(' ').append(fmt(epoch));
+		checks.expect(false, failure(master, message.toString()));
+	}
+
+
+	private static String failure( String master, String message ) {
+		return master.replace("\r\n", " ")+"\n  "+message;
+	}
+
+
+	private static String fmt( long epoch ) {
+		return AcalDateTime.fromMillis(epoch * 1000L).fmtIcal();
+	}
+}
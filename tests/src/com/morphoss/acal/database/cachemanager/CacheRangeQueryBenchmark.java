@@ -0,0 +1,252 @@
+package com.morphoss.acal.database.cachemanager;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TimeZone;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.morphoss.acal.Checks;
+import com.morphoss.acal.database.AcalDBHelper;
+import com.morphoss.acal.database.cachemanager.CacheManager.CacheTableManager;
+
+/**
+ * <p>
+ * Checks and times the range queries on event_cache.  The table is created in memory from the same
+ * SQL as AcalDBHelper uses, and filled with ten years of events, a fifth of them floating, one in a
+ * thousand running for weeks, and some todos with no dates at all.  Each query asks for the events in
+ * one week, as the week view does, three ways: with the OR clauses which worked out floating offsets
+ * as they went, before utc_start and utc_end were added; bounded only by the end of the range, as
+ * when they were first added; and with getRangeWhereClause() as it is now, bounded at both ends.
+ * </p>
+ * <p>
+ * The plans for getRangeWhereClause(), with and without a resource type, must search the index on
+ * utc_start from both sides and find the long instances from their own index, without scanning the
+ * table, and every query must find the same rows as the one bounded only at the end.  The old OR
+ * clauses are only timed, since they used the offset at the start of the range for every floating
+ * time and so may find a row or two more or less near a daylight saving change.
+ * </p>
+ * <p>
+ * This needs Android's SQLite, so it must be run on a device or emulator, where app_process will run
+ * a main() directly:
+ * </p>
+ * <pre>
+ * dx --dex --output=/tmp/bench.jar bin/classes tests/bin/classes
+ * adb push /tmp/bench.jar /data/local/tmp/
+ * adb shell CLASSPATH=/data/local/tmp/bench.jar app_process / com.morphoss.acal.database.cachemanager.CacheRangeQueryBenchmark [rows]
+ * </pre>
+ *
+ * @author Morphoss Ltd
+ */
+public class CacheRangeQueryBenchmark {
+
+	private static final long	WEEK		= 7L * 86400000L;
+	private static final long	FIRST_START	= 1262304000000L;	// 2010-01-01
+	private static final long	SPAN		= 520 * WEEK;
+	private static final int	QUERIES		= 200;
+
+	private static final String	OR_CLAUSE	= "( "
+			+ "( dtend > ? AND NOT dtendfloat ) OR ( dtend - ? > ? AND dtendfloat ) OR ( dtend ISNULL )"
+			+ " ) AND ( "
+			+ "( dtstart < ? AND NOT dtstartfloat ) OR ( dtstart - ? < ? AND dtstartfloat ) OR ( dtstart ISNULL )"
+			+ ") AND resource_type = ?";
+
+	private static final String	END_BOUNDED_CLAUSE	= "resource_type = ? AND utc_start < ? AND utc_end > ?";
+
+	private static final String	TYPE	= CacheTableManager.RESOURCE_TYPE_VEVENT;
+
+	private final Checks			checks	= new Checks();
+	private final SQLiteDatabase	db;
+
+	private CacheRangeQueryBenchmark( SQLiteDatabase db ) {
+		this.db = db;
+	}
+
+	public static void main( String[] args ) {
+		int rows = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+		SQLiteDatabase db = SQLiteDatabase.create(null);
+		try {
+			db.execSQL(AcalDBHelper.RESOURCE_CACHE_TABLE_SQL);
+			db.execSQL(AcalDBHelper.RESOURCE_CACHE_START_INDEX_SQL);
+			db.execSQL(AcalDBHelper.RESOURCE_CACHE_UTC_INDEX_SQL);
+			db.execSQL(AcalDBHelper.RESOURCE_CACHE_LONG_INDEX_SQL);
+			fill(db, rows);
+
+			CacheRangeQueryBenchmark benchmark = new CacheRangeQueryBenchmark(db);
+			benchmark.checkPlans();
+			benchmark.checkRows();
+			benchmark.checks.finish();
+			benchmark.time(rows);
+		}
+		finally {
+			db.close();
+		}
+	}
+
+
+	private void checkPlans() {
+		long weekStart = FIRST_START + SPAN / 2;
+		String typed = plan(CacheManager.getRangeWhereClause(TYPE), CacheManager.getRangeWhereArgs(TYPE, weekStart, weekStart + WEEK));
+		String untyped = plan(CacheManager.getRangeWhereClause(null), CacheManager.getRangeWhereArgs(null, weekStart, weekStart + WEEK));
+
+		checks.expect(!typed.contains("SCAN"), "typed query scans: "+typed);
+		checks.expect(typed.contains("event_cache_start_idx (resource_type=? AND utc_start>? AND utc_start<?)"),
+				"typed query doesn't search utc_start from both sides: "+typed);
+		checks.expect(typed.contains("event_cache_long_idx (long_instance=?"), "typed query doesn't use the long instance index: "+typed);
+
+		checks.expect(!untyped.contains("SCAN"), "untyped query scans: "+untyped);
+		checks.expect(untyped.contains("event_cache_utc_idx (utc_start>? AND utc_start<?)"),
+				"untyped query doesn't search utc_start from both sides: "+untyped);
+		checks.expect(untyped.contains("event_cache_long_idx (long_instance=?"), "untyped query doesn't use the long instance index: "+untyped);
+		System.out.println("Typed plan: "+typed+"\nUntyped plan: "+untyped);
+	}
+
+
+	private void checkRows() {
+		for( long weekStart = FIRST_START - WEEK; weekStart < FIRST_START + SPAN + WEEK; weekStart += WEEK ) {
+			HashSet<Long> wanted = ids(END_BOUNDED_CLAUSE, endBoundedArgs(weekStart));
+			HashSet<Long> got = ids(CacheManager.getRangeWhereClause(TYPE), CacheManager.getRangeWhereArgs(TYPE, weekStart, weekStart + WEEK));
+			checks.expectEqual("rows in the week from "+weekStart, wanted, got);
+		}
+	}
+
+
+	private void time( int rows ) {
+		// Once each to warm up, then the real thing
+		timeQueries(OR_CLAUSE, 10);
+		timeQueries(END_BOUNDED_CLAUSE, 10);
+		timeQueries(null, 10);
+		long[] orClauses = timeQueries(OR_CLAUSE, QUERIES);
+		long[] endBounded = timeQueries(END_BOUNDED_CLAUSE, QUERIES);
+		long[] bounded = timeQueries(null, QUERIES);
+
+		System.out.println(String.format("%d rows, %d one-week queries, each: OR clauses %.3fms finding %d rows,"
+					+ " bounded by the end %.3fms finding %d rows, bounded at both ends %.3fms finding %d rows",
+					rows, QUERIES, orClauses[0] / 1000000.0 / QUERIES, orClauses[1], endBounded[0] / 1000000.0 / QUERIES,
+					endBounded[1], bounded[0] / 1000000.0 / QUERIES, bounded[1]));
+	}
+
+
+	private static void fill( SQLiteDatabase db, int rows ) {
+		TimeZone tz = TimeZone.getDefault();
+		Random random = new Random(42);
+		SQLiteStatement insert = db.compileStatement("INSERT INTO event_cache (resource_id, resource_type, summary,"
+				+ " dtstart, dtend, dtstartfloat, dtendfloat, utc_start, utc_end, long_instance) VALUES (?,?,?,?,?,?,?,?,?,?)");
+		db.beginTransaction();
+		try {
+			for( int i = 0; i < rows; i++ ) {
+				insert.bindLong(1, i);
+				insert.bindString(3, "Event "+i);
+				if ( i % 50 == 0 ) {
+					// A todo without dates, which the old clauses matched through ISNULL
+					insert.bindString(2, CacheTableManager.RESOURCE_TYPE_VTODO);
+					insert.bindNull(4);
+					insert.bindNull(5);
+					insert.bindLong(6, 0);
+					insert.bindLong(7, 0);
+					insert.bindLong(8, Long.MAX_VALUE);
+					insert.bindLong(9, Long.MAX_VALUE);
+					insert.bindLong(10, 1);
+				}
+				else {
+					boolean floating = (i % 5 == 0);
+					long start = FIRST_START + (long) (random.nextDouble() * SPAN) / 900000L * 900000L;
+					long end = start + (i % 997 == 0 ? random.nextInt(60) * 86400000L : (1 + random.nextInt(8)) * 1800000L);
+					long utcStart = (floating ? start - tz.getOffset(start) : start);
+					long utcEnd = (floating ? end - tz.getOffset(end) : end);
+					insert.bindString(2, TYPE);
+					insert.bindLong(4, start);
+					insert.bindLong(5, end);
+					insert.bindLong(6, floating ? 1 : 0);
+					insert.bindLong(7, floating ? 1 : 0);
+					insert.bindLong(8, utcStart);
+					insert.bindLong(9, utcEnd);
+					insert.bindLong(10, CacheObject.isLongInstance(utcStart, utcEnd) ? 1 : 0);
+				}
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		}
+		finally {
+			db.endTransaction();
+			insert.close();
+		}
+	}
+
+
+	/**
+	 * @param clause The clause to time, or null for getRangeWhereClause()
+	 * @return The total nanoseconds taken, and the total number of rows found.
+	 */
+	private long[] timeQueries( String clause, int queries ) {
+		Random random = new Random(7);
+		long nanos = 0;
+		long found = 0;
+		for( int i = 0; i < queries; i++ ) {
+			long weekStart = FIRST_START + random.nextInt((int) (SPAN / WEEK)) * WEEK;
+			String where = clause;
+			String[] args;
+			if ( clause == null ) {
+				where = CacheManager.getRangeWhereClause(TYPE);
+				args = CacheManager.getRangeWhereArgs(TYPE, weekStart, weekStart + WEEK);
+			}
+			else
+				args = (clause == OR_CLAUSE ? orArgs(weekStart) : endBoundedArgs(weekStart));
+			long start = System.nanoTime();
+			Cursor c = db.query("event_cache", null, where, args, null, null, (clause == OR_CLAUSE ? "dtstart" : "utc_start")+" ASC");
+			try {
+				while( c.moveToNext() ) found++;
+			}
+			finally {
+				c.close();
+			}
+			nanos += System.nanoTime() - start;
+		}
+		return new long[] { nanos, found };
+	}
+
+
+	private static String[] orArgs( long weekStart ) {
+		String offset = Integer.toString(TimeZone.getDefault().getOffset(weekStart));
+		String start = Long.toString(weekStart);
+		String end = Long.toString(weekStart + WEEK);
+		return new String[] { start, offset, start, end, offset, end, TYPE };
+	}
+
+
+	private static String[] endBoundedArgs( long weekStart ) {
+		return new String[] { TYPE, Long.toString(weekStart + WEEK), Long.toString(weekStart) };
+	}
+
+
+	private HashSet<Long> ids( String clause, String[] args ) {
+		HashSet<Long> ids = new HashSet<Long>();
+		Cursor c = db.query("event_cache", new String[] { "_id" }, clause, args, null, null, null);
+		try {
+			while( c.moveToNext() ) ids.add(c.getLong(0));
+		}
+		finally {
+			c.close();
+		}
+		return ids;
+	}
+
+
+	/**
+	 * @return The details of each step of the query plan, one to a line.
+	 */
+	private String plan( String clause, String[] args ) {
+		StringBuilder plan = new StringBuilder();
+		Cursor c = db.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM event_cache WHERE "+clause, args);
+		try {
+			int detail = c.getColumnIndexOrThrow("detail");
+			while( c.moveToNext() ) plan.append(plan.length() == 0 ? "" : "; ").append(c.getString(detail));
+		}
+		finally {
+			c.close();
+		}
+		return plan.toString();
+	}
+}
@@ -0,0 +1,245 @@
+package com.morphoss.acal.davacal;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.morphoss.acal.Checks;
+
+/**
+ * <p>
+ * Checks that VComponent's single pass parser finds the same components and properties as the
+ * parser it replaced, which unfolded the whole blob with a regular expression and then searched
+ * it for BEGIN and END.  Each blob is parsed and dumped, one line for each BEGIN, END and property
+ * as toRfcString() writes it, and the dump is compared with the old parser's, which is kept in
+ * ComponentParserFixtures.  Blobs with folding in awkward places, bare newlines, lower case
+ * BEGIN/END, nested components and lots of randomly folded events are all tried, the random ones
+ * compared by the SHA-1 of their dump to keep the fixtures to a sensible size.
+ * </p>
+ * <p>
+ * Where the old parser was wrong, it is given an equivalent blob which it gets right: folds made
+ * with a tab, which it didn't unfold, are made with a space; blank lines, which it made into empty
+ * properties, are left out; and a property after a child component, which it lost, is moved before
+ * it.  A BEGIN or END at the start of a folded line it takes for a component wherever it is, so
+ * that blob is only checked for the properties it should have.
+ * </p>
+ * <p>
+ * ComponentParserFixtures.BASELINE is written by running this with --capture against the classes
+ * built from the tree before the single pass parser.  Once everything has passed, the time to
+ * parse a large calendar and look at every property of every component in it is measured.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public class ComponentParserCheck {
+
+	private static final int	TIMING_EVENTS	= 500;
+	private static final int	TIMING_PARSES	= 50;
+	private static final int	RANDOM_BLOBS	= 200;
+	private static final String	FOLDED_BEGIN	= "folded BEGIN and END";
+
+	private final Checks	checks	= new Checks();
+
+	public static void main( String[] args ) {
+		if ( args.length > 0 && args[0].equals("--capture") ) {
+			capture();
+			return;
+		}
+		ComponentParserCheck check = new ComponentParserCheck();
+		check.run();
+		check.checks.finish();
+		timeParser();
+	}
+
+
+	/**
+	 * The blobs to parse, by name, always the same ones in the same order, each with the equivalent
+	 * blob to give the old parser, or null if there isn't one.
+	 */
+	private static Map<String,String[]> blobs() {
+		Map<String,String[]> blobs = new LinkedHashMap<String,String[]>();
+		String event = "BEGIN:VEVENT\r\nUID:simple\r\nDTSTAMP:20110101T000000Z\r\nDTSTART:20110101T090000Z\r\n"
+				+ "SUMMARY:Simple\r\nEND:VEVENT\r\n";
+		put(blobs, "simple", calendar(event));
+		put(blobs, "bare newlines", calendar(event).replace("\r\n", "\n"));
+		put(blobs, "no final newline", "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"+event+"END:VCALENDAR");
+		blobs.put("blank lines", new String[] { calendar(event.replace("SUMMARY", "\r\n\r\nSUMMARY")), calendar(event) });
+		put(blobs, "lower case", calendar(event.replace("BEGIN:VEVENT", "begin:VEVENT").replace("END:VEVENT", "End:VEVENT")));
+
+		put(blobs, "folded with spaces", calendar("BEGIN:VEVENT\r\nUID:folds\r\n"
+				+ "DESCRIPTION:A long description which goes on\r\n  and on,\r\n and on.\r\n"
+				+ "ATTENDEE;CN=\"Some\r\n one\";ROLE=REQ-PARTICIPANT:mailto:some\r\n one@example.com\r\n"
+				+ "END:VEVENT\r\n"));
+
+		put(blobs, "folded with tabs", calendar("BEGIN:VEVENT\r\nUID:tabs\r\n"
+				+ "DESCRIPTION:A long description which goes on\r\n\tand on.\r\n"
+				+ "END:VEVENT\r\n"));
+
+		blobs.put(FOLDED_BEGIN, new String[] { calendar("BEGIN:VEVENT\r\nUID:folded-begin\r\n"
+				+ "SUMMARY:Not a component\r\n BEGIN:VALARM\r\n"
+				+ "LOCATION:Nor is this\r\n END:VEVENT\r\n"
+				+ "END:VEVENT\r\n"), null });
+
+		String timezone = "BEGIN:VTIMEZONE\r\nTZID:Pacific/Auckland\r\n"
+				+ "BEGIN:STANDARD\r\nDTSTART:19700405T030000\r\nTZOFFSETFROM:+1300\r\nTZOFFSETTO:+1200\r\n"
+				+ "RRULE:FREQ=YEARLY;BYMONTH=4;BYDAY=1SU\r\nEND:STANDARD\r\n"
+				+ "BEGIN:DAYLIGHT\r\nDTSTART:19700927T020000\r\nTZOFFSETFROM:+1200\r\nTZOFFSETTO:+1300\r\n"
+				+ "RRULE:FREQ=YEARLY;BYMONTH=9;BYDAY=-1SU\r\nEND:DAYLIGHT\r\nEND:VTIMEZONE\r\n";
+		String alarm = "BEGIN:VALARM\r\nACTION:DISPLAY\r\nTRIGGER:-PT15M\r\nDESCRIPTION:Soon\r\nEND:VALARM\r\n";
+		String todo = "BEGIN:VTODO\r\nUID:todo\r\nSUMMARY:Something to do\r\nEND:VTODO\r\n";
+		String nestedEvent = "BEGIN:VEVENT\r\nUID:nested\r\nDTSTART;TZID=Pacific/Auckland:20110101T090000\r\n";
+		blobs.put("nested", new String[] {
+				calendar(timezone + nestedEvent + alarm + "SUMMARY:After the alarm\r\nEND:VEVENT\r\n" + todo),
+				calendar(timezone + nestedEvent + "SUMMARY:After the alarm\r\n" + alarm + "END:VEVENT\r\n" + todo) });
+
+		Random random = new Random(42);
+		for( int i = 0; i < RANDOM_BLOBS; i++ ) put(blobs, "random "+i, calendar(randomEvents(random, 1 + random.nextInt(5))));
+		return blobs;
+	}
+
+
+	/**
+	 * Adds a blob which the old parser gets right once its folds are all made with a space.
+	 */
+	private static void put( Map<String,String[]> blobs, String name, String blob ) {
+		blobs.put(name, new String[] { blob, blob.replace("\r\n\t", "\r\n ").replace("\n\t", "\n ") });
+	}
+
+
+	private void run() {
+		Map<String,String> wanted = ComponentParserFixtures.expected();
+		for( Map.Entry<String,String[]> blob : blobs().entrySet() ) {
+			String name = blob.getKey();
+			VComponent parsed = VComponent.createComponentFromBlob(blob.getValue()[0]);
+			if ( blob.getValue()[1] == null ) continue;
+			String dump = dump(parsed);
+			String expected = wanted.get(name);
+			if ( !checks.expect(expected != null, name+": no fixture") ) continue;
+			String got = (expected.startsWith("SHA-1 ") ? "SHA-1 "+sha1(dump)+"\n" : dump);
+			checks.expect(expected.equals(got), name+": wanted\n"+expected+"got\n"+dump);
+		}
+
+		// Folded, BEGIN and END are only part of the text
+		VComponent folded = VComponent.createComponentFromBlob(blobs().get(FOLDED_BEGIN)[0]).getChildren().get(0);
+		checks.expectEqual(FOLDED_BEGIN+": children", 0, folded.getChildren().size());
+		checks.expectEqual(FOLDED_BEGIN+": SUMMARY", "Not a componentBEGIN:VALARM", folded.getProperty("SUMMARY").getValue());
+		checks.expectEqual(FOLDED_BEGIN+": LOCATION", "Nor is thisEND:VEVENT", folded.getProperty("LOCATION").getValue());
+	}
+
+
+	/**
+	 * Prints the body of ComponentParserFixtures.BASELINE from what the parser we are running
+	 * against finds.
+	 */
+	private static void capture() {
+		for( Map.Entry<String,String[]> blob : blobs().entrySet() ) {
+			String name = blob.getKey();
+			if ( blob.getValue()[1] == null ) continue;
+			String dump = dump(VComponent.createComponentFromBlob(blob.getValue()[1]));
+			if ( name.startsWith("random ") ) dump = "SHA-1 "+sha1(dump)+"\n";
+			StringBuilder fixture = new StringBuilder("\t\t{ ").append(javaString(name));
+			String[] lines = dump.split("\n");
+			for( int i = 0; i < lines.length; i++ )
+				fixture.append(i == 0 ? ",\n\t\t\t\t" : "\n\t\t\t\t+ ").append(javaString(lines[i]+"\n"));
+			System.out.println(fixture.append(" },"));
+		}
+	}
+
+
+	/**
+	 * @return One line for each BEGIN, property and END in the component, as the parser found them.
+	 */
+	static String dump( VComponent component ) {
+		StringBuilder dump = new StringBuilder();
+		dump(component, dump);
+		return dump.toString();
+	}
+
+
+	private static void dump( VComponent component, StringBuilder dump ) {
+		dump.append("BEGIN:").append(component.getName()).append('\n');
+		for( AcalProperty property : component.getAllProperties() )
+			dump.append(property.toRfcString().replace("\r\n", "\n")).append('\n');
+		for( VComponent child : component.getChildren() ) dump(child, dump);
+		dump.append("END:").append(component.getName()).append('\n');
+	}
+
+
+	private static String sha1( String dump ) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(dump.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for( byte b : digest ) hex.append(String.format("%02x", b));
+			return hex.toString();
+		}
+		catch ( NoSuchAlgorithmException e ) {
+			throw new IllegalStateException(e);
+		}
+		catch ( UnsupportedEncodingException e ) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	private static String javaString( String s ) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\t", "\\t")
+				.replace("\r", "\\r").replace("\n", "\\n") + "\"";
+	}
+
+
+	/**
+	 * Measures the time taken to parse a large calendar, and look at everything in it.
+	 */
+	private static void timeParser() {
+		String blob = calendar(randomEvents(new Random(7), TIMING_EVENTS));
+		for( int i = 0; i < 5; i++ ) walk(VComponent.createComponentFromBlob(blob));
+
+		long start = System.nanoTime();
+		for( int i = 0; i < TIMING_PARSES; i++ ) walk(VComponent.createComponentFromBlob(blob));
+		long parser = System.nanoTime() - start;
+
+		System.out.println(String.format("%d events, %dKB: %.2fms each parse",
+				TIMING_EVENTS, blob.length() / 1024, parser / 1000000.0 / TIMING_PARSES));
+	}
+
+
+	private static int walk( VComponent component ) {
+		int count = component.getAllProperties().length;
+		for( VComponent child : component.getChildren() ) count += walk(child);
+		return count;
+	}
+
+
+	private static String calendar( String components ) {
+		return "BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Morphoss//ComponentParserCheck//EN\r\n"+components+"END:VCALENDAR\r\n";
+	}
+
+
+	/**
+	 * Events with long descriptions folded at random places, with spaces or tabs, some with alarms.
+	 */
+	private static String randomEvents( Random random, int count ) {
+		StringBuilder events = new StringBuilder();
+		for( int i = 0; i < count; i++ ) {
+			StringBuilder description = new StringBuilder("DESCRIPTION:");
+			int words = 5 + random.nextInt(60);
+			for( int w = 0; w < words; w++ ) description.append("word").append(random.nextInt(1000)).append(' ');
+			for( int pos = 20 + random.nextInt(40); pos < description.length(); pos += 20 + random.nextInt(55) )
+				description.insert(pos, random.nextBoolean() ? "\r\n " : "\r\n\t");
+
+			events.append("BEGIN:VEVENT\r\nUID:event-").append(i).append("@example.com\r\n")
+					.append("DTSTAMP:20110101T000000Z\r\nDTSTART;TZID=Pacific/Auckland:2011")
+					.append(String.format("%02d%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)))
+					.append("T093000\r\nDURATION:PT1H\r\nSUMMARY:Event ").append(i).append("\r\n")
+					.append(description).append("\r\n");
+			if ( random.nextInt(3) == 0 )
+				events.append("BEGIN:VALARM\r\nACTION:DISPLAY\r\nTRIGGER:-PT").append(5 + random.nextInt(60))
+						.append("M\r\nDESCRIPTION:Reminder\r\nEND:VALARM\r\n");
+			events.append("END:VEVENT\r\n");
+		}
+		return events.toString();
+	}
+}
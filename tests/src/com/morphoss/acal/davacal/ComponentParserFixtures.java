@@ -0,0 +1,536 @@
+package com.morphoss.acal.davacal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * What the parser before the single pass one found in each of ComponentParserCheck's blobs, or in
+ * the equivalent blob it was given instead, as dumped by ComponentParserCheck.dump().  The body of
+ * BASELINE is the output of ComponentParserCheck --capture run against that parser, and shouldn't
+ * be edited by hand.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+final class ComponentParserFixtures {
+
+	private static final String[][]	BASELINE	= {
+		{ "simple",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:simple\n"
+				+ "DTSTAMP:20110101T000000Z\n"
+				+ "DTSTART:20110101T090000Z\n"
+				+ "SUMMARY:Simple\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "bare newlines",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:simple\n"
+				+ "DTSTAMP:20110101T000000Z\n"
+				+ "DTSTART:20110101T090000Z\n"
+				+ "SUMMARY:Simple\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "no final newline",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:simple\n"
+				+ "DTSTAMP:20110101T000000Z\n"
+				+ "DTSTART:20110101T090000Z\n"
+				+ "SUMMARY:Simple\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "blank lines",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:simple\n"
+				+ "DTSTAMP:20110101T000000Z\n"
+				+ "DTSTART:20110101T090000Z\n"
+				+ "SUMMARY:Simple\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "lower case",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:simple\n"
+				+ "DTSTAMP:20110101T000000Z\n"
+				+ "DTSTART:20110101T090000Z\n"
+				+ "SUMMARY:Simple\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "folded with spaces",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:folds\n"
+				+ "DESCRIPTION:A long description which goes on and on\\,and on.\n"
+				+ "ATTENDEE;CN=\"Someone\";ROLE=REQ-PARTICIPANT:mailto:someone@example.com\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "folded with tabs",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:tabs\n"
+				+ "DESCRIPTION:A long description which goes onand on.\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n" },
+		{ "nested",
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss//ComponentParserCheck//EN\n"
+				+ "BEGIN:VTIMEZONE\n"
+				+ "TZID:Pacific/Auckland\n"
+				+ "BEGIN:STANDARD\n"
+				+ "DTSTART:19700405T030000\n"
+				+ "TZOFFSETFROM:+1300\n"
+				+ "TZOFFSETTO:+1200\n"
+				+ "RRULE:FREQ=YEARLY;BYMONTH=4;BYDAY=1SU\n"
+				+ "END:STANDARD\n"
+				+ "BEGIN:DAYLIGHT\n"
+				+ "DTSTART:19700927T020000\n"
+				+ "TZOFFSETFROM:+1200\n"
+				+ "TZOFFSETTO:+1300\n"
+				+ "RRULE:FREQ=YEARLY;BYMONTH=9;BYDAY=-1SU\n"
+				+ "END:DAYLIGHT\n"
+				+ "END:VTIMEZONE\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:nested\n"
+				+ "DTSTART;TZID=Pacific/Auckland:20110101T090000\n"
+				+ "SUMMARY:After the alarm\n"
+				+ "BEGIN:VALARM\n"
+				+ "ACTION:DISPLAY\n"
+				+ "TRIGGER:-PT15M\n"
+				+ "DESCRIPTION:Soon\n"
+				+ "END:VALARM\n"
+				+ "END:VEVENT\n"
+				+ "BEGIN:VTODO\n"
+				+ "UID:todo\n"
+				+ "SUMMARY:Something to do\n"
+				+ "END:VTODO\n"
+				+ "END:VCALENDAR\n" },
+		{ "random 0",
+				"SHA-1 d2c025e6023e7dcb25ddd70e40bf21d9a30bd028\n" },
+		{ "random 1",
+				"SHA-1 d068fa1401e1650c56654e73080cbf68813f68c8\n" },
+		{ "random 2",
+				"SHA-1 8b36efbb3baa0ad5e89243982ced4db7ba68a9a8\n" },
+		{ "random 3",
+				"SHA-1 2a8feb85f6626a789f8514865daf1a5aeac7af71\n" },
+		{ "random 4",
+				"SHA-1 ffa89d2681734ba6419a73aa817d57769c8d78bd\n" },
+		{ "random 5",
+				"SHA-1 433cac6c8aa85ee82ddae8a656d5526b079167a9\n" },
+		{ "random 6",
+				"SHA-1 9410a18dff702fecae64aa793392c9a953b28d61\n" },
+		{ "random 7",
+				"SHA-1 b7005c29f00f258058c8419f60a635c0ebf6a694\n" },
+		{ "random 8",
+				"SHA-1 e70eaebacafc2dda60c8501420283875a0ef9504\n" },
+		{ "random 9",
+				"SHA-1 98e4f2459fdbc664f50907599cf1cb699d76bbc1\n" },
+		{ "random 10",
+				"SHA-1 1185b438a44d1fdc7e0656d7bee760b5603cf906\n" },
+		{ "random 11",
+				"SHA-1 230da5a6e6679f596d234a9cb63824523222ac17\n" },
+		{ "random 12",
+				"SHA-1 62c17124296289c5fa413349a4600f7bab7df1c8\n" },
+		{ "random 13",
+				"SHA-1 b29d2710145174a73f207e4f41b7bb0c2daeb34b\n" },
+		{ "random 14",
+				"SHA-1 a2ae9f9d6d0eaa16c2082b96dc4777976bd74aa3\n" },
+		{ "random 15",
+				"SHA-1 facba02330971edb015659704abe996af9237ce7\n" },
+		{ "random 16",
+				"SHA-1 877a8ed6c5db559985bfc328263d87927163dde5\n" },
+		{ "random 17",
+				"SHA-1 e6a10bdc5c36224b8c0855fc5bb423e6e6bdddc8\n" },
+		{ "random 18",
+				"SHA-1 fc934c5cded41204f5ed73fe372ebed4892a6de1\n" },
+		{ "random 19",
+				"SHA-1 8672fe0e9d401789658992a97f7cd65e297e3009\n" },
+		{ "random 20",
+				"SHA-1 f305051386cce4db73add003cfd11c639f4a7448\n" },
+		{ "random 21",
+				"SHA-1 559730cdbbe24f63c5b3dca278410b77c8c9ca52\n" },
+		{ "random 22",
+				"SHA-1 8aa37eef96538a9cd7f375cd0ad4849fd387a2e8\n" },
+		{ "random 23",
+				"SHA-1 54fbdcc3351f5c02f9ba8018ff41dce71a54c46b\n" },
+		{ "random 24",
+				"SHA-1 dfaa229081c2c821fec5abcf9c5230af732d3325\n" },
+		{ "random 25",
+				"SHA-1 f604fb987d1de9bd1bf77daf93850a39f4b8ef9f\n" },
+		{ "random 26",
+				"SHA-1 4883e54cd0196bd5045bcbbc6f01c8959d8c8719\n" },
+		{ "random 27",
+				"SHA-1 088126e6d2c67e18115c517d187d2b7633799219\n" },
+		{ "random 28",
+				"SHA-1 201f783b3683b897fc6a9d804bb3a69b462aacea\n" },
+		{ "random 29",
+				"SHA-1 8d617b3ad5f7607b8c9f4bb2f099a908eccd2c54\n" },
+		{ "random 30",
+				"SHA-1 3ab68956222b6eb9ccc6230a6998f2a3e0e6dff7\n" },
+		{ "random 31",
+				"SHA-1 184cb0ab4b6baae0aac5cb838d12dd8c61e11e63\n" },
+		{ "random 32",
+				"SHA-1 97b6776962caa0b3d36313b492051d5be1f546e6\n" },
+		{ "random 33",
+				"SHA-1 7e76c50736f78d079bcbd025bfff5ef35d72169b\n" },
+		{ "random 34",
+				"SHA-1 469942841060a5dffb8e5d9f92e98e0a55a113a7\n" },
+		{ "random 35",
+				"SHA-1 a964c4955c6c9d22ac8c8bbf6d3ae4b41443533a\n" },
+		{ "random 36",
+				"SHA-1 55d170e1319a4db38fb741cb99ddbfc3a1e6654e\n" },
+		{ "random 37",
+				"SHA-1 71875d41b7a94dc97e429a6e445a92f5ff37ba0f\n" },
+		{ "random 38",
+				"SHA-1 624e9f8d198e995bcd234b26839ecf4b93303baf\n" },
+		{ "random 39",
+				"SHA-1 458cc7a1764e9a7c9799fef8301b667fb08a43c7\n" },
+		{ "random 40",
+				"SHA-1 06c028094de5b8d4976ad2213823dabdebb546f3\n" },
+		{ "random 41",
+				"SHA-1 5e447a8c6a2654387f383837d182196309929910\n" },
+		{ "random 42",
+				"SHA-1 7ba6621366987435d73b32c24c6177687d57cb70\n" },
+		{ "random 43",
+				"SHA-1 82e4c55074d8eec51987b3c334c3a4b5e29e5b7f\n" },
+		{ "random 44",
+				"SHA-1 6d9e6fb1f071916e9f33c6ff97c03f4e5e56b02a\n" },
+		{ "random 45",
+				"SHA-1 29f22878134a797f5edd1b2883ea433370f6ed0b\n" },
+		{ "random 46",
+				"SHA-1 f323521ecc4316a1d9c61b4d8a84716ffcaddcfe\n" },
+		{ "random 47",
+				"SHA-1 3ee2b8a62ac242dd2f081fd3073e19b9ed92d6c9\n" },
+		{ "random 48",
+				"SHA-1 490e684ffd33625786b55f1a4075ac8307142e6a\n" },
+		{ "random 49",
+				"SHA-1 569c49232ed70a9b87ac6e6dc757f479fef0e16a\n" },
+		{ "random 50",
+				"SHA-1 57c1bb46a560882f798d9215d8fbe17aee45dc0f\n" },
+		{ "random 51",
+				"SHA-1 838ec352ab721a6e925728e6f669f784e011ed3c\n" },
+		{ "random 52",
+				"SHA-1 ce82939f578bfe3c15406775045f4f73e0d06313\n" },
+		{ "random 53",
+				"SHA-1 9cf06d8958e4315906fb4544551b6730d2822b7a\n" },
+		{ "random 54",
+				"SHA-1 5f77161e3e84582790ba9fc1199d7b266f5bd6ac\n" },
+		{ "random 55",
+				"SHA-1 78ec29b01711849b8227c304559d8cfc18764f1c\n" },
+		{ "random 56",
+				"SHA-1 bc0c2567cbf446d9549600b889bacb58635034e0\n" },
+		{ "random 57",
+				"SHA-1 52ac768d63882032180c67149266863acf295a24\n" },
+		{ "random 58",
+				"SHA-1 b42a05874c530db3687b186a4ea090419f7e5ba2\n" },
+		{ "random 59",
+				"SHA-1 c42d6ff8d7a1441e33b39170f905307faa2fcf84\n" },
+		{ "random 60",
+				"SHA-1 34fdfee0ef7c6507ec224ccf6e2ad434aee68c23\n" },
+		{ "random 61",
+				"SHA-1 2fa6d87db78ed73c60b59101f99ed925ea516d47\n" },
+		{ "random 62",
+				"SHA-1 e1650c59559284516846ed7a759510661058cbc8\n" },
+		{ "random 63",
+				"SHA-1 700df7e2821fc2d44bf612316b7a7a86e1ea9baa\n" },
+		{ "random 64",
+				"SHA-1 026238bbad59b5c274df93627114343142474534\n" },
+		{ "random 65",
+				"SHA-1 90cf76190a3f94c29ba4d7fdd104ce1fe1ba164c\n" },
+		{ "random 66",
+				"SHA-1 089a2d33d8a29b0841c48bb9b2450112ada9366f\n" },
+		{ "random 67",
+				"SHA-1 b6cbcf54dea67c74a97a42da9eada651be8bff1b\n" },
+		{ "random 68",
+				"SHA-1 e768bac53d5f7d0b39d7998a0a63b2d5b7046235\n" },
+		{ "random 69",
+				"SHA-1 fc347928501334f7a567cb015135f89e5727e7d3\n" },
+		{ "random 70",
+				"SHA-1 cf358df440eb55a7410852d6def0d9d59ea8f873\n" },
+		{ "random 71",
+				"SHA-1 7238d150610330ad0be58f8f1050db80b54018fc\n" },
+		{ "random 72",
+				"SHA-1 97d263d0268b8c2284443ffdca4c35e6a5ea2e38\n" },
+		{ "random 73",
+				"SHA-1 5aff533ac5d1b5ae498e2e9d441fb5a0870a81e7\n" },
+		{ "random 74",
+				"SHA-1 a6ea8642be551f6e5c23e84f9722104dff8b95a0\n" },
+		{ "random 75",
+				"SHA-1 b39e0aa73df113c1a5439cf3627f23622323bef3\n" },
+		{ "random 76",
+				"SHA-1 8636e6981a4512b955e49a78da36a811eed9b541\n" },
+		{ "random 77",
+				"SHA-1 cf7392fe72cda576af88a769d78d07eede92e906\n" },
+		{ "random 78",
+				"SHA-1 1808f10920be2e6afd65d8c883771351cf5fc7e9\n" },
+		{ "random 79",
+				"SHA-1 52145f32e6f44555476da7f0b08abfa9457ade95\n" },
+		{ "random 80",
+				"SHA-1 c983696810d533ce10609894213e1295e484069f\n" },
+		{ "random 81",
+				"SHA-1 77b00a9611030d44aec9190e11e0aadebba04c2a\n" },
+		{ "random 82",
+				"SHA-1 994d1db52b36122e0f0e596af68a877e6a9da7b2\n" },
+		{ "random 83",
+				"SHA-1 8862bad3571a67923a350b7f5ae1be9c0bc06221\n" },
+		{ "random 84",
+				"SHA-1 a4eb08c4f089ac4a304bc789a87a4bbaa7d6b646\n" },
+		{ "random 85",
+				"SHA-1 3df7928b51a9251bbca75ddd993a4e645901bb01\n" },
+		{ "random 86",
+				"SHA-1 3373fd08396b5c1c85467ab5506df9075ed1fd99\n" },
+		{ "random 87",
+				"SHA-1 38655209cdf99ce6b54953f250210fc41eb36f63\n" },
+		{ "random 88",
+				"SHA-1 6e5a5e46a01899d3c2136bc3893890e7c167e9cf\n" },
+		{ "random 89",
+				"SHA-1 c9b9c9abf49e8cdf3f2d69c1d095781a8dcf8271\n" },
+		{ "random 90",
+				"SHA-1 57f91e63a0ce3139fa4b061fe51528d77d5998a0\n" },
+		{ "random 91",
+				"SHA-1 7d815190505961fe899765f3f96b042c0446b045\n" },
+		{ "random 92",
+				"SHA-1 f9fb7ee1cbcd530c9aea7af5e7e92cc368036ee3\n" },
+		{ "random 93",
+				"SHA-1 664cf001f49be3dbcfda82113e65e4adc3b77ae3\n" },
+		{ "random 94",
+				"SHA-1 d8be63e4687f3fbc92fc88715aba7a22e1696e20\n" },
+		{ "random 95",
+				"SHA-1 349e0c5c8ed8d2f2a694312afc6edd6fc3505c2b\n" },
+		{ "random 96",
+				"SHA-1 2d19aeb5093f58a869124d04a7c9272e8dbbf139\n" },
+		{ "random 97",
+				"SHA-1 0b9a7874d36aea30c4de70f91ab2564a0f699dc9\n" },
+		{ "random 98",
+				"SHA-1 8ab3fec015db81003248fcc89c5dfb3997f2d2a2\n" },
+		{ "random 99",
+				"SHA-1 28a1f0ab1c6559307a0909e1720ae4fd93c773d0\n" },
+		{ "random 100",
+				"SHA-1 9c9d1ade60ffd475c97e0a532061efeb08468875\n" },
+		{ "random 101",
+				"SHA-1 a840c0a4ffc64137f8b30056f1c93c9073170ed9\n" },
+		{ "random 102",
+				"SHA-1 1f6754909434d1a538ff0ebde933792f19643ec1\n" },
+		{ "random 103",
+				"SHA-1 9b458897edf748201ce23873127d367b95a659d9\n" },
+		{ "random 104",
+				"SHA-1 0ac979bd3f49b3e43f21a9d3076146a3fc8a2932\n" },
+		{ "random 105",
+				"SHA-1 0d7d6ecce6a6292f6ebe55830eec1d5d4c1f6654\n" },
+		{ "random 106",
+				"SHA-1 537ac54f38aeaeef9bcbeb1b65d410effef7657a\n" },
+		{ "random 107",
+				"SHA-1 e3db309b984aaac3d3ed047e64ae2d4896829fbf\n" },
+		{ "random 108",
+				"SHA-1 acd907948265ffa80a6fd9843e3c7736a73f85cc\n" },
+		{ "random 109",
+				"SHA-1 22b77152fc5de9c0eabf61995f0c5714b4e58f15\n" },
+		{ "random 110",
+				"SHA-1 9f7745591263cc395d71f1c459b7d7e926452195\n" },
+		{ "random 111",
+				"SHA-1 136df7afc56de73ceee95aaa0bfeb6e63f5cd3b3\n" },
+		{ "random 112",
+				"SHA-1 b4fe7e2dda9c401c88ce493e882258d119d3edb3\n" },
+		{ "random 113",
+				"SHA-1 8d62035f98e442c2123dd734846445fe12507845\n" },
+		{ "random 114",
+				"SHA-1 668499cf98258b3bbc2fd85325aafea64b0f94c5\n" },
+		{ "random 115",
+				"SHA-1 f4f7a32af8e612bfb788193b2001de73cf0f93a9\n" },
+		{ "random 116",
+				"SHA-1 a89e2b69a60e360fe0ca430f054e37286be51cea\n" },
+		{ "random 117",
+				"SHA-1 4753caa12309f152618fb0cc423bfda8472c259c\n" },
+		{ "random 118",
+				"SHA-1 4555d9953fafd25dfa9790a65a6529ca68d23271\n" },
+		{ "random 119",
+				"SHA-1 07fab385b99dc032842f2259b4ddf8e870753a9b\n" },
+		{ "random 120",
+				"SHA-1 2cca4f00cbce270cc73188057644009d0e2f0bb0\n" },
+		{ "random 121",
+				"SHA-1 44855630733ce9f23206de39971a1a40dcd8a4dd\n" },
+		{ "random 122",
+				"SHA-1 fb3e51539f45569738a56178e2c632d316208637\n" },
+		{ "random 123",
+				"SHA-1 e691a7df93ac1b41721a09138ee5927dc16f04f2\n" },
+		{ "random 124",
+				"SHA-1 f3ef4b015f7d956b0e5e418fbc5ed7ee67df9afd\n" },
+		{ "random 125",
+				"SHA-1 84bd573c7d27264f772cb131920338c70937eff7\n" },
+		{ "random 126",
+				"SHA-1 f349e7a471d7dcb3b219fb6ef3c270f6093cb90d\n" },
+		{ "random 127",
+				"SHA-1 fd559fda9a4036abf71e7464da5aec9e95ca7638\n" },
+		{ "random 128",
+				"SHA-1 5d520ae35e7bc40619c714746587ddf7428aab60\n" },
+		{ "random 129",
+				"SHA-1 fccd227b2b7bcd47d50de05815a53673545692bb\n" },
+		{ "random 130",
+				"SHA-1 1f1c8b46fb2ae6fa3dec1700929ba592878c0edc\n" },
+		{ "random 131",
+				"SHA-1 129aac51d133628d1bd6f37f51c486305288e2d2\n" },
+		{ "random 132",
+				"SHA-1 1714da8f09edb2fc031b5fc725a4ae24133d274c\n" },
+		{ "random 133",
+				"SHA-1 a96f81205935ddb4b052e3c170471c0c7e3354f9\n" },
+		{ "random 134",
+				"SHA-1 d1780ec3fdcda9c40cc918d80dd54232f3a75696\n" },
+		{ "random 135",
+				"SHA-1 6fb18080e7cb6b88e1afbcd0c374c44b2d04b0cc\n" },
+		{ "random 136",
+				"SHA-1 7c7713f2d98405c6e226419e9c81682efadc9ac0\n" },
+		{ "random 137",
+				"SHA-1 71f55e0d277b49cd87a8d68022336455ea3a6325\n" },
+		{ "random 138",
+				"SHA-1 de40a71fc99ef570c5c9c1c5084cfa23d831e211\n" },
+		{ "random 139",
+				"SHA-1 07e11e17f2f3521756819d857bc216d74fcb5cd8\n" },
+		{ "random 140",
+				"SHA-1 8a32a0a4dfcd7caf36d3dc9fba778ed17a192671\n" },
+		{ "random 141",
+				"SHA-1 ec1b859a0a9cac644978fb0c6d50d1ae4926c478\n" },
+		{ "random 142",
+				"SHA-1 6f2da1c05cf7fbd5532e51d8a0638e2445ffbdf7\n" },
+		{ "random 143",
+				"SHA-1 c45926b86f02c3256789ac2fd445c0f4aa912d7c\n" },
+		{ "random 144",
+				"SHA-1 08cf0e2bc85c2609a9a040f105eff672ed5cc564\n" },
+		{ "random 145",
+				"SHA-1 f0d2d4a5f61dfbe3631b42f00c64fb5fce8c9788\n" },
+		{ "random 146",
+				"SHA-1 96a1fe142e3425757d2002b36080d2feec26e545\n" },
+		{ "random 147",
+				"SHA-1 1ef624ca8837a3a8a950b89de75ab1f4e175c0c6\n" },
+		{ "random 148",
+				"SHA-1 7186ec9155c6c496c2eaf08e7f34f0c5e81ec156\n" },
+		{ "random 149",
+				"SHA-1 d9dc30d92e211761a78853932c0c8462e6ec33d8\n" },
+		{ "random 150",
+				"SHA-1 9eebb0fd5d97334aa507db93a6937b104967d0f1\n" },
+		{ "random 151",
+				"SHA-1 9512fa499df0b372f0a914809eaf93b64e6273c3\n" },
+		{ "random 152",
+				"SHA-1 b0553ae388f5fe5c20c75fa0d314c09c1e3a6206\n" },
+		{ "random 153",
+				"SHA-1 832a5363dfd74b389fd0a7502ef6d9aa41235090\n" },
+		{ "random 154",
+				"SHA-1 ce519c9ad9c3c477f8299b910388cfeba28db9de\n" },
+		{ "random 155",
+				"SHA-1 d197883792397afb0fb48406af2119d283df9e3e\n" },
+		{ "random 156",
+				"SHA-1 42f80a87b705b8831f5ede70cf8d31c2ef69e0a9\n" },
+		{ "random 157",
+				"SHA-1 122bd4a76a0557cafd1bb1bf0a5dd786ac33b2ed\n" },
+		{ "random 158",
+				"SHA-1 01a9da33d7dbc1d7b948bb6d994d70f7eb9cd9f0\n" },
+		{ "random 159",
+				"SHA-1 35fdcf1604323c1d185efd71106537c74b7d30a8\n" },
+		{ "random 160",
+				"SHA-1 e3aef07719791d04345aab1409a1d123850f0ac9\n" },
+		{ "random 161",
+				"SHA-1 8058bbcf76dd8b6e0a34a69f5acf97bcbee30a96\n" },
+		{ "random 162",
+				"SHA-1 fd602944173d272f14921fddc66d775f77856a4e\n" },
+		{ "random 163",
+				"SHA-1 87e4767554f9132685f6d8882543c99252debdad\n" },
+		{ "random 164",
+				"SHA-1 532cc08f8f59107f9b53c0df4a599368e399b49b\n" },
+		{ "random 165",
+				"SHA-1 2613fc636c7b02c7ac19b759dcb7e218cc8eeb7a\n" },
+		{ "random 166",
+				"SHA-1 de06fc9fa72b67523e88e4f38fff761e5896ad2a\n" },
+		{ "random 167",
+				"SHA-1 275f3736cf86191c28d0a47d7ad8289b59b4540e\n" },
+		{ "random 168",
+				"SHA-1 354a18a524682e130f1ebf6ddd6a5057d63d90d5\n" },
+		{ "random 169",
+				"SHA-1 6d71fdf9a6aa2a89c1f34bf39164efcfe1947cfd\n" },
+		{ "random 170",
+				"SHA-1 d536ccbd3801ce1473982180713c679835796c23\n" },
+		{ "random 171",
+				"SHA-1 7251b65a1cf85c9881d390b2af0c3299b341db6c\n" },
+		{ "random 172",
+				"SHA-1 e329ee06b0b4d6b5bc92103d3304a1d315c01607\n" },
+		{ "random 173",
+				"SHA-1 877f6953b2811ddcbb57ef30611910471fa3dae1\n" },
+		{ "random 174",
+				"SHA-1 6054710b0d049688066992897db3d434a9f776ab\n" },
+		{ "random 175",
+				"SHA-1 26f6ffb66ce3ad07ada126e2ae14868c9f380176\n" },
+		{ "random 176",
+				"SHA-1 7045b6ca26118648bc2d5c3949355962f71df12b\n" },
+		{ "random 177",
+				"SHA-1 044929bd251ccdf1d148c6a76dfe541e59a2a8d9\n" },
+		{ "random 178",
+				"SHA-1 ef0ab7640ba3146001eb93282179139aa09142e9\n" },
+		{ "random 179",
+				"SHA-1 536d74f7d6bf726decff75ff6184b4d18238f7fd\n" },
+		{ "random 180",
+				"SHA-1 858695309329dc314652d7ceddb6a24b9ed68858\n" },
+		{ "random 181",
+				"SHA-1 6e33f9a5ce4b07c89e883572062d0a38a6370f18\n" },
+		{ "random 182",
+				"SHA-1 6064904ed83173ded2cc2eb5a4b8740daf96d8a1\n" },
+		{ "random 183",
+				"SHA-1 a0ee2a362974171b411f2ce36d2375fd6630ad14\n" },
+		{ "random 184",
+				"SHA-1 3211029a309b09f8e66b3c96bbcaf04e967b37bb\n" },
+		{ "random 185",
+				"SHA-1 fceafa931bf29885dc10ef263172009d8342623f\n" },
+		{ "random 186",
+				"SHA-1 754c24bc43acb4f4dddd8900db788812e0031a28\n" },
+		{ "random 187",
+				"SHA-1 96bf54e0b51bd8acbb3d43ace9827dc20d94422f\n" },
+		{ "random 188",
+				"SHA-1 545169e885b09dd12dc5e07a73d8a2fe6a25381c\n" },
+		{ "random 189",
+				"SHA-1 e957919afb1b23f5198951a097b5e6316e4fd08d\n" },
+		{ "random 190",
+				"SHA-1 ad7e240db8186baa04e0cbbd44914a523d9fb641\n" },
+		{ "random 191",
+				"SHA-1 91a90b0696a292a9b0c7c02e669db4ab53e8f64b\n" },
+		{ "random 192",
+				"SHA-1 0275843616d0ab517fd3892e11a6e728c602b303\n" },
+		{ "random 193",
+				"SHA-1 88ba20fda9c4c18019132908c2b975c3aad77e65\n" },
+		{ "random 194",
+				"SHA-1 6384334b34d1e020b3e73e433f63a5aee7a44b21\n" },
+		{ "random 195",
+				"SHA-1 7f4c4fcc42b33dd73754893e8241893484881157\n" },
+		{ "random 196",
+				"SHA-1 f5f1599f00f6d2fc7d19c4a7bcb39428b742f00e\n" },
+		{ "random 197",
+				"SHA-1 1a00614f6b5996954629d3584a3484c55cfdea12\n" },
+		{ "random 198",
+				"SHA-1 3a58df053ffae05b2210bc704565713de4746379\n" },
+		{ "random 199",
+				"SHA-1 eb7cb280eec49469ec3b32a416553c8501e57e42\n" },
+	};
+
+	/**
+	 * @return The dump for each blob by name, or "SHA-1 " and its digest for the random ones.
+	 */
+	static Map<String,String> expected() {
+		Map<String,String> expected = new LinkedHashMap<String,String>();
+		for( String[] fixture : BASELINE ) expected.put(fixture[0], fixture[1]);
+		return expected;
+	}
+}
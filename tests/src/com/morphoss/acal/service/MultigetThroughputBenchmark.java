@@ -0,0 +1,274 @@
+package com.morphoss.acal.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentValues;
+
+import com.morphoss.acal.Checks;
+import com.morphoss.acal.database.DMAction;
+import com.morphoss.acal.database.DMInsertQuery;
+import com.morphoss.acal.database.DMQueryList;
+import com.morphoss.acal.providers.DavCollections;
+import com.morphoss.acal.providers.Servers;
+
+/**
+ * <p>
+ * Times SyncCollectionContents.syncWithMultiget() fetching a collection of new resources from a
+ * mock CalDAV server on this machine, which takes SERVER_MILLIS_PER_REPORT to start answering each
+ * REPORT and SERVER_MILLIS_PER_RESOURCE more for each href in it.  The sync is given its collection
+ * and server rows directly, and writeResources() is overridden to count the inserts and sleep for
+ * WRITE_MILLIS_PER_RESOURCE each, in place of the database.
+ * </p>
+ * <p>
+ * Every href must be asked for exactly once, and come back as an insert.
+ * </p>
+ * <p>
+ * The sync sets its threads' priority with android.os.Process, so this must be run on a device or
+ * emulator, where app_process will run a main() directly:
+ * </p>
+ * <pre>
+ * dx --dex --output=/tmp/bench.jar bin/classes tests/bin/classes
+ * adb push /tmp/bench.jar /data/local/tmp/
+ * adb shell CLASSPATH=/data/local/tmp/bench.jar app_process / com.morphoss.acal.service.MultigetThroughputBenchmark [resources]
+ * </pre>
+ *
+ * @author Morphoss Ltd
+ */
+public class MultigetThroughputBenchmark {
+
+	private static final long	SERVER_MILLIS_PER_REPORT	= 150;
+	private static final long	SERVER_MILLIS_PER_RESOURCE	= 1;
+	private static final long	WRITE_MILLIS_PER_RESOURCE	= 1;
+	private static final int	EVENT_BYTES					= 1500;
+	private static final String	COLLECTION_PATH				= "/cal/";
+
+	private static final Pattern	hrefPattern		= Pattern.compile("<D:href>([^<]*)</D:href>");
+	private static final Pattern	lengthPattern	= Pattern.compile("(?i)\r\nContent-Length: *([0-9]+)");
+
+	// The client's connection pool keeps its connections open, and us reading them, until it exits
+	private static final ThreadFactory	daemons	= new ThreadFactory() {
+		@Override
+		public Thread newThread( Runnable r ) {
+			Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final Checks										checks			= new Checks();
+	private final ConcurrentHashMap<String,AtomicInteger>	requested		= new ConcurrentHashMap<String,AtomicInteger>();
+	private final ExecutorService								serverThreads	= Executors.newCachedThreadPool(daemons);
+	private ServerSocket										serverSocket;
+
+	public static void main( String[] args ) throws Exception {
+		int resources = (args.length > 0 ? Integer.parseInt(args[0]) : 1000);
+		MultigetThroughputBenchmark benchmark = new MultigetThroughputBenchmark();
+		benchmark.startServer();
+		try {
+			// Once to warm up the JIT and the connection pool, then the real thing
+			benchmark.sync(60);
+			long elapsed = benchmark.sync(resources);
+			benchmark.checks.finish();
+			System.out.println(String.format("%d resources: %dms (%d/s)", resources, elapsed, resources * 1000L / elapsed));
+		}
+		finally {
+			benchmark.serverSocket.close();
+			benchmark.serverThreads.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Syncs a collection of new resources, checking what was asked for and what would be written.
+	 * @return milliseconds taken
+	 */
+	private long sync( int resources ) {
+		Object[] hrefs = new Object[resources];
+		for( int i = 0; i < resources; i++ ) hrefs[i] = "event-"+i+".ics";
+		requested.clear();
+		final AtomicInteger inserts = new AtomicInteger(0);
+		final AtomicInteger others = new AtomicInteger(0);
+
+		SyncCollectionContents job = new SyncCollectionContents(collectionRow(), serverRow()) {
+			@Override
+			void writeResources( DMQueryList queryList ) {
+				for( DMAction action : queryList.getActions() ) {
+					if ( action instanceof DMInsertQuery ) inserts.incrementAndGet();
+					else others.incrementAndGet();
+				}
+				try {
+					Thread.sleep(queryList.size() * WRITE_MILLIS_PER_RESOURCE);
+				}
+				catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		long started = System.currentTimeMillis();
+		job.syncWithMultiget(new HashMap<String,ContentValues>(), hrefs);
+		long elapsed = System.currentTimeMillis() - started;
+
+		checks.expectEqual(resources+" resources inserted", resources, inserts.get());
+		checks.expectEqual(resources+" resources otherwise written", 0, others.get());
+		checks.expectEqual(resources+" resources asked for", resources, requested.size());
+		for( Object href : hrefs ) {
+			AtomicInteger times = requested.get(COLLECTION_PATH+href);
+			checks.expectEqual("times "+href+" was asked for", 1, times == null ? 0 : times.get());
+		}
+		return elapsed;
+	}
+
+
+	private static ContentValues collectionRow() {
+		ContentValues collection = new ContentValues();
+		collection.put(DavCollections._ID, 1L);
+		collection.put(DavCollections.SERVER_ID, 1);
+		collection.put(DavCollections.COLLECTION_PATH, COLLECTION_PATH);
+		collection.put(DavCollections.ACTIVE_ADDRESSBOOK, 0);
+		return collection;
+	}
+
+
+	private ContentValues serverRow() {
+		ContentValues server = new ContentValues();
+		server.put(Servers._ID, 1L);
+		server.put(Servers.HOSTNAME, "localhost");
+		server.put(Servers.PRINCIPAL_PATH, "/");
+		server.put(Servers.PORT, Integer.toString(serverSocket.getLocalPort()));
+		server.put(Servers.USE_SSL, 0);
+		server.put(Servers.AUTH_TYPE, Servers.AUTH_NONE);
+		server.put(Servers.USERNAME, "user");
+		server.put(Servers.PASSWORD, "pass");
+		return server;
+	}
+
+
+	/**
+	 * A server which answers any REPORT with a calendar-data response for each href in it, on as
+	 * many connections as it is asked to, keeping each open for as long as the client does.
+	 */
+	private void startServer() throws IOException {
+		serverSocket = new ServerSocket(0, 16, InetAddress.getByName("localhost"));
+		serverThreads.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while( true ) {
+						final Socket connection = serverSocket.accept();
+						serverThreads.execute(new Runnable() {
+							@Override
+							public void run() {
+								serve(connection);
+							}
+						});
+					}
+				}
+				catch ( IOException e ) {
+					// Closed when we're done
+				}
+			}
+		});
+	}
+
+
+	private void serve( Socket connection ) {
+		try {
+			InputStream in = new BufferedInputStream(connection.getInputStream());
+			OutputStream out = connection.getOutputStream();
+			String request;
+			while( (request = readRequest(in, out)) != null ) {
+				byte[] response = multistatusFor(request).getBytes("UTF-8");
+				out.write(("HTTP/1.1 207 Multi-Status\r\nContent-Type: application/xml; charset=utf-8\r\n"
+						+ "Content-Length: "+response.length+"\r\n\r\n").getBytes("UTF-8"));
+				out.write(response);
+				out.flush();
+			}
+		}
+		catch ( IOException e ) {
+			// The client went away
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			try {
+				connection.close();
+			}
+			catch ( IOException e ) {
+			}
+		}
+	}
+
+
+	/**
+	 * @return The headers and body of the next request on the connection, or null at the end of it.
+	 */
+	private static String readRequest( InputStream in, OutputStream out ) throws IOException {
+		ByteArrayOutputStream headers = new ByteArrayOutputStream();
+		int c;
+		while( (c = in.read()) >= 0 ) {
+			headers.write(c);
+			byte[] h = headers.toByteArray();
+			int n = h.length;
+			if ( n >= 4 && h[n-4] == '\r' && h[n-3] == '\n' && h[n-2] == '\r' && h[n-1] == '\n' ) break;
+		}
+		if ( c < 0 ) return null;
+
+		String head = headers.toString("UTF-8");
+		if ( head.toLowerCase().contains("\r\nexpect: 100-continue") ) {
+			out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("UTF-8"));
+			out.flush();
+		}
+		Matcher m = lengthPattern.matcher(head);
+		int length = (m.find() ? Integer.parseInt(m.group(1)) : 0);
+		byte[] body = new byte[length];
+		for( int read = 0; read < length; ) {
+			int n = in.read(body, read, length - read);
+			if ( n < 0 ) return null;
+			read += n;
+		}
+		return head + new String(body, "UTF-8");
+	}
+
+
+	private String multistatusFor( String request ) throws InterruptedException {
+		StringBuilder filler = new StringBuilder();
+		while( filler.length() < EVENT_BYTES ) filler.append("DESCRIPTION:Something to pad out the event a bit\r\n");
+
+		Matcher m = hrefPattern.matcher(request);
+		StringBuilder response = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n"
+				+ "<multistatus xmlns=\"DAV:\">\n");
+		int count = 0;
+		while( m.find() ) {
+			count++;
+			String href = m.group(1);
+			requested.putIfAbsent(href, new AtomicInteger(0));
+			requested.get(href).incrementAndGet();
+			response.append("<response><href>").append(href).append("</href><propstat><prop>")
+					.append("<getetag>\"").append(href.hashCode()).append("\"</getetag><calendar-data xmlns=\"urn:ietf:params:xml:ns:caldav\">")
+					.append("BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nUID:").append(href).append("\r\n")
+					.append(filler).append("END:VEVENT\r\nEND:VCALENDAR\r\n")
+					.append("</calendar-data></prop><status>HTTP/1.1 200 OK</status></propstat></response>\n");
+		}
+		response.append("</multistatus>\n");
+
+		Thread.sleep(SERVER_MILLIS_PER_REPORT + count * SERVER_MILLIS_PER_RESOURCE);
+		return response.toString();
+	}
+}
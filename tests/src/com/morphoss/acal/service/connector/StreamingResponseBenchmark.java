@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.morphoss.acal.service.connector;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.morphoss.acal.Checks;
+import com.morphoss.acal.service.SynchronisationJobs;
+import com.morphoss.acal.xml.DavNode;
+import com.morphoss.acal.xml.DavParserFactory;
+import com.morphoss.acal.xml.MultistatusResponseHandler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Measures the heap used to read a large multistatus response which arrives chunked, with no
+ * Content-Length, from a server on this machine.  Before, sendRequest() read a body like that into
+ * a String and handed on a ByteArrayInputStream of its bytes, so the whole response was in memory
+ * two or three times over before the parser saw any of it.  Now the entity's stream goes straight
+ * to the parser.  Both are parsed with the same streaming handler, so the only difference is the
+ * buffering.
+ * </p>
+ * <p>
+ * The heap is sampled every couple of milliseconds while each response is read, and the most seen
+ * in use is printed.  That includes garbage not yet collected, so the streamed figure is mostly
+ * however much the young generation holds, but the buffered one has to hold the whole body.
+ * Both must find every response in the body.  The default 20000 responses are about 45MB, so give
+ * it a heap of 256MB or so with -Xmx256m, and the HTTP client's jars on the classpath.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ */
+public class StreamingResponseBenchmark {
+
+	private static final int	EVENT_BYTES	= 2000;
+
+	private static final Checks		checks	= new Checks();
+	private static int				port;
+	private static int				responses;
+	private static ExecutorService	serverThreads;
+
+	public static void main( String[] args ) throws Exception {
+		responses = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+		HttpServer server = startServer();
+		try {
+			// Once each to warm up, then the real thing
+			buffered();
+			streamed();
+
+			long[] before = buffered();
+			long[] after = streamed();
+			checks.finish();
+			System.out.println(String.format("%d responses: buffered %dms, peak heap %dMB; streamed %dms, peak heap %dMB",
+					responses, before[0], before[1] >> 20, after[0], after[1] >> 20));
+		}
+		finally {
+			server.stop(0);
+			serverThreads.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * As sendRequest() did for a body of unknown length before it was streamed.
+	 * @return milliseconds taken and the peak heap in use
+	 */
+	private static long[] buffered() throws Exception {
+		HeapSampler sampler = new HeapSampler();
+		long start = System.currentTimeMillis();
+		AcalRequestor requestor = requestor();
+		InputStream in = requestor.doRequest("REPORT", "/cal/", SynchronisationJobs.getReportHeaders(1), "<x/>");
+		String body = readAll(in);
+		Counter counter = new Counter();
+		DavParserFactory.streamMultistatus(new ByteArrayInputStream(body.getBytes()), counter);
+		return finish("buffered", sampler, start, counter);
+	}
+
+
+	/**
+	 * As sendRequest() does now.
+	 * @return milliseconds taken and the peak heap in use
+	 */
+	private static long[] streamed() throws Exception {
+		HeapSampler sampler = new HeapSampler();
+		long start = System.currentTimeMillis();
+		Counter counter = new Counter();
+		requestor().doStreamingXmlRequest("REPORT", "/cal/", SynchronisationJobs.getReportHeaders(1), "<x/>", counter);
+		return finish("streamed", sampler, start, counter);
+	}
+
+
+	private static long[] finish( String what, HeapSampler sampler, long start, Counter counter ) throws InterruptedException {
+		long elapsed = System.currentTimeMillis() - start;
+		long peak = sampler.finish();
+		checks.expectEqual(what+" responses parsed", responses, counter.count);
+		return new long[] { elapsed, peak };
+	}
+
+
+	/**
+	 * The old streamToString(), which the buffered path went through.
+	 */
+	private static String readAll( InputStream in ) throws IOException {
+		StringBuilder total = new StringBuilder();
+		BufferedReader r = new BufferedReader(new InputStreamReader(in), AcalConnectionPool.DEFAULT_BUFFER_SIZE);
+		String line;
+		while ( (line = r.readLine()) != null ) {
+			total.append(line).append("\n");
+		}
+		in.close();
+		return total.toString();
+	}
+
+
+	private static AcalRequestor requestor() {
+		return new AcalRequestor("localhost", 0, port, "/cal/", "user", "pass");
+	}
+
+
+	private static final class Counter implements MultistatusResponseHandler {
+		int count = 0;
+
+		@Override
+		public void response( DavNode response ) {
+			if ( response.getFirstNodeText("propstat/prop/calendar-data") != null ) count++;
+		}
+	}
+
+
+	/**
+	 * Records the most heap seen in use, from after a collection when it starts until finish().
+	 */
+	private static final class HeapSampler extends Thread {
+		private volatile boolean running = true;
+		private long peak = 0;
+
+		HeapSampler() {
+			System.gc();
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run() {
+			Runtime runtime = Runtime.getRuntime();
+			while( running ) {
+				peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+				try {
+					Thread.sleep(2);
+				}
+				catch ( InterruptedException e ) {
+					return;
+				}
+			}
+		}
+
+		long finish() throws InterruptedException {
+			running = false;
+			join();
+			return peak;
+		}
+	}
+
+
+	/**
+	 * A server which answers anything with a multistatus of as many responses as we were asked
+	 * for, written as it goes with chunked encoding.
+	 */
+	private static HttpServer startServer() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 16);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				InputStream in = exchange.getRequestBody();
+				byte[] buffer = new byte[8192];
+				while( in.read(buffer) > 0 ) ;
+
+				StringBuilder filler = new StringBuilder();
+				while( filler.length() < EVENT_BYTES ) filler.append("DESCRIPTION:Something to pad out the event a bit\r\n");
+
+				exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=utf-8");
+				exchange.sendResponseHeaders(207, 0);
+				OutputStream out = exchange.getResponseBody();
+				out.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<multistatus xmlns=\"DAV:\">\n".getBytes("UTF-8"));
+				for( int i = 0; i < responses; i++ ) {
+					out.write(("<response><href>/cal/event-"+i+".ics</href><propstat><prop><getetag>\""+i+"\"</getetag>"
+							+ "<calendar-data xmlns=\"urn:ietf:params:xml:ns:caldav\">BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\n"
+							+ "UID:event-"+i+"\r\n"+filler+"END:VEVENT\r\nEND:VCALENDAR\r\n</calendar-data></prop>"
+							+ "<status>HTTP/1.1 200 OK</status></propstat></response>\n").getBytes("UTF-8"));
+				}
+				out.write("</multistatus>\n".getBytes("UTF-8"));
+				out.close();
+			}
+		});
+		serverThreads = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverThreads);
+		server.start();
+		port = server.getAddress().getPort();
+		return server;
+	}
+}